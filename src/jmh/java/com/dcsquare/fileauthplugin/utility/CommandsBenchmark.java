@@ -0,0 +1,81 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility;
+
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures salt generation and the complete hashing path of {@link Commands#getHashedString(String)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandsBenchmark {
+
+    @Param({"SHA-512"})
+    public String algorithm;
+
+    @Param({"1", "1000", "1000000"})
+    public int iterations;
+
+    private Commands commands;
+
+    @Setup
+    public void setUp() throws Exception {
+        final File directory = Files.createTempDir();
+        directory.deleteOnExit();
+        new File(directory, "credentials.properties").createNewFile();
+        final File config = new File(directory, "fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\n" +
+                "passwordHashing.iterations:" + iterations + "\n" +
+                "passwordHashing.algorithm:" + algorithm + "\n", config, Charsets.UTF_8);
+
+        commands = new Commands();
+        commands.fileAuthConfiguration = new FileAuthConfiguration(config.getAbsolutePath());
+    }
+
+    @Benchmark
+    public byte[] salt() {
+        return commands.getSalt();
+    }
+
+    @Benchmark
+    public String hashedString() {
+        return commands.getHashedString("password");
+    }
+}
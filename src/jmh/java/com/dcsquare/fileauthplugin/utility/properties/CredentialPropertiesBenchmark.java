@@ -0,0 +1,146 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures load, add, update, delete and list latency of {@link CredentialProperties} for different file sizes and storage engines.
+ * <p/>
+ * Every modifying operation saves the credential file, so the latency grows with the amount of entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CredentialPropertiesBenchmark {
+
+    /**
+     * a typical salted SHA-512 entry of the credential file
+     */
+    static final String HASH = "MDEyMzQ1Njc4OTAxMjM0NTY3ODkwMTIzNDU2Nzg5MDEyMzQ1Njc4OTAxMjM0NTY3ODk=$" +
+            "Y4nRMbNnfhNpSL+SxxtjPGEOmrWXAOvgS2+ouq5DJ4Fsh02Y9UCdcsfcVs0uK9sP3l7e9p1bEMxTwpfJ5tFuHw==";
+
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"PROPERTIES", "COMPACT", "MAPPED"})
+    public StorageEngine engine;
+
+    private File file;
+    private CredentialProperties credentialProperties;
+    private PrintStream systemOut;
+    private int counter;
+
+    @Setup
+    public void setUp() throws Exception {
+        final File directory = Files.createTempDir();
+        file = new File(directory, "credentials.properties");
+        writeCredentialFile(file, entries);
+        credentialProperties = new CredentialProperties(file.getAbsolutePath(), engine);
+
+        //listing prints every user, which would only measure the console
+        systemOut = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(systemOut);
+        file.delete();
+        file.getParentFile().delete();
+    }
+
+    @Benchmark
+    public CredentialProperties load() throws Exception {
+        return new CredentialProperties(file.getAbsolutePath(), engine);
+    }
+
+    @Benchmark
+    public boolean add() throws Exception {
+        return credentialProperties.addUser("benchmark" + counter++, HASH);
+    }
+
+    @Benchmark
+    public boolean update() throws Exception {
+        return credentialProperties.updateUser("user" + (counter++ % entries), HASH);
+    }
+
+    @Benchmark
+    public boolean deleteAndAdd() throws Exception {
+        final String username = "user" + (counter++ % entries);
+        credentialProperties.deleteUser(username);
+        return credentialProperties.addUser(username, HASH);
+    }
+
+    @Benchmark
+    public int show() {
+        return credentialProperties.show();
+    }
+
+    @Benchmark
+    public int list() throws Exception {
+        return credentialProperties.list(UserFilter.ALL, Channels.newChannel(System.out));
+    }
+
+    @Benchmark
+    public int count() throws Exception {
+        return credentialProperties.list(UserFilter.ALL, null);
+    }
+
+    static void writeCredentialFile(final File file, final int entries) throws IOException {
+        try (BufferedWriter writer = Files.newWriter(file, Charsets.UTF_8)) {
+            for (int i = 0; i < entries; i++) {
+                writer.write("user" + i + ":" + HASH);
+                writer.newLine();
+            }
+        }
+    }
+}
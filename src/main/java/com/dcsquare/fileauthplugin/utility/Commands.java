@@ -18,22 +18,45 @@
 
 package com.dcsquare.fileauthplugin.utility;
 
-import com.dcsquare.fileauthplugin.utility.hashing.PasswordHasher;
+import com.dcsquare.fileauthplugin.utility.bulk.HashMigrator;
+import com.dcsquare.fileauthplugin.utility.bulk.UserImporter;
+import com.dcsquare.fileauthplugin.utility.hashing.HashBenchmark;
+import com.dcsquare.fileauthplugin.utility.hashing.HashScheme;
+import com.dcsquare.fileauthplugin.utility.hashing.HashTuner;
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordEncoder;
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordVerifier;
+import com.dcsquare.fileauthplugin.utility.metrics.Metrics;
+import com.dcsquare.fileauthplugin.utility.metrics.Timer;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialBatch;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialDelta;
 import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
 import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.dcsquare.fileauthplugin.utility.properties.UserFilter;
+import com.dcsquare.fileauthplugin.utility.verifier.BinaryCredentialWriter;
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import org.apache.commons.configuration.ConfigurationException;
-import org.bouncycastle.util.encoders.Base64;
-import org.jasypt.salt.RandomSaltGenerator;
-import org.springframework.shell.core.CommandMarker;
+import org.springframework.shell.core.ExecutionProcessor;
 import org.springframework.shell.core.annotation.CliAvailabilityIndicator;
 import org.springframework.shell.core.annotation.CliCommand;
 import org.springframework.shell.core.annotation.CliOption;
+import org.springframework.shell.event.ParseResult;
+import org.springframework.shell.support.util.OsUtils;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * All available commands are defined in this class.
@@ -41,14 +64,32 @@ import java.io.IOException;
  * @author Christian Goetz
  */
 @Component
-public class Commands implements CommandMarker {
+public class Commands implements ExecutionProcessor {
 
     FileAuthConfiguration fileAuthConfiguration;
     CredentialProperties credentialProperties;
-    private static int DEFAULT_SALT_LENGTH = 50;
+    CredentialBatch credentialBatch;
+    WritableByteChannel console;
+    private static int DEFAULT_SALT_LENGTH = PasswordEncoder.DEFAULT_SALT_LENGTH;
 
     int saltLength = DEFAULT_SALT_LENGTH;
 
+    /**
+     * timing of the running command, shells and {@link com.dcsquare.fileauthplugin.utility.headless.CommandInvoker}
+     * call the commands of one instance from one thread at a time
+     */
+    private final ThreadLocal<Timer.Context> commandTime = new ThreadLocal<>();
+
+    /**
+     * whether the running or last command reported a failure in its result message
+     */
+    private boolean failed;
+
+    /**
+     * usernames whose changes were not saved by the last commit command
+     */
+    private Set<String> conflicts = Collections.emptySet();
+
 
     /**
      * This method sets the path to the configuration file.
@@ -62,19 +103,36 @@ public class Commands implements CommandMarker {
         try {
             fileAuthConfiguration = new FileAuthConfiguration(path);
         } catch (ConfigurationException e) {
-            return "Error reading configuration, try again";
+            return failed("Error reading configuration, try again");
         } catch (FileNotFoundException e) {
-            return e.getMessage();
+            return failed(e.getMessage());
         } catch (IOException e) {
-            return "Error did not find credential file and creation was not possible";
+            return failed("Error did not find credential file and creation was not possible");
         }
 
         final File file = new File(new File(path).getParent(), fileAuthConfiguration.getCredentialFileName());
 
+        credentialBatch = null;
+        if (credentialProperties != null) {
+            try {
+                credentialProperties.close();
+            } catch (IOException e) {
+                //the old file is not used anymore
+            }
+        }
         try {
-            credentialProperties = new CredentialProperties(file.getAbsolutePath());
+            credentialProperties = new CredentialProperties(file.getAbsolutePath(), fileAuthConfiguration.getStorageEngine(),
+                    fileAuthConfiguration.getShards(), fileAuthConfiguration.getCompactionPolicy());
+            if (fileAuthConfiguration.isWatchEnabled()) {
+                credentialProperties.watch();
+            }
         } catch (ConfigurationException e) {
-            return "Error reading credentials, try again";
+            return failed("Error reading credentials, try again");
+        } catch (IOException e) {
+            return failed("Error watching the credential file");
+        }
+        if (fileAuthConfiguration.isJmxEnabled()) {
+            Metrics.enableJmx();
         }
 
         return "Configuration successfully read!";
@@ -87,7 +145,7 @@ public class Commands implements CommandMarker {
      *
      * @return true, if the configuration file is loaded, false if not.
      */
-    @CliAvailabilityIndicator({"addUser", "addOrUpdateUser", "listUsers", "deleteUser"})
+    @CliAvailabilityIndicator({"addUser", "addOrUpdateUser", "listUsers", "deleteUser", "importUsers", "begin", "commit", "rollback", "verifyUser", "benchmarkHash", "tuneHashing", "migrateHashes", "compact", "diff", "sync", "exportBinary"})
     public boolean checkAvailability() {
         if (fileAuthConfiguration == null || credentialProperties == null) {
             return false;
@@ -112,15 +170,15 @@ public class Commands implements CommandMarker {
 
         final boolean returnValue;
         try {
-            returnValue = credentialProperties.addUser(username, hashedString);
+            returnValue = credentialBatch != null ? credentialBatch.addUser(username, hashedString) : credentialProperties.addUser(username, hashedString);
         } catch (ConfigurationException e) {
-            return "Error during saving of the configuration:" + e.getMessage();
+            return failed("Error during saving of the configuration:" + e.getMessage());
         }
         String returnString;
         if (returnValue) {
             returnString = "User " + username + " added";
         } else {
-            returnString = "Username " + username + " already taken";
+            returnString = failed("Username " + username + " already taken");
         }
 
         return returnString;
@@ -133,26 +191,7 @@ public class Commands implements CommandMarker {
      * @return hashed string
      */
     protected String getHashedString(String password) {
-        String hashedString;
-        final String salt;
-        if (fileAuthConfiguration.isHashed()) {
-            if (!fileAuthConfiguration.isSalted()) {
-                hashedString = PasswordHasher.hashPassword(fileAuthConfiguration.getAlgorithm(), password, fileAuthConfiguration.getIterations(), null);
-            } else {
-                salt = getSalt();
-                final String saltBase64 = encodeSalt(salt);
-
-                if (!fileAuthConfiguration.isFirst()) {
-                    hashedString = PasswordHasher.hashPassword(fileAuthConfiguration.getAlgorithm(), password, fileAuthConfiguration.getIterations(), salt) + fileAuthConfiguration.getSeparationChar() + saltBase64;
-
-                } else {
-                    hashedString = saltBase64 + fileAuthConfiguration.getSeparationChar() + PasswordHasher.hashPassword(fileAuthConfiguration.getAlgorithm(), password, fileAuthConfiguration.getIterations(), salt);
-                }
-            }
-        } else {
-            hashedString = password;
-        }
-        return hashedString;
+        return new PasswordEncoder(fileAuthConfiguration, saltLength).encode(password);
     }
 
     /**
@@ -171,15 +210,15 @@ public class Commands implements CommandMarker {
 
         final boolean returnValue;
         try {
-            returnValue = credentialProperties.updateUser(username, hashedString);
+            returnValue = credentialBatch != null ? credentialBatch.updateUser(username, hashedString) : credentialProperties.updateUser(username, hashedString);
         } catch (ConfigurationException e) {
-            return "Error during saving of the configuration:" + e.getMessage();
+            return failed("Error during saving of the configuration:" + e.getMessage());
         }
         String returnString;
         if (returnValue) {
             returnString = "User " + username + " updated";
         } else {
-            returnString = "User " + username + " not existent";
+            returnString = failed("User " + username + " not existent");
         }
 
         return returnString;
@@ -201,9 +240,9 @@ public class Commands implements CommandMarker {
 
         final boolean returnValue;
         try {
-            returnValue = credentialProperties.updateUser(username, hashedString);
+            returnValue = credentialBatch != null ? credentialBatch.updateUser(username, hashedString) : credentialProperties.updateUser(username, hashedString);
         } catch (ConfigurationException e) {
-            return "Error during saving of the configuration:" + e.getMessage();
+            return failed("Error during saving of the configuration:" + e.getMessage());
         }
         String returnString;
         if (returnValue) {
@@ -212,12 +251,12 @@ public class Commands implements CommandMarker {
 
             final boolean returnValueNewUser;
             try {
-                returnValueNewUser = credentialProperties.addUser(username, hashedString);
+                returnValueNewUser = credentialBatch != null ? credentialBatch.addUser(username, hashedString) : credentialProperties.addUser(username, hashedString);
             } catch (ConfigurationException e) {
-                return "Error during saving of the configuration:" + e.getMessage();
+                return failed("Error during saving of the configuration:" + e.getMessage());
             }
             if (!returnValueNewUser) {
-                return "Could not save new user!";
+                return failed("Could not save new user!");
             }
 
             returnString = "User " + username + " added";
@@ -239,32 +278,509 @@ public class Commands implements CommandMarker {
 
         final boolean returnValue;
         try {
-            returnValue = credentialProperties.deleteUser(username);
+            returnValue = credentialBatch != null ? credentialBatch.deleteUser(username) : credentialProperties.deleteUser(username);
         } catch (ConfigurationException e) {
-            return "Error during saving of the configuration:" + e.getMessage();
+            return failed("Error during saving of the configuration:" + e.getMessage());
         }
         String returnString;
         if (returnValue) {
             returnString = "User " + username + " deleted";
         } else {
-            returnString = "User " + username + " not existent";
+            returnString = failed("User " + username + " not existent");
         }
         return returnString;
     }
 
+    /**
+     * Verify User Command, checks a password against the entry in the credential file.
+     *
+     * @param username username
+     * @param password plaintext password
+     * @return message if the password is valid or not
+     */
+    @CliCommand(value = "verifyUser", help = "checks the password of a user in the credential file")
+    public String verifyUser(
+            @CliOption(key = {"username"}, mandatory = true, help = "The username") final String username,
+            @CliOption(key = {"password"}, mandatory = true, help = "The password to check") final String password) {
+
+        final String entry = credentialProperties.getPassword(username);
+        if (entry == null) {
+            return failed("User " + username + " not existent");
+        }
+        if (new PasswordVerifier(fileAuthConfiguration).verify(password, entry)) {
+            return "Password of user " + username + " is valid";
+        }
+        return failed("Password of user " + username + " is invalid");
+    }
+
+    /**
+     * Benchmark Hash Command, measures password checks with the configured hashing.
+     *
+     * @param samples amount of measured password checks
+     * @param threads amount of threads checking in parallel
+     * @return message with hashes per second and latencies
+     */
+    @CliCommand(value = "benchmarkHash", help = "measures how fast passwords can be checked with the configured hashing")
+    public String benchmarkHash(
+            @CliOption(key = {"samples"}, mandatory = false, unspecifiedDefaultValue = "100", help = "The amount of measured password checks") final int samples,
+            @CliOption(key = {"threads"}, mandatory = false, unspecifiedDefaultValue = "1", help = "The amount of threads checking in parallel") final int threads) {
+
+        if (samples <= 0 || threads <= 0) {
+            return failed("Error: Samples and threads must be greater than zero");
+        }
+        final String password = "benchmark";
+        final HashBenchmark.Result result;
+        try {
+            result = new HashBenchmark(new PasswordVerifier(fileAuthConfiguration), password, getHashedString(password)).run(samples, threads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed("Benchmark interrupted");
+        }
+
+        return String.format(Locale.ENGLISH, "Checked %d passwords with %d threads: %.1f hashes/s, p50 %.3f ms, p99 %.3f ms",
+                samples, threads, result.getHashesPerSecond(), result.getP50Nanos() / 1e6, result.getP99Nanos() / 1e6);
+    }
+
+    /**
+     * Tune Hashing Command, measures the hash iterations for a target time of a password check on this machine
+     * and saves them in the configuration file.
+     *
+     * @param targetMillis time a single password check should take
+     * @param force        also change the iterations if there are users, whose passwords can't be checked afterwards
+     * @return message with the measured iterations
+     */
+    @CliCommand(value = "tuneHashing", help = "sets the hash iterations so that a password check takes the given time on this machine")
+    public String tuneHashing(
+            @CliOption(key = {"targetMillis"}, mandatory = true, help = "The time a password check should take in milliseconds") final int targetMillis,
+            @CliOption(key = {"force"}, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Change the iterations even if there are users") final boolean force) {
+
+        if (!fileAuthConfiguration.isHashed()) {
+            return failed("Error: Password hashing is disabled");
+        }
+        if (fileAuthConfiguration.getHashScheme() != HashScheme.DIGEST) {
+            return failed("Error: Only the iterations of the digest hash scheme can be tuned");
+        }
+        if (targetMillis <= 0) {
+            return failed("Error: The target time should be greater than zero");
+        }
+
+        final int iterations = new HashTuner(fileAuthConfiguration.getAlgorithm()).tune(targetMillis);
+        final String measured = "Measured " + iterations + " " + fileAuthConfiguration.getAlgorithm() + " iterations for " + targetMillis + " ms";
+
+        final int users;
+        try {
+            users = credentialProperties.list(UserFilter.ALL, null);
+        } catch (IOException e) {
+            return failed("Error reading credentials:" + e.getMessage());
+        }
+        if (users > 0 && !force) {
+            return measured + ", not saved because the passwords of the existing " + users + " users can't be checked with other iterations, use --force to save anyway";
+        }
+
+        try {
+            fileAuthConfiguration.setIterations(iterations);
+        } catch (ConfigurationException e) {
+            return failed("Error during saving of the configuration:" + e.getMessage());
+        }
+        return measured + ", saved as passwordHashing.iterations";
+    }
+
+    /**
+     * Import Users Command
+     *
+     * @param path path to a CSV file with one username,password pair per line
+     * @return message how many users were imported
+     */
+    @CliCommand(value = "importUsers", help = "adds all users of a CSV file with username,password lines in the credential file")
+    public String importUsers(
+            @CliOption(key = {"file"}, mandatory = true, help = "The path to the CSV file") final String path) {
+
+        if (credentialBatch != null) {
+            return failed("Commit or rollback the current batch first");
+        }
+        final File file = new File(path);
+        if (!file.isFile()) {
+            return failed("Import file " + path + " not found");
+        }
+
+        final UserImporter userImporter = new UserImporter(new Function<String, String>() {
+            @Override
+            public String apply(final String password) {
+                return getHashedString(password);
+            }
+        });
+
+        final UserImporter.Result result;
+        try {
+            result = userImporter.importUsers(file, credentialProperties);
+        } catch (ConfigurationException e) {
+            return failed("Error during saving of the configuration:" + e.getMessage());
+        } catch (IOException e) {
+            return failed("Error reading import file:" + e.getMessage());
+        }
+
+        return "Imported " + result.getImported() + " users, " + result.getSkipped() + " already taken, " + result.getInvalidLines() + " invalid lines";
+    }
+
+    /**
+     * Migrate Hashes Command, re-hashes users with the current hashing configuration.
+     *
+     * @param source     path to a CSV file with one username,password pair per line, without it outdated users are only counted
+     * @param checkpoint path of the file the progress is saved in
+     * @return message how many users were migrated
+     */
+    @CliCommand(value = "migrateHashes", help = "re-hashes users with the current hashing configuration, with the passwords of a CSV file")
+    public String migrateHashes(
+            @CliOption(key = {"source"}, mandatory = false, help = "The path to a CSV file with username,password lines") final String source,
+            @CliOption(key = {"checkpoint"}, mandatory = false, help = "The path of the file the progress is saved in, default is the CSV file with .checkpoint appended") final String checkpoint) {
+
+        if (!fileAuthConfiguration.isHashed()) {
+            return failed("Error: Password hashing is disabled");
+        }
+        final HashMigrator hashMigrator = new HashMigrator(new Function<String, String>() {
+            @Override
+            public String apply(final String password) {
+                return getHashedString(password);
+            }
+        }, fileAuthConfiguration);
+
+        if (source == null) {
+            final HashMigrator.OutdatedCount count;
+            try {
+                //the credential files are scanned, so changes only in the journal have to be merged first
+                credentialProperties.compact();
+                count = hashMigrator.countOutdated(credentialProperties.getFiles());
+            } catch (ConfigurationException e) {
+                return failed("Error during saving of the configuration:" + e.getMessage());
+            } catch (IOException e) {
+                return failed("Error reading credentials:" + e.getMessage());
+            }
+            return "Found " + count.getOutdated() + " users with other hash parameters, " + count.getUnchecked()
+                    + " users can only be checked with --source";
+        }
+
+        final File file = new File(source);
+        if (!file.isFile()) {
+            return failed("Source file " + source + " not found");
+        }
+        final File checkpointFile = new File(checkpoint != null ? checkpoint : source + ".checkpoint");
+
+        final HashMigrator.Result result;
+        try {
+            result = hashMigrator.migrate(file, checkpointFile, credentialProperties);
+        } catch (ConfigurationException e) {
+            return failed("Error during saving of the configuration:" + e.getMessage());
+        } catch (IOException e) {
+            return failed("Error during migration:" + e.getMessage());
+        }
+
+        final String message = "Migrated " + result.getMigrated() + " users, " + result.getCurrent() + " already current, "
+                + result.getMismatched() + " not matching their password, " + result.getUnknown() + " unknown, "
+                + result.getInvalidLines() + " invalid lines";
+        return result.getResumedLine() > 0 ? "Resumed after line " + result.getResumedLine() + ": " + message : message;
+    }
+
+    /**
+     * Diff Command, shows which users differ from another credential file.
+     *
+     * @param source path to the other credential file
+     * @param output path of a file the differences are written to instead of the console
+     * @return message how many users differ
+     */
+    @CliCommand(value = "diff", help = "shows the users which differ from another credential file")
+    public String diff(
+            @CliOption(key = {"source"}, mandatory = true, help = "The path to the other credential file") final String source,
+            @CliOption(key = {"output"}, mandatory = false, help = "The path of a file the differences are written to instead of the console") final String output) {
+
+        final File file = new File(source);
+        if (!file.isFile()) {
+            return failed("Source file " + source + " not found");
+        }
+
+        final CredentialDelta delta;
+        try {
+            delta = credentialProperties.diff(file);
+            final StringBuilder lines = new StringBuilder();
+            for (String username : delta.getMutations().keySet()) {
+                lines.append(marker(delta.getKind(username))).append(username).append(OsUtils.LINE_SEPARATOR);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(Charsets.UTF_8));
+            if (output != null) {
+                try (FileChannel channel = FileChannel.open(new File(output).toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    write(channel, buffer);
+                }
+            } else {
+                write(console != null ? console : Channels.newChannel(System.out), buffer);
+            }
+        } catch (IOException e) {
+            return failed("Error comparing credentials:" + e.getMessage());
+        }
+
+        return "Found " + delta.getAdded() + " users to add, " + delta.getChanged() + " to change, " + delta.getDeleted() + " to delete";
+    }
+
+    private static String marker(final CredentialDelta.Kind kind) {
+        switch (kind) {
+            case ADD:
+                return "+ ";
+            case CHANGE:
+                return "~ ";
+            default:
+                return "- ";
+        }
+    }
+
+    private static void write(final WritableByteChannel out, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Sync Command, changes the credential file to hold the same users as another one.
+     *
+     * @param source path to the other credential file
+     * @return message how many users were changed
+     */
+    @CliCommand(value = "sync", help = "adds, changes and deletes users so the credential file equals another one")
+    public String sync(
+            @CliOption(key = {"source"}, mandatory = true, help = "The path to the other credential file") final String source) {
+
+        if (credentialBatch != null) {
+            return failed("Commit or rollback the current batch first");
+        }
+        final File file = new File(source);
+        if (!file.isFile()) {
+            return failed("Source file " + source + " not found");
+        }
+
+        final CredentialDelta delta;
+        try {
+            delta = credentialProperties.diff(file);
+            credentialProperties.sync(delta);
+        } catch (IOException e) {
+            return failed("Error comparing credentials:" + e.getMessage());
+        } catch (ConfigurationException e) {
+            return failed("Error during saving of the configuration:" + e.getMessage());
+        }
+
+        return "Synced with " + source + ": added " + delta.getAdded() + ", changed " + delta.getChanged()
+                + ", deleted " + delta.getDeleted() + " users";
+    }
+
+    /**
+     * Begin Command, all following changes are kept in memory until commit.
+     *
+     * @return message if the batch was started or not
+     */
+    @CliCommand(value = "begin", help = "starts a batch, changes are saved with a single write on commit")
+    public String begin() {
+        if (credentialBatch != null) {
+            return failed("Batch already started with " + credentialBatch.size() + " pending changes");
+        }
+        credentialBatch = new CredentialBatch(credentialProperties);
+        return "Batch started, changes are saved on commit";
+    }
+
+    /**
+     * Commit Command, saves all changes of the current batch.
+     *
+     * @return message if saving the batch was successful or not
+     */
+    @CliCommand(value = "commit", help = "saves all changes of the current batch in the credential file")
+    public String commit() {
+        if (credentialBatch == null) {
+            return failed("No batch started");
+        }
+        final int count;
+        try {
+            count = credentialBatch.commit();
+        } catch (ConfigurationException e) {
+            return failed("Error during saving of the configuration:" + e.getMessage());
+        }
+        conflicts = credentialBatch.getConflicts();
+        credentialBatch = null;
+        if (!conflicts.isEmpty()) {
+            return failed("Committed " + count + " changes, not saved because another writer added or deleted the users meanwhile: "
+                    + Joiner.on(", ").join(conflicts));
+        }
+        return "Committed " + count + " changes";
+    }
+
+    /**
+     * Rollback Command, discards all changes of the current batch.
+     *
+     * @return message how many changes were discarded
+     */
+    @CliCommand(value = "rollback", help = "discards all changes of the current batch")
+    public String rollback() {
+        if (credentialBatch == null) {
+            return failed("No batch started");
+        }
+        final int count = credentialBatch.rollback();
+        credentialBatch = null;
+        return "Discarded " + count + " changes";
+    }
+
+    /**
+     * Compact Command, merges the journal into the credential file.
+     *
+     * @return message if the journal was merged or not
+     */
+    @CliCommand(value = "compact", help = "merges the journal of changes into the credential file")
+    public String compact() {
+        try {
+            if (!credentialProperties.compact()) {
+                return "Journal is disabled, changes are always saved in the credential file";
+            }
+        } catch (ConfigurationException e) {
+            return failed("Error during saving of the configuration:" + e.getMessage());
+        }
+        return "Journal merged into the credential file";
+    }
+
+    /**
+     * Export Binary Command, compiles the users for the BinaryCredentialReader of brokers.
+     *
+     * @param file path of the binary credential file
+     * @return message how many users were exported
+     */
+    @CliCommand(value = "exportBinary", help = "compiles the users into a binary file for fast loading by brokers")
+    public String exportBinary(
+            @CliOption(key = {"file"}, mandatory = true, help = "The path of the binary credential file") final String file) {
+
+        final int count;
+        try {
+            count = BinaryCredentialWriter.write(new File(file), fileAuthConfiguration, credentialProperties);
+        } catch (IOException e) {
+            return failed("Error exporting credentials:" + e.getMessage());
+        }
+        return "Exported " + count + " users to " + file;
+    }
+
     /**
      * List Users Command
      *
+     * @param prefix    only list users starting with this prefix
+     * @param regex     only list users containing a match of this regular expression
+     * @param offset    amount of matching users which are skipped
+     * @param limit     maximum amount of listed users
+     * @param output    path of a file the users are written to instead of the console
+     * @param countOnly only count the matching users
      * @return message of how many users are in the file
      */
     @CliCommand(value = "listUsers", help = "shows all users in the credential file")
-    public String listUsers() {
+    public String listUsers(
+            @CliOption(key = {"prefix"}, mandatory = false, help = "Only list users starting with this prefix") final String prefix,
+            @CliOption(key = {"regex"}, mandatory = false, help = "Only list users containing a match of this regular expression") final String regex,
+            @CliOption(key = {"offset"}, mandatory = false, unspecifiedDefaultValue = "0", help = "The amount of matching users to skip") final int offset,
+            @CliOption(key = {"limit"}, mandatory = false, unspecifiedDefaultValue = "-1", help = "The maximum amount of users to list") final int limit,
+            @CliOption(key = {"output"}, mandatory = false, help = "The path of a file the users are written to instead of the console") final String output,
+            @CliOption(key = {"count"}, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Only count the users") final boolean countOnly) {
+
+        final UserFilter filter;
+        try {
+            filter = new UserFilter(prefix, regex, offset, limit);
+        } catch (PatternSyntaxException e) {
+            return failed("Error: Invalid regular expression " + regex);
+        }
 
-        final int count = credentialProperties.show();
+        final int count;
+        try {
+            if (countOnly) {
+                count = credentialProperties.list(filter, null);
+                return "Counted " + count + " users";
+            }
+            if (output != null) {
+                try (FileChannel channel = FileChannel.open(new File(output).toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    count = credentialProperties.list(filter, channel);
+                }
+                return "Listed " + count + " users to " + output;
+            }
+            count = credentialProperties.list(filter, console != null ? console : Channels.newChannel(System.out));
+        } catch (IOException e) {
+            return failed("Error listing users:" + e.getMessage());
+        }
 
         return "Listed " + count + " users";
     }
 
+    /**
+     * Stats Command, shows the timers and counters of this session.
+     *
+     * @param reset set all timers and counters back to zero after showing them
+     * @return one line per timer and counter
+     */
+    @CliCommand(value = "stats", help = "shows how often and how long commands, password hashing and saving of the credential file took")
+    public String stats(
+            @CliOption(key = {"reset"}, mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Set all timers and counters to zero") final boolean reset) {
+        final String report = Metrics.report();
+        if (reset) {
+            Metrics.reset();
+        }
+        return report.trim();
+    }
+
+    @Override
+    public ParseResult beforeInvocation(final ParseResult invocationContext) {
+        failed = false;
+        final CliCommand cliCommand = invocationContext.getMethod().getAnnotation(CliCommand.class);
+        if (cliCommand != null) {
+            commandTime.set(Metrics.timer("command." + cliCommand.value()[0]).time());
+        }
+        return invocationContext;
+    }
+
+    @Override
+    public void afterReturningInvocation(final ParseResult invocationContext, final Object result) {
+        stopCommandTime();
+        if (failed) {
+            Metrics.counter("command.failures").inc();
+        }
+    }
+
+    @Override
+    public void afterThrowingInvocation(final ParseResult invocationContext, final Throwable thrown) {
+        stopCommandTime();
+        Metrics.counter("command.failures").inc();
+    }
+
+    /**
+     * Marks the running command as failed, the commands report failures as result message instead of exceptions.
+     *
+     * @param message result message
+     * @return the result message
+     */
+    private String failed(final String message) {
+        failed = true;
+        return message;
+    }
+
+    /**
+     * @return true, if the last command, which was announced with {@link #beforeInvocation(ParseResult)}, failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return usernames whose changes were not saved by the last commit command, because another writer added or
+     * deleted the users meanwhile
+     */
+    public Set<String> getConflicts() {
+        return conflicts;
+    }
+
+    private void stopCommandTime() {
+        final Timer.Context context = commandTime.get();
+        if (context != null) {
+            context.close();
+            commandTime.remove();
+        }
+    }
+
     /**
      * This command sets the salt length that should be used, when hashing a password.
      *
@@ -278,7 +794,7 @@ public class Commands implements CommandMarker {
             parsedInteger = Integer.parseInt(length);
         } catch (NumberFormatException e) {
             saltLength = DEFAULT_SALT_LENGTH;
-            return "Error: The length should be an integer, using default salt length";
+            return failed("Error: The length should be an integer, using default salt length");
         }
         saltLength = parsedInteger;
         return "Salt length set to " + saltLength;
@@ -286,23 +802,12 @@ public class Commands implements CommandMarker {
     }
 
     /**
-     * Generates a random salt.
-     *
-     * @return salt
-     */
-    private String getSalt() {
-        final RandomSaltGenerator randomSaltGenerator = new RandomSaltGenerator();
-        return new String(randomSaltGenerator.generateSalt(saltLength), Charsets.UTF_8);
-    }
-
-    /**
-     * Encodes a salt with base64
+     * Sets where listed users are written to if no output file is given.
      *
-     * @param salt raw salt
-     * @return base64 encoded salt
+     * @param console channel for the listed users, <code>null</code> for <code>System.out</code>
      */
-    private String encodeSalt(String salt) {
-        return new String(Base64.encode(salt.getBytes()), Charsets.UTF_8);
+    public void setConsole(final WritableByteChannel console) {
+        this.console = console;
     }
 
 
@@ -0,0 +1,420 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.bulk;
+
+import com.dcsquare.fileauthplugin.utility.hashing.ModularCrypt;
+import com.dcsquare.fileauthplugin.utility.hashing.ModularCryptHasher;
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordVerifier;
+import com.dcsquare.fileauthplugin.utility.properties.AtomicFileOutputStream;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialBatch;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialFileScanner;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Re-hashes existing users with the current hashing configuration, with their plaintext passwords from a CSV file
+ * with one <code>username,password</code> pair per line.
+ * <p/>
+ * The CSV file is read as a stream, every batch of users is checked and hashed in a fork-join pool while the next
+ * batch is read. The changes are saved every {@link #CHECKPOINT_BATCHES} batches, together with the amount of processed
+ * lines in a checkpoint file. A migration which was interrupted continues after the last checkpoint.
+ * <p/>
+ * An entry is current if it is in the modular crypt format with the configured scheme and cost parameters, or, for the
+ * digest scheme, if the password can be verified with the current configuration. Entries in the modular crypt format
+ * are only re-hashed if the plaintext password matches them, so an outdated CSV file cannot overwrite newer passwords.
+ * Digest entries don't contain their parameters, the CSV file is trusted for them.
+ */
+public class HashMigrator {
+
+    static final int BATCH_SIZE = 1024;
+    static final int CHECKPOINT_BATCHES = 16;
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private static final byte CURRENT = 0;
+    private static final byte MIGRATE = 1;
+    private static final byte MISMATCH = 2;
+
+    private final Function<String, String> hashFunction;
+    private final PasswordVerifier verifier;
+    private final ModularCryptHasher currentHasher;
+    private final int parallelism;
+
+    /**
+     * @param hashFunction          turns a plaintext password into the string which is stored in the credential file
+     * @param fileAuthConfiguration current hashing configuration
+     */
+    public HashMigrator(final Function<String, String> hashFunction, final FileAuthConfiguration fileAuthConfiguration) {
+        this(hashFunction, fileAuthConfiguration, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param hashFunction          turns a plaintext password into the string which is stored in the credential file
+     * @param fileAuthConfiguration current hashing configuration
+     * @param parallelism           amount of threads used for hashing
+     */
+    public HashMigrator(final Function<String, String> hashFunction, final FileAuthConfiguration fileAuthConfiguration, final int parallelism) {
+        this.hashFunction = hashFunction;
+        this.verifier = new PasswordVerifier(fileAuthConfiguration);
+        this.currentHasher = ModularCrypt.create(fileAuthConfiguration);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Counts the entries of the credential files, which are known to use other hash parameters than configured.
+     * Digest entries can only be checked with their plaintext password, so they are counted separately if the digest
+     * scheme is configured.
+     *
+     * @param credentialFiles credential file or its shard files
+     * @return outdated entries and entries which can't be checked
+     * @throws IOException is thrown if a credential file cannot be read
+     */
+    public OutdatedCount countOutdated(final List<File> credentialFiles) throws IOException {
+        int outdated = 0;
+        int unchecked = 0;
+        for (File credentialFile : credentialFiles) {
+            try (CredentialFileScanner scanner = new CredentialFileScanner(credentialFile)) {
+                while (scanner.next()) {
+                    final String entry = scanner.getPassword();
+                    if (currentHasher != null) {
+                        if (!currentHasher.isCurrent(entry)) {
+                            outdated++;
+                        }
+                    } else if (ModularCrypt.isModularCrypt(entry)) {
+                        outdated++;
+                    } else {
+                        unchecked++;
+                    }
+                }
+            }
+        }
+        return new OutdatedCount(outdated, unchecked);
+    }
+
+    /**
+     * Re-hashes all outdated users of the CSV file and saves them in the credential file.
+     *
+     * @param csvFile              file with <code>username,password</code> lines, empty lines and lines starting with # are ignored
+     * @param checkpointFile       file with the progress of the migration, deleted when the migration is complete
+     * @param credentialProperties credential file
+     * @return result of the migration
+     * @throws IOException            is thrown if the CSV or checkpoint file cannot be read or the checkpoint cannot be written
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    public Result migrate(final File csvFile, final File checkpointFile, final CredentialProperties credentialProperties) throws IOException, ConfigurationException {
+        final long resumedLine = readCheckpoint(checkpointFile);
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final Deque<MigrationTask> tasks = new ArrayDeque<>();
+        final Counts counts = new Counts();
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), Charsets.UTF_8))) {
+            long lineNumber = 0;
+            int batches = 0;
+            List<String> usernames = new ArrayList<>(BATCH_SIZE);
+            List<String> passwords = new ArrayList<>(BATCH_SIZE);
+            List<String> entries = new ArrayList<>(BATCH_SIZE);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumedLine) {
+                    continue;
+                }
+                final String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                final int separator = line.indexOf(',');
+                if (separator <= 0 || separator == line.length() - 1) {
+                    counts.invalidLines++;
+                    continue;
+                }
+                final String username = line.substring(0, separator).trim();
+                final String entry = credentialProperties.getPassword(username);
+                if (entry == null) {
+                    counts.unknown++;
+                    continue;
+                }
+                usernames.add(username);
+                passwords.add(line.substring(separator + 1));
+                entries.add(entry);
+
+                if (usernames.size() == BATCH_SIZE) {
+                    //at most two batches are in flight, the next one is read while the previous one is hashed
+                    tasks.add(submit(pool, usernames, passwords, entries, lineNumber));
+                    if (tasks.size() > 1) {
+                        apply(tasks.poll(), batch, counts);
+                        if (++batches % CHECKPOINT_BATCHES == 0) {
+                            commit(batch, counts);
+                            writeCheckpoint(checkpointFile, counts.lastLine);
+                        }
+                    }
+                    usernames = new ArrayList<>(BATCH_SIZE);
+                    passwords = new ArrayList<>(BATCH_SIZE);
+                    entries = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!usernames.isEmpty()) {
+                tasks.add(submit(pool, usernames, passwords, entries, lineNumber));
+            }
+            while (!tasks.isEmpty()) {
+                apply(tasks.poll(), batch, counts);
+            }
+            commit(batch, counts);
+        } finally {
+            pool.shutdown();
+        }
+
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            throw new IOException("Could not delete checkpoint file " + checkpointFile);
+        }
+        return new Result(counts.migrated, counts.current, counts.mismatched, counts.unknown, counts.invalidLines, resumedLine);
+    }
+
+    private MigrationTask submit(final ForkJoinPool pool, final List<String> usernames, final List<String> passwords,
+                                 final List<String> entries, final long lastLine) {
+        final MigrationTask task = new MigrationTask(usernames, passwords.toArray(new String[passwords.size()]),
+                entries.toArray(new String[entries.size()]), lastLine);
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * Saves the migrated users, users which another writer deleted meanwhile count as unknown.
+     */
+    private static void commit(final CredentialBatch batch, final Counts counts) throws ConfigurationException {
+        batch.commit();
+        counts.migrated -= batch.getConflicts().size();
+        counts.unknown += batch.getConflicts().size();
+    }
+
+    private void apply(final MigrationTask task, final CredentialBatch batch, final Counts counts) {
+        task.join();
+        for (int i = 0; i < task.usernames.size(); i++) {
+            switch (task.states[i]) {
+                case MIGRATE:
+                    batch.updateUser(task.usernames.get(i), task.hashes[i]);
+                    counts.migrated++;
+                    break;
+                case MISMATCH:
+                    counts.mismatched++;
+                    break;
+                default:
+                    counts.current++;
+            }
+        }
+        counts.lastLine = task.lastLine;
+    }
+
+    private byte check(final String password, final String entry) {
+        if (currentHasher != null) {
+            if (currentHasher.isCurrent(entry)) {
+                return CURRENT;
+            }
+        } else if (!ModularCrypt.isModularCrypt(entry) && verifier.verify(password, entry)) {
+            return CURRENT;
+        }
+        if (ModularCrypt.isModularCrypt(entry) && !ModularCrypt.verify(password, entry)) {
+            return MISMATCH;
+        }
+        return MIGRATE;
+    }
+
+    private static long readCheckpoint(final File checkpointFile) throws IOException {
+        if (!checkpointFile.exists()) {
+            return 0;
+        }
+        final String content = Files.toString(checkpointFile, Charsets.UTF_8).trim();
+        try {
+            return Long.parseLong(content);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint file " + checkpointFile);
+        }
+    }
+
+    private static void writeCheckpoint(final File checkpointFile, final long line) throws IOException {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(checkpointFile)) {
+            out.write((line + "\n").getBytes(Charsets.UTF_8));
+            out.commit();
+        }
+    }
+
+    /**
+     * Checks and hashes one batch of users, splitting it until the parts are small enough to process sequentially.
+     */
+    private class MigrationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> usernames;
+        private final String[] passwords;
+        private final String[] entries;
+        private final String[] hashes;
+        private final byte[] states;
+        private final long lastLine;
+        private final int from;
+        private final int to;
+
+        MigrationTask(final List<String> usernames, final String[] passwords, final String[] entries, final long lastLine) {
+            this(usernames, passwords, entries, new String[passwords.length], new byte[passwords.length], lastLine, 0, passwords.length);
+        }
+
+        private MigrationTask(final List<String> usernames, final String[] passwords, final String[] entries, final String[] hashes,
+                              final byte[] states, final long lastLine, final int from, final int to) {
+            this.usernames = usernames;
+            this.passwords = passwords;
+            this.entries = entries;
+            this.hashes = hashes;
+            this.states = states;
+            this.lastLine = lastLine;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    states[i] = check(passwords[i], entries[i]);
+                    if (states[i] == MIGRATE) {
+                        hashes[i] = hashFunction.apply(passwords[i]);
+                    }
+                    passwords[i] = null;
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(
+                    new MigrationTask(usernames, passwords, entries, hashes, states, lastLine, from, middle),
+                    new MigrationTask(usernames, passwords, entries, hashes, states, lastLine, middle, to));
+        }
+    }
+
+    private static class Counts {
+        private int migrated;
+        private int current;
+        private int mismatched;
+        private int unknown;
+        private int invalidLines;
+        private long lastLine;
+    }
+
+    /**
+     * Entries of a credential file with other hash parameters than configured.
+     */
+    public static class OutdatedCount {
+
+        private final int outdated;
+        private final int unchecked;
+
+        public OutdatedCount(final int outdated, final int unchecked) {
+            this.outdated = outdated;
+            this.unchecked = unchecked;
+        }
+
+        public int getOutdated() {
+            return outdated;
+        }
+
+        /**
+         * @return amount of digest entries, which can only be checked with their plaintext password
+         */
+        public int getUnchecked() {
+            return unchecked;
+        }
+    }
+
+    /**
+     * Outcome of a migration.
+     */
+    public static class Result {
+
+        private final int migrated;
+        private final int current;
+        private final int mismatched;
+        private final int unknown;
+        private final int invalidLines;
+        private final long resumedLine;
+
+        public Result(final int migrated, final int current, final int mismatched, final int unknown, final int invalidLines, final long resumedLine) {
+            this.migrated = migrated;
+            this.current = current;
+            this.mismatched = mismatched;
+            this.unknown = unknown;
+            this.invalidLines = invalidLines;
+            this.resumedLine = resumedLine;
+        }
+
+        /**
+         * @return amount of re-hashed users
+         */
+        public int getMigrated() {
+            return migrated;
+        }
+
+        /**
+         * @return amount of users which already use the current hash parameters
+         */
+        public int getCurrent() {
+            return current;
+        }
+
+        /**
+         * @return amount of users whose entry doesn't match the plaintext password
+         */
+        public int getMismatched() {
+            return mismatched;
+        }
+
+        /**
+         * @return amount of users not in the credential file
+         */
+        public int getUnknown() {
+            return unknown;
+        }
+
+        public int getInvalidLines() {
+            return invalidLines;
+        }
+
+        /**
+         * @return line of the CSV file after which the migration continued, 0 if it wasn't resumed
+         */
+        public long getResumedLine() {
+            return resumedLine;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.bulk;
+
+import com.dcsquare.fileauthplugin.utility.properties.CredentialBatch;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Imports users from a CSV file with one <code>username,password</code> pair per line.
+ * <p/>
+ * The file is read as a stream and every batch of lines is handed to a fork-join pool for hashing
+ * while the next batch is read. Existing and repeated usernames are skipped before their passwords are hashed.
+ * All hashed users are written to the credential file at once.
+ */
+public class UserImporter {
+
+    private static final int BATCH_SIZE = 1024;
+    private static final int SEQUENTIAL_THRESHOLD = 16;
+
+    private final Function<String, String> hashFunction;
+    private final int parallelism;
+
+    /**
+     * @param hashFunction turns a plaintext password into the string which is stored in the credential file
+     */
+    public UserImporter(final Function<String, String> hashFunction) {
+        this(hashFunction, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param hashFunction turns a plaintext password into the string which is stored in the credential file
+     * @param parallelism  amount of threads used for hashing
+     */
+    public UserImporter(final Function<String, String> hashFunction, final int parallelism) {
+        this.hashFunction = hashFunction;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Reads, hashes and adds all users of the CSV file.
+     *
+     * @param csvFile              file with <code>username,password</code> lines, empty lines and lines starting with # are ignored
+     * @param credentialProperties credential file the users are added to
+     * @return result of the import
+     * @throws IOException            is thrown if the CSV file cannot be read
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    public Result importUsers(final File csvFile, final CredentialProperties credentialProperties) throws IOException, ConfigurationException {
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        final Deque<HashingTask> tasks = new ArrayDeque<>();
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+        //usernames of earlier lines, so duplicates are not hashed
+        final Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        int invalidLines = 0;
+
+        try {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile), Charsets.UTF_8))) {
+                List<String> usernames = new ArrayList<>(BATCH_SIZE);
+                List<String> passwords = new ArrayList<>(BATCH_SIZE);
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String trimmed = line.trim();
+                    if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                        continue;
+                    }
+                    final int separator = line.indexOf(',');
+                    if (separator < 0 || separator == line.length() - 1) {
+                        invalidLines++;
+                        continue;
+                    }
+                    final String username = line.substring(0, separator).trim();
+                    if (username.isEmpty()) {
+                        invalidLines++;
+                        continue;
+                    }
+                    if (!seen.add(username) || credentialProperties.containsUser(username)) {
+                        skipped++;
+                        continue;
+                    }
+                    usernames.add(username);
+                    passwords.add(line.substring(separator + 1));
+
+                    if (usernames.size() == BATCH_SIZE) {
+                        //at most two batches are in flight, the next one is read while the previous one is hashed
+                        tasks.add(submit(pool, usernames, passwords));
+                        if (tasks.size() > 1) {
+                            add(tasks.poll(), batch);
+                        }
+                        usernames = new ArrayList<>(BATCH_SIZE);
+                        passwords = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!usernames.isEmpty()) {
+                    tasks.add(submit(pool, usernames, passwords));
+                }
+            }
+            while (!tasks.isEmpty()) {
+                add(tasks.poll(), batch);
+            }
+
+            final int added = batch.commit();
+            //added by another writer since they were checked
+            skipped += batch.getConflicts().size();
+            return new Result(added, skipped, invalidLines);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void add(final HashingTask task, final CredentialBatch batch) {
+        task.join();
+        for (int i = 0; i < task.usernames.size(); i++) {
+            batch.addUser(task.usernames.get(i), task.hashes[i]);
+        }
+    }
+
+    private HashingTask submit(final ForkJoinPool pool, final List<String> usernames, final List<String> passwords) {
+        final HashingTask task = new HashingTask(usernames, passwords.toArray(new String[passwords.size()]));
+        pool.execute(task);
+        return task;
+    }
+
+    /**
+     * Hashes one batch of passwords, splitting it until the parts are small enough to hash sequentially.
+     */
+    private class HashingTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> usernames;
+        private final String[] passwords;
+        private final String[] hashes;
+        private final int from;
+        private final int to;
+
+        HashingTask(final List<String> usernames, final String[] passwords) {
+            this(usernames, passwords, new String[passwords.length], 0, passwords.length);
+        }
+
+        private HashingTask(final List<String> usernames, final String[] passwords, final String[] hashes, final int from, final int to) {
+            this.usernames = usernames;
+            this.passwords = passwords;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    hashes[i] = hashFunction.apply(passwords[i]);
+                    passwords[i] = null;
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(
+                    new HashingTask(usernames, passwords, hashes, from, middle),
+                    new HashingTask(usernames, passwords, hashes, middle, to));
+        }
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static class Result {
+
+        private final int imported;
+        private final int skipped;
+        private final int invalidLines;
+
+        public Result(final int imported, final int skipped, final int invalidLines) {
+            this.imported = imported;
+            this.skipped = skipped;
+            this.invalidLines = invalidLines;
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getInvalidLines() {
+            return invalidLines;
+        }
+    }
+}
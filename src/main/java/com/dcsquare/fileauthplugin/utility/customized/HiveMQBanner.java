@@ -59,6 +59,25 @@ public class HiveMQBanner extends DefaultBannerProvider implements CommandMarker
         stringBuilder.append("#    updateUser").append(OsUtils.LINE_SEPARATOR);
         stringBuilder.append("#    addOrUpdateUser").append(OsUtils.LINE_SEPARATOR);
         stringBuilder.append("#    deleteUser").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    importUsers").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    verifyUser").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("# compare with and copy changes from another credential file: ").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    diff").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    sync").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    exportBinary").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("# measure and tune password checks with the configured hashing: ").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    benchmarkHash").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    tuneHashing").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    migrateHashes").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    stats").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("# group many changes into a single write of the credential file: ").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    begin").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    commit").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    rollback").append(OsUtils.LINE_SEPARATOR);
+        stringBuilder.append("#    compact").append(OsUtils.LINE_SEPARATOR);
         stringBuilder.append("# ------------------------------------------------------------------------- ").append(OsUtils.LINE_SEPARATOR);
         return stringBuilder.toString();
 
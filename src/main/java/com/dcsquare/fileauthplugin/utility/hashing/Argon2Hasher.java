@@ -0,0 +1,105 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+/**
+ * Argon2id hashes in the format of the reference implementation:
+ * <code>$argon2id$v=19$m=19456,t=2,p=1$&lt;salt&gt;$&lt;hash&gt;</code>
+ */
+public class Argon2Hasher implements ModularCryptHasher {
+
+    static final String ID = "argon2id";
+    static final int DEFAULT_MEMORY = 19456;
+    static final int DEFAULT_ITERATIONS = 2;
+    static final int DEFAULT_PARALLELISM = 1;
+
+    private final int memory;
+    private final int iterations;
+    private final int parallelism;
+
+    /**
+     * @param memory      memory in KiB
+     * @param iterations  amount of passes over the memory
+     * @param parallelism amount of lanes
+     * @throws EncryptionInitializationException is thrown if a parameter is invalid
+     */
+    public Argon2Hasher(final int memory, final int iterations, final int parallelism) {
+        if (iterations < 1 || parallelism < 1 || memory < 8 * parallelism) {
+            throw new EncryptionInitializationException("Invalid Argon2 parameters");
+        }
+        this.memory = memory;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String hash(final String password) {
+        final byte[] salt = ModularCrypt.newSalt();
+        final byte[] hash = derive(password, salt, memory, iterations, parallelism, ModularCrypt.HASH_SIZE_BYTES);
+        return prefix() + ModularCrypt.encode(salt) + ModularCrypt.SEPARATOR + ModularCrypt.encode(hash);
+    }
+
+    @Override
+    public boolean isCurrent(final String entry) {
+        return entry.startsWith(prefix());
+    }
+
+    private String prefix() {
+        return ModularCrypt.SEPARATOR + ID + ModularCrypt.SEPARATOR + "v=" + Argon2Parameters.ARGON2_VERSION_13
+                + ModularCrypt.SEPARATOR + "m=" + memory + ",t=" + iterations + ",p=" + parallelism + ModularCrypt.SEPARATOR;
+    }
+
+    @Override
+    public boolean verify(final String password, final String entry) {
+        final String[] fields = ModularCrypt.split(entry, 5);
+        if (fields == null || !ID.equals(fields[0]) || !("v=" + Argon2Parameters.ARGON2_VERSION_13).equals(fields[1])) {
+            return false;
+        }
+        try {
+            final int[] parameters = ModularCrypt.parseParameters(fields[2], "m", "t", "p");
+            final byte[] salt = ModularCrypt.decode(fields[3]);
+            final byte[] hash = ModularCrypt.decode(fields[4]);
+            if (parameters[1] < 1 || parameters[2] < 1 || parameters[0] < 8 * parameters[2] || hash.length < 4) {
+                return false;
+            }
+            return ModularCrypt.isEqual(hash, derive(password, salt, parameters[0], parameters[1], parameters[2], hash.length));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] derive(final String password, final byte[] salt, final int memory, final int iterations,
+                                 final int parallelism, final int length) {
+        final Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withMemoryAsKB(memory)
+                .withIterations(iterations)
+                .withParallelism(parallelism)
+                .withSalt(salt)
+                .build());
+        final byte[] hash = new byte[length];
+        generator.generateBytes(ModularCrypt.passwordBytes(password), hash);
+        return hash;
+    }
+}
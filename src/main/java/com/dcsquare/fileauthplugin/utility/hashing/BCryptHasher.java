@@ -0,0 +1,85 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.google.common.collect.ImmutableSet;
+import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * bcrypt hashes in the OpenBSD format: <code>$2b$10$&lt;salt and hash&gt;</code>
+ * <p/>
+ * bcrypt only uses the first 72 bytes of a password, longer passwords are rejected.
+ */
+public class BCryptHasher implements ModularCryptHasher {
+
+    static final Set<String> VERSIONS = ImmutableSet.of("2a", "2b", "2y");
+    static final int DEFAULT_COST = 10;
+
+    private static final String VERSION = "2b";
+    private static final int MAX_PASSWORD_BYTES = 72;
+
+    private final int cost;
+
+    /**
+     * @param cost log2 of the amount of rounds, between 4 and 31
+     * @throws EncryptionInitializationException is thrown if the cost is invalid
+     */
+    public BCryptHasher(final int cost) {
+        if (cost < 4 || cost > 31) {
+            throw new EncryptionInitializationException("bcrypt cost must be between 4 and 31");
+        }
+        this.cost = cost;
+    }
+
+    @Override
+    public String hash(final String password) {
+        final byte[] passwordBytes = ModularCrypt.passwordBytes(password);
+        if (passwordBytes.length > MAX_PASSWORD_BYTES) {
+            throw new IllegalArgumentException("bcrypt passwords must not be longer than " + MAX_PASSWORD_BYTES + " bytes");
+        }
+        return OpenBSDBCrypt.generate(VERSION, passwordBytes, ModularCrypt.newSalt(), cost);
+    }
+
+    /**
+     * All bcrypt versions are treated as current, only the cost is compared.
+     */
+    @Override
+    public boolean isCurrent(final String entry) {
+        return entry.length() > 7 && entry.startsWith(ModularCrypt.SEPARATOR) && VERSIONS.contains(entry.substring(1, 3))
+                && entry.startsWith(String.format(Locale.ENGLISH, "$%02d$", cost), 3);
+    }
+
+    @Override
+    public boolean verify(final String password, final String entry) {
+        final byte[] passwordBytes = ModularCrypt.passwordBytes(password);
+        if (passwordBytes.length > MAX_PASSWORD_BYTES) {
+            return false;
+        }
+        try {
+            return OpenBSDBCrypt.checkPassword(entry, passwordBytes);
+        } catch (RuntimeException e) {
+            //malformed entry
+            return false;
+        }
+    }
+}
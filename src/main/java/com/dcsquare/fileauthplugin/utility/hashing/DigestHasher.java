@@ -0,0 +1,146 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.google.common.base.Charsets;
+import org.bouncycastle.util.encoders.Base64;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.text.Normalizer;
+
+/**
+ * Iterated, salted message digest for one algorithm and iteration count.
+ * <p/>
+ * Produces exactly the same output as jasypt's <code>ConfigurablePasswordEncryptor</code>, which is used by the
+ * File Authentication Plugin, but keeps one {@link MessageDigest} per thread instead of setting up a new encryptor
+ * for every password. Instances are thread-safe and are cached by {@link PasswordHasher}.
+ */
+public class DigestHasher {
+
+    /**
+     * jasypt prepends a random salt of this size if no salt is given
+     */
+    static final int DEFAULT_SALT_SIZE_BYTES = 8;
+
+    private final String algorithm;
+    private final int iterations;
+    private final ThreadLocal<MessageDigest> digests;
+
+    DigestHasher(final String algorithm, final int iterations, final Provider provider) {
+        if (iterations <= 0) {
+            throw new EncryptionInitializationException("Number of iterations must be greater than zero");
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+
+        //fail fast for unknown algorithms
+        createDigest(algorithm, provider);
+
+        digests = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                return createDigest(algorithm, provider);
+            }
+        };
+    }
+
+    /**
+     * Hashes the password with the given salt.
+     *
+     * @param password plaintext password
+     * @param salt     salt, only the first <code>salt.length()</code> UTF-8 bytes are used like jasypt does.
+     *                 If <code>null</code>, a random salt is generated and prepended to the hash.
+     * @return base64 encoded hash
+     */
+    public String hash(final String password, final String salt) {
+        if (salt == null) {
+            final byte[] randomSalt = SaltGenerator.nextBytes(DEFAULT_SALT_SIZE_BYTES);
+            return encode(randomSalt, digest(password, randomSalt));
+        }
+        final byte[] saltBytes = salt.getBytes(Charsets.UTF_8);
+        final byte[] usedSalt = new byte[salt.length()];
+        System.arraycopy(saltBytes, 0, usedSalt, 0, usedSalt.length);
+        return encode(null, digest(password, usedSalt));
+    }
+
+    /**
+     * Hashes the password with the given salt bytes. For salts of ASCII characters the result is the same as with
+     * {@link #hash(String, String)} and the salt as <code>String</code>.
+     *
+     * @param password plaintext password
+     * @param salt     raw salt bytes
+     * @return base64 encoded hash
+     */
+    public String hash(final String password, final byte[] salt) {
+        return encode(null, digest(password, salt));
+    }
+
+    /**
+     * Computes the raw iterated digest of salt and password.
+     *
+     * @param password plaintext password
+     * @param salt     raw salt bytes
+     * @return digest bytes
+     */
+    public byte[] digest(final String password, final byte[] salt) {
+        final byte[] message = Normalizer.normalize(password, Normalizer.Form.NFC).getBytes(Charsets.UTF_8);
+
+        final MessageDigest md = digests.get();
+        md.reset();
+        md.update(salt);
+        md.update(message);
+        byte[] digest = md.digest();
+        for (int i = 0; i < iterations - 1; i++) {
+            digest = md.digest(digest);
+        }
+        return digest;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    private static String encode(final byte[] plainSalt, final byte[] digest) {
+        if (plainSalt == null) {
+            return new String(Base64.encode(digest), Charsets.US_ASCII);
+        }
+        final byte[] result = new byte[plainSalt.length + digest.length];
+        System.arraycopy(plainSalt, 0, result, 0, plainSalt.length);
+        System.arraycopy(digest, 0, result, plainSalt.length, digest.length);
+        return new String(Base64.encode(result), Charsets.US_ASCII);
+    }
+
+    private static MessageDigest createDigest(final String algorithm, final Provider provider) {
+        try {
+            if (provider == null) {
+                return MessageDigest.getInstance(algorithm);
+            }
+            return MessageDigest.getInstance(algorithm, provider);
+        } catch (NoSuchAlgorithmException e) {
+            throw new EncryptionInitializationException(e);
+        }
+    }
+}
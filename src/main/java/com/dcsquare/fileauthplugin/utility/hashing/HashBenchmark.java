@@ -0,0 +1,149 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many password checks this machine can do with the configured hashing, and how long a single check takes.
+ */
+public class HashBenchmark {
+
+    private final PasswordVerifier verifier;
+    private final String password;
+    private final String entry;
+
+    /**
+     * @param verifier verifier of the configured hashing
+     * @param password plaintext password
+     * @param entry    credential file entry of the password
+     */
+    public HashBenchmark(final PasswordVerifier verifier, final String password, final String entry) {
+        this.verifier = verifier;
+        this.password = password;
+        this.entry = entry;
+    }
+
+    /**
+     * Verifies the password <code>samples</code> times, spread over the given amount of threads.
+     * A tenth of the samples is verified before as warm up.
+     *
+     * @param samples amount of measured verifications
+     * @param threads amount of threads verifying in parallel
+     * @return throughput and latencies of the measured verifications
+     * @throws InterruptedException is thrown if the thread is interrupted while waiting for the verifications
+     */
+    public Result run(final int samples, final int threads) throws InterruptedException {
+        if (samples <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Samples and threads must be greater than zero");
+        }
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            measure(executorService, Math.max(1, samples / 10), threads);
+
+            final long start = System.nanoTime();
+            final long[] latencies = measure(executorService, samples, threads);
+            final long duration = System.nanoTime() - start;
+
+            Arrays.sort(latencies);
+            return new Result(samples * (double) TimeUnit.SECONDS.toNanos(1) / duration,
+                    percentile(latencies, 0.5), percentile(latencies, 0.99));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private long[] measure(final ExecutorService executorService, final int samples, final int threads) throws InterruptedException {
+        final List<Future<long[]>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            final int count = samples / threads + (thread < samples % threads ? 1 : 0);
+            futures.add(executorService.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws Exception {
+                    final long[] latencies = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        final long start = System.nanoTime();
+                        if (!verifier.verify(password, entry)) {
+                            throw new IllegalStateException("Password could not be verified");
+                        }
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    return latencies;
+                }
+            }));
+        }
+
+        final long[] latencies = new long[samples];
+        int index = 0;
+        for (Future<long[]> future : futures) {
+            try {
+                final long[] threadLatencies = future.get();
+                System.arraycopy(threadLatencies, 0, latencies, index, threadLatencies.length);
+                index += threadLatencies.length;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return latencies;
+    }
+
+    private static long percentile(final long[] sortedLatencies, final double percentile) {
+        final int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)];
+    }
+
+    public static class Result {
+
+        private final double hashesPerSecond;
+        private final long p50Nanos;
+        private final long p99Nanos;
+
+        Result(final double hashesPerSecond, final long p50Nanos, final long p99Nanos) {
+            this.hashesPerSecond = hashesPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+        }
+
+        public double getHashesPerSecond() {
+            return hashesPerSecond;
+        }
+
+        /**
+         * @return median latency of a single verification in nanoseconds
+         */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /**
+         * @return 99th percentile latency of a single verification in nanoseconds
+         */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+/**
+ * Available hash schemes for new passwords, configured with <code>passwordHashing.scheme</code>.
+ */
+public enum HashScheme {
+
+    /**
+     * iterated message digest of <code>passwordHashing.algorithm</code>, as used by the File Authentication Plugin
+     */
+    DIGEST,
+
+    /**
+     * PBKDF2 with the HMAC of <code>passwordHashing.algorithm</code>
+     */
+    PBKDF2,
+
+    /**
+     * bcrypt, adaptive cost
+     */
+    BCRYPT,
+
+    /**
+     * scrypt, memory-hard
+     */
+    SCRYPT,
+
+    /**
+     * Argon2id, memory-hard
+     */
+    ARGON2;
+
+    /**
+     * @param name name of the hash scheme, case insensitive
+     * @return the hash scheme
+     * @throws ConfigurationException is thrown if there is no hash scheme with this name
+     */
+    public static HashScheme fromName(final String name) throws ConfigurationException {
+        for (HashScheme scheme : values()) {
+            if (scheme.name().equalsIgnoreCase(name.trim())) {
+                return scheme;
+            }
+        }
+        throw new ConfigurationException("Unknown password hashing scheme " + name);
+    }
+}
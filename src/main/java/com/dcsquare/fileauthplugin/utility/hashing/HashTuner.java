@@ -0,0 +1,96 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.google.common.base.Charsets;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the amount of hash iterations, for which checking a password takes a given time on this machine.
+ * <p/>
+ * The iteration count is doubled until a single hash takes long enough to be measured reliably, then the time
+ * per iteration is extrapolated to the target and corrected once with a measurement at the extrapolated count.
+ */
+public class HashTuner {
+
+    /**
+     * a hash has to take at least this long to give a reliable time per iteration
+     */
+    private static final long MIN_MEASURED_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int START_ITERATIONS = 1000;
+    private static final int MEASUREMENTS = 3;
+    private static final byte[] SALT = "tuneHashingSalt".getBytes(Charsets.UTF_8);
+
+    private final String algorithm;
+
+    /**
+     * @param algorithm message digest algorithm
+     * @throws org.jasypt.exceptions.EncryptionInitializationException is thrown if the algorithm is unknown
+     */
+    public HashTuner(final String algorithm) {
+        this.algorithm = algorithm;
+        PasswordHasher.newHasher(algorithm, 1);
+    }
+
+    /**
+     * Measures the iteration count for a target time.
+     *
+     * @param targetMillis time a single password check should take
+     * @return amount of iterations, at least 1
+     */
+    public int tune(final long targetMillis) {
+        if (targetMillis <= 0) {
+            throw new IllegalArgumentException("Target time must be greater than zero");
+        }
+        final long targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        final long minNanos = Math.min(MIN_MEASURED_NANOS, targetNanos);
+
+        int iterations = START_ITERATIONS;
+        long nanos = measure(iterations);
+        while (nanos < minNanos && iterations <= Integer.MAX_VALUE / 2) {
+            iterations *= 2;
+            nanos = measure(iterations);
+        }
+
+        iterations = scale(iterations, nanos, targetNanos);
+        return scale(iterations, measure(iterations), targetNanos);
+    }
+
+    /**
+     * @return median time of a hash with the given iterations in nanoseconds
+     */
+    private long measure(final int iterations) {
+        final DigestHasher hasher = PasswordHasher.newHasher(algorithm, iterations);
+        final long[] nanos = new long[MEASUREMENTS];
+        for (int i = 0; i < nanos.length; i++) {
+            final long start = System.nanoTime();
+            hasher.digest("password", SALT);
+            nanos[i] = Math.max(1, System.nanoTime() - start);
+        }
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2];
+    }
+
+    private static int scale(final int iterations, final long nanos, final long targetNanos) {
+        final double scaled = (double) iterations * targetNanos / nanos;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(scaled)));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import org.bouncycastle.util.encoders.Base64;
+
+import java.security.MessageDigest;
+import java.text.Normalizer;
+
+/**
+ * Helpers for entries in the modular crypt format: <code>$&lt;id&gt;$&lt;parameters&gt;$&lt;salt&gt;$&lt;hash&gt;</code>
+ * with salt and hash in base64 without padding, like the PHC string format.
+ */
+public final class ModularCrypt {
+
+    static final String SEPARATOR = "$";
+    static final int SALT_SIZE_BYTES = 16;
+    static final int HASH_SIZE_BYTES = 32;
+
+    private ModularCrypt() {
+    }
+
+    /**
+     * Creates the hasher of the configured hash scheme.
+     *
+     * @param fileAuthConfiguration configuration
+     * @return hasher, <code>null</code> for the iterated digest, which isn't stored in the modular crypt format
+     */
+    public static ModularCryptHasher create(final FileAuthConfiguration fileAuthConfiguration) {
+        switch (fileAuthConfiguration.getHashScheme()) {
+            case PBKDF2:
+                return new Pbkdf2Hasher(fileAuthConfiguration.getAlgorithm(), fileAuthConfiguration.getPbkdf2Iterations());
+            case BCRYPT:
+                return new BCryptHasher(fileAuthConfiguration.getBcryptCost());
+            case SCRYPT:
+                return new SCryptHasher(fileAuthConfiguration.getScryptCost(), fileAuthConfiguration.getScryptBlockSize(),
+                        fileAuthConfiguration.getScryptParallelism());
+            case ARGON2:
+                return new Argon2Hasher(fileAuthConfiguration.getArgon2Memory(), fileAuthConfiguration.getArgon2Iterations(),
+                        fileAuthConfiguration.getArgon2Parallelism());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param entry entry of the credential file
+     * @return true, if the entry is in the modular crypt format
+     */
+    public static boolean isModularCrypt(final String entry) {
+        return entry.startsWith(SEPARATOR);
+    }
+
+    /**
+     * Checks a password against an entry in the modular crypt format with any of the supported hash schemes.
+     *
+     * @param password plaintext password
+     * @param entry    entry in the modular crypt format
+     * @return true, if the password matches the entry, false if not or if the scheme is unknown
+     */
+    public static boolean verify(final String password, final String entry) {
+        final ModularCryptHasher hasher = forEntry(entry);
+        return hasher != null && hasher.verify(password, entry);
+    }
+
+    private static ModularCryptHasher forEntry(final String entry) {
+        final int end = entry.indexOf(SEPARATOR, 1);
+        if (!isModularCrypt(entry) || end < 0) {
+            return null;
+        }
+        final String id = entry.substring(1, end);
+        if (id.startsWith(Pbkdf2Hasher.ID_PREFIX)) {
+            return Pbkdf2Hasher.forId(id);
+        }
+        if (BCryptHasher.VERSIONS.contains(id)) {
+            return new BCryptHasher(BCryptHasher.DEFAULT_COST);
+        }
+        if (SCryptHasher.ID.equals(id)) {
+            return new SCryptHasher(SCryptHasher.DEFAULT_COST, SCryptHasher.DEFAULT_BLOCK_SIZE, SCryptHasher.DEFAULT_PARALLELISM);
+        }
+        if (Argon2Hasher.ID.equals(id)) {
+            return new Argon2Hasher(Argon2Hasher.DEFAULT_MEMORY, Argon2Hasher.DEFAULT_ITERATIONS, Argon2Hasher.DEFAULT_PARALLELISM);
+        }
+        return null;
+    }
+
+    static byte[] newSalt() {
+        return SaltGenerator.nextBytes(SALT_SIZE_BYTES);
+    }
+
+    /**
+     * @return the NFC normalized UTF-8 bytes of the password, like the digest hashing uses
+     */
+    static byte[] passwordBytes(final String password) {
+        return Normalizer.normalize(password, Normalizer.Form.NFC).getBytes(Charsets.UTF_8);
+    }
+
+    static String encode(final byte[] bytes) {
+        final String encoded = new String(Base64.encode(bytes), Charsets.US_ASCII);
+        int end = encoded.length();
+        while (end > 0 && encoded.charAt(end - 1) == '=') {
+            end--;
+        }
+        return encoded.substring(0, end);
+    }
+
+    /**
+     * @throws IllegalArgumentException is thrown if the value isn't valid base64
+     */
+    static byte[] decode(final String encoded) {
+        final StringBuilder padded = new StringBuilder(encoded);
+        while (padded.length() % 4 != 0) {
+            padded.append('=');
+        }
+        try {
+            return Base64.decode(padded.toString());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid base64 " + encoded, e);
+        }
+    }
+
+    /**
+     * Splits an entry into its fields: id, parameters, salt and hash.
+     *
+     * @param entry        entry in the modular crypt format
+     * @param expectedSize expected amount of fields
+     * @return fields or <code>null</code> if the entry has a different amount of fields
+     */
+    static String[] split(final String entry, final int expectedSize) {
+        final String[] fields = entry.substring(1).split("\\$", -1);
+        return fields.length == expectedSize ? fields : null;
+    }
+
+    /**
+     * Parses comma separated <code>key=value</code> parameters like <code>m=19456,t=2,p=1</code>.
+     *
+     * @param parameters parameters
+     * @param keys       expected keys in this order
+     * @return values
+     * @throws IllegalArgumentException is thrown if the parameters don't match the keys
+     */
+    static int[] parseParameters(final String parameters, final String... keys) {
+        final String[] pairs = parameters.split(",", -1);
+        if (pairs.length != keys.length) {
+            throw new IllegalArgumentException("Invalid parameters " + parameters);
+        }
+        final int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (!pairs[i].startsWith(keys[i] + "=")) {
+                throw new IllegalArgumentException("Invalid parameters " + parameters);
+            }
+            values[i] = Integer.parseInt(pairs[i].substring(keys[i].length() + 1));
+        }
+        return values;
+    }
+
+    /**
+     * Compares in constant time.
+     */
+    static boolean isEqual(final byte[] expected, final byte[] actual) {
+        return MessageDigest.isEqual(expected, actual);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+/**
+ * Hashes passwords into self-describing entries in the modular crypt format, e.g.
+ * <code>$argon2id$v=19$m=19456,t=2,p=1$&lt;salt&gt;$&lt;hash&gt;</code>.
+ * <p/>
+ * The entry holds the algorithm, the cost parameters and the salt, so an entry can be verified independent of the
+ * cost parameters of the hasher. Implementations are thread-safe.
+ */
+public interface ModularCryptHasher {
+
+    /**
+     * Hashes the password with a random salt and the cost parameters of this hasher.
+     *
+     * @param password plaintext password
+     * @return entry in the modular crypt format
+     */
+    String hash(String password);
+
+    /**
+     * Checks a password against an entry of this hash scheme.
+     *
+     * @param password plaintext password
+     * @param entry    entry in the modular crypt format
+     * @return true, if the password matches the entry, false if not or if the entry is malformed
+     */
+    boolean verify(String password, String entry);
+
+    /**
+     * @param entry entry of the credential file
+     * @return true, if the entry uses the hash scheme and the cost parameters of this hasher
+     */
+    boolean isCurrent(String entry);
+}
@@ -0,0 +1,85 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.dcsquare.fileauthplugin.utility.metrics.Metrics;
+import com.dcsquare.fileauthplugin.utility.metrics.Timer;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import org.bouncycastle.util.encoders.Base64;
+
+/**
+ * Creates the entry of the credential file for a plaintext password, as configured in the
+ * fileAuthConfiguration.properties. The counterpart of {@link PasswordVerifier}.
+ * <p/>
+ * Instances are thread-safe.
+ */
+public class PasswordEncoder {
+
+    /**
+     * amount of salt characters, if no other length is set
+     */
+    public static final int DEFAULT_SALT_LENGTH = 50;
+
+    private static final Timer HASH_TIMER = Metrics.timer("password.hash");
+
+    private final FileAuthConfiguration fileAuthConfiguration;
+    private final ModularCryptHasher modularCryptHasher;
+    private final int saltLength;
+
+    /**
+     * @param fileAuthConfiguration configuration
+     * @param saltLength            amount of salt characters of the iterated digest
+     */
+    public PasswordEncoder(final FileAuthConfiguration fileAuthConfiguration, final int saltLength) {
+        this.fileAuthConfiguration = fileAuthConfiguration;
+        this.modularCryptHasher = fileAuthConfiguration.isHashed() ? ModularCrypt.create(fileAuthConfiguration) : null;
+        this.saltLength = saltLength;
+    }
+
+    /**
+     * Decides according to the configuration how to hash the plaintext password.
+     *
+     * @param password plaintext password
+     * @return entry of the credential file
+     */
+    @SuppressWarnings("try")
+    public String encode(final String password) {
+        if (!fileAuthConfiguration.isHashed()) {
+            return password;
+        }
+        try (Timer.Context ignored = HASH_TIMER.time()) {
+            if (modularCryptHasher != null) {
+                return modularCryptHasher.hash(password);
+            }
+            final DigestHasher hasher = PasswordHasher.getHasher(fileAuthConfiguration.getAlgorithm(), fileAuthConfiguration.getIterations());
+            if (!fileAuthConfiguration.isSalted()) {
+                return hasher.hash(password, (String) null);
+            }
+            final byte[] salt = SaltGenerator.nextPrintableSalt(saltLength);
+            final String saltBase64 = new String(Base64.encode(salt), Charsets.US_ASCII);
+            final String hash = hasher.hash(password, salt);
+
+            if (!fileAuthConfiguration.isFirst()) {
+                return hash + fileAuthConfiguration.getSeparationChar() + saltBase64;
+            }
+            return saltBase64 + fileAuthConfiguration.getSeparationChar() + hash;
+        }
+    }
+}
@@ -18,10 +18,15 @@
 
 package com.dcsquare.fileauthplugin.utility.hashing;
 
+import com.dcsquare.fileauthplugin.utility.metrics.Metrics;
+import com.dcsquare.fileauthplugin.utility.metrics.Timer;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.jasypt.digest.config.SimpleDigesterConfig;
-import org.jasypt.salt.FixedStringSaltGenerator;
-import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Hashes the plaintext password.
@@ -31,32 +36,70 @@ import org.jasypt.util.password.ConfigurablePasswordEncryptor;
  */
 public class PasswordHasher {
 
-    private static final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
+    /**
+     * hashers keyed by algorithm and iterations, so the digest setup is only done once per thread
+     */
+    private static final ConcurrentMap<String, DigestHasher> HASHERS = new ConcurrentHashMap<>();
+
+    private static final Timer HASH_TIMER = Metrics.timer("password.hash");
 
+    @SuppressWarnings("try")
     public static String hashPassword(final String algorithm, final String password, final int iterations, final String salt) {
+        try (Timer.Context ignored = HASH_TIMER.time()) {
+            return getHasher(algorithm, iterations).hash(password, salt);
+        }
+    }
 
-        final ConfigurablePasswordEncryptor encryptor = getEncryptor(algorithm, iterations, salt);
+    /**
+     * Returns the cached hasher for the given parameters.
+     *
+     * @param algorithm  message digest algorithm
+     * @param iterations amount of hash iterations
+     * @return thread-safe hasher
+     */
+    public static DigestHasher getHasher(final String algorithm, final int iterations) {
+        final String key = algorithm + ':' + iterations;
 
-        return encryptor.encryptPassword(password);
+        DigestHasher hasher = HASHERS.get(key);
+        if (hasher == null) {
+            hasher = newHasher(algorithm, iterations);
+            final DigestHasher existing = HASHERS.putIfAbsent(key, hasher);
+            if (existing != null) {
+                hasher = existing;
+            }
+        }
+        return hasher;
     }
 
-    private static ConfigurablePasswordEncryptor getEncryptor(final String algorithm, final int iterations, final String salt) {
-        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
-
-        final SimpleDigesterConfig config = new SimpleDigesterConfig();
-        config.setProvider(PROVIDER);
-        config.setAlgorithm(algorithm);
-        config.setIterations(iterations);
+    /**
+     * Creates a hasher, which is not cached.
+     *
+     * @param algorithm  message digest algorithm
+     * @param iterations amount of hash iterations
+     * @return thread-safe hasher
+     */
+    static DigestHasher newHasher(final String algorithm, final int iterations) {
+        return new DigestHasher(algorithm, iterations, providerFor(algorithm));
+    }
 
-        if (salt != null) {
-            final FixedStringSaltGenerator saltGenerator = new FixedStringSaltGenerator();
-            saltGenerator.setSalt(salt);
-            config.setSaltGenerator(saltGenerator);
-            config.setSaltSizeBytes(salt.length());
+    /**
+     * Digests of the JDK produce the same bytes as the ones of Bouncy Castle, so the (slow to load) Bouncy Castle
+     * provider is only used for algorithms the JDK doesn't know.
+     *
+     * @param algorithm message digest algorithm
+     * @return provider for the algorithm, <code>null</code> for the default JDK provider
+     */
+    private static Provider providerFor(final String algorithm) {
+        try {
+            MessageDigest.getInstance(algorithm);
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            return BouncyCastleHolder.PROVIDER;
         }
+    }
 
-        encryptor.setConfig(config);
-        return encryptor;
+    private static class BouncyCastleHolder {
+        private static final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
     }
 
 }
@@ -0,0 +1,153 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import org.bouncycastle.util.encoders.Base64;
+
+import java.security.MessageDigest;
+
+/**
+ * Checks a plaintext password against an entry of the credential file.
+ * <p/>
+ * The entry is parsed with the same rules the File Authentication Plugin uses: depending on the configuration the
+ * entry is the plaintext password, a hash with a random salt prepended to the digest, or a base64 encoded salt and a
+ * hash joined by the separation character, with the salt first or last. Entries in the modular crypt format
+ * (starting with <code>$</code>) describe their hash scheme themselves, see {@link ModularCrypt}.
+ */
+public class PasswordVerifier {
+
+    private final boolean hashed;
+    private final boolean salted;
+    private final boolean saltFirst;
+    private final String separationChar;
+    private final String algorithm;
+    private final int iterations;
+
+    public PasswordVerifier(final FileAuthConfiguration fileAuthConfiguration) {
+        hashed = fileAuthConfiguration.isHashed();
+        salted = fileAuthConfiguration.isSalted();
+        saltFirst = fileAuthConfiguration.isFirst();
+        separationChar = fileAuthConfiguration.getSeparationChar();
+        algorithm = fileAuthConfiguration.getAlgorithm();
+        iterations = fileAuthConfiguration.getIterations();
+    }
+
+    /**
+     * Checks a password.
+     *
+     * @param password plaintext password
+     * @param entry    entry of the user in the credential file
+     * @return true, if the password matches the entry, false if not or if the entry is malformed
+     */
+    public boolean verify(final String password, final String entry) {
+        return verify(password, parse(entry));
+    }
+
+    /**
+     * Checks a password against an entry, which was parsed with {@link #parse(String)} before.
+     *
+     * @param password plaintext password
+     * @param stored   parsed entry of the user in the credential file
+     * @return true, if the password matches the entry, false if not or if the entry is malformed
+     */
+    public boolean verify(final String password, final StoredPassword stored) {
+        switch (stored.getKind()) {
+            case PLAIN:
+                return isEqual(stored.getHash(), password.getBytes(Charsets.UTF_8));
+            case MODULAR_CRYPT:
+                return ModularCrypt.verify(password, stored.getEntry());
+            case DIGEST:
+                final DigestHasher hasher = PasswordHasher.getHasher(algorithm, iterations);
+                return isEqual(stored.getHash(), hasher.digest(password, stored.getSalt()));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decodes salt and hash of an entry, so they don't have to be decoded for every check.
+     *
+     * @param entry entry of the user in the credential file
+     * @return parsed entry, which is malformed if it can't be parsed with this configuration
+     */
+    public StoredPassword parse(final String entry) {
+        if (!hashed) {
+            return new StoredPassword(StoredPassword.Kind.PLAIN, entry, null, entry.getBytes(Charsets.UTF_8));
+        }
+        if (ModularCrypt.isModularCrypt(entry)) {
+            return new StoredPassword(StoredPassword.Kind.MODULAR_CRYPT, entry, null, null);
+        }
+        try {
+            if (!salted) {
+                return parseUnsalted(entry);
+            }
+            return parseSalted(entry);
+        } catch (RuntimeException e) {
+            //invalid base64
+            return malformed(entry);
+        }
+    }
+
+    private static StoredPassword parseUnsalted(final String entry) {
+        final byte[] saltAndDigest = Base64.decode(entry);
+        if (saltAndDigest.length <= DigestHasher.DEFAULT_SALT_SIZE_BYTES) {
+            return malformed(entry);
+        }
+        final byte[] salt = new byte[DigestHasher.DEFAULT_SALT_SIZE_BYTES];
+        final byte[] digest = new byte[saltAndDigest.length - salt.length];
+        System.arraycopy(saltAndDigest, 0, salt, 0, salt.length);
+        System.arraycopy(saltAndDigest, salt.length, digest, 0, digest.length);
+        return new StoredPassword(StoredPassword.Kind.DIGEST, entry, salt, digest);
+    }
+
+    private StoredPassword parseSalted(final String entry) {
+        final int separatorIndex = saltFirst ? entry.indexOf(separationChar) : entry.lastIndexOf(separationChar);
+        if (separatorIndex < 0) {
+            return malformed(entry);
+        }
+        final String encodedSalt;
+        final String hash;
+        if (saltFirst) {
+            encodedSalt = entry.substring(0, separatorIndex);
+            hash = entry.substring(separatorIndex + separationChar.length());
+        } else {
+            hash = entry.substring(0, separatorIndex);
+            encodedSalt = entry.substring(separatorIndex + separationChar.length());
+        }
+        //like jasypt, only the first salt.length() UTF-8 bytes of the decoded salt are used
+        final String salt = new String(Base64.decode(encodedSalt), Charsets.UTF_8);
+        final byte[] saltBytes = salt.getBytes(Charsets.UTF_8);
+        final byte[] usedSalt = new byte[salt.length()];
+        System.arraycopy(saltBytes, 0, usedSalt, 0, usedSalt.length);
+        return new StoredPassword(StoredPassword.Kind.DIGEST, entry, usedSalt, Base64.decode(hash));
+    }
+
+    private static StoredPassword malformed(final String entry) {
+        return new StoredPassword(StoredPassword.Kind.MALFORMED, entry, null, null);
+    }
+
+    /**
+     * Compares in constant time, so the time of a check does not reveal how much of the password matched.
+     */
+    private static boolean isEqual(final byte[] expected, final byte[] actual) {
+        return MessageDigest.isEqual(expected, actual);
+    }
+}
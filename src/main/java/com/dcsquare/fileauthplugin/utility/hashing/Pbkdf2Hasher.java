@@ -0,0 +1,126 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+import java.util.Locale;
+
+/**
+ * PBKDF2 hashes: <code>$pbkdf2-sha512$i=210000$&lt;salt&gt;$&lt;hash&gt;</code>
+ */
+public class Pbkdf2Hasher implements ModularCryptHasher {
+
+    static final String ID_PREFIX = "pbkdf2-";
+    static final int DEFAULT_ITERATIONS = 210000;
+
+    private final String id;
+    private final int iterations;
+
+    /**
+     * @param algorithm  message digest of the HMAC: SHA-1, SHA-256, SHA-384 or SHA-512
+     * @param iterations amount of iterations
+     * @throws EncryptionInitializationException is thrown if the algorithm isn't supported or the iterations are invalid
+     */
+    public Pbkdf2Hasher(final String algorithm, final int iterations) {
+        if (iterations <= 0) {
+            throw new EncryptionInitializationException("Number of iterations must be greater than zero");
+        }
+        this.id = ID_PREFIX + algorithm.replace("-", "").toLowerCase(Locale.ENGLISH);
+        this.iterations = iterations;
+        if (createDigest(id) == null) {
+            throw new EncryptionInitializationException("PBKDF2 does not support algorithm " + algorithm);
+        }
+    }
+
+    private Pbkdf2Hasher(final String id) {
+        this.id = id;
+        this.iterations = DEFAULT_ITERATIONS;
+    }
+
+    /**
+     * @return hasher for verifying entries with the given id, <code>null</code> if the digest isn't supported
+     */
+    static Pbkdf2Hasher forId(final String id) {
+        return createDigest(id) == null ? null : new Pbkdf2Hasher(id);
+    }
+
+    @Override
+    public String hash(final String password) {
+        final byte[] salt = ModularCrypt.newSalt();
+        final byte[] hash = derive(id, password, salt, iterations, createDigest(id).getDigestSize());
+        return prefix() + ModularCrypt.encode(salt) + ModularCrypt.SEPARATOR + ModularCrypt.encode(hash);
+    }
+
+    @Override
+    public boolean isCurrent(final String entry) {
+        return entry.startsWith(prefix());
+    }
+
+    private String prefix() {
+        return ModularCrypt.SEPARATOR + id + ModularCrypt.SEPARATOR + "i=" + iterations + ModularCrypt.SEPARATOR;
+    }
+
+    @Override
+    public boolean verify(final String password, final String entry) {
+        final String[] fields = ModularCrypt.split(entry, 4);
+        if (fields == null || !id.equals(fields[0])) {
+            return false;
+        }
+        try {
+            final int entryIterations = ModularCrypt.parseParameters(fields[1], "i")[0];
+            final byte[] salt = ModularCrypt.decode(fields[2]);
+            final byte[] hash = ModularCrypt.decode(fields[3]);
+            if (entryIterations <= 0 || hash.length == 0) {
+                return false;
+            }
+            return ModularCrypt.isEqual(hash, derive(id, password, salt, entryIterations, hash.length));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static byte[] derive(final String id, final String password, final byte[] salt, final int iterations, final int length) {
+        final PKCS5S2ParametersGenerator generator = new PKCS5S2ParametersGenerator(createDigest(id));
+        generator.init(ModularCrypt.passwordBytes(password), salt, iterations);
+        return ((KeyParameter) generator.generateDerivedParameters(length * 8)).getKey();
+    }
+
+    private static Digest createDigest(final String id) {
+        switch (id.substring(ID_PREFIX.length())) {
+            case "sha1":
+                return new SHA1Digest();
+            case "sha256":
+                return new SHA256Digest();
+            case "sha384":
+                return new SHA384Digest();
+            case "sha512":
+                return new SHA512Digest();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+/**
+ * scrypt hashes: <code>$scrypt$ln=15,r=8,p=1$&lt;salt&gt;$&lt;hash&gt;</code>
+ */
+public class SCryptHasher implements ModularCryptHasher {
+
+    static final String ID = "scrypt";
+    static final int DEFAULT_COST = 15;
+    static final int DEFAULT_BLOCK_SIZE = 8;
+    static final int DEFAULT_PARALLELISM = 1;
+
+    private final int cost;
+    private final int blockSize;
+    private final int parallelism;
+
+    /**
+     * @param cost        log2 of the CPU/memory cost N
+     * @param blockSize   block size r
+     * @param parallelism parallelization p
+     * @throws EncryptionInitializationException is thrown if a parameter is invalid
+     */
+    public SCryptHasher(final int cost, final int blockSize, final int parallelism) {
+        if (cost < 1 || cost > 30 || blockSize < 1 || parallelism < 1) {
+            throw new EncryptionInitializationException("Invalid scrypt parameters");
+        }
+        this.cost = cost;
+        this.blockSize = blockSize;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String hash(final String password) {
+        final byte[] salt = ModularCrypt.newSalt();
+        final byte[] hash = SCrypt.generate(ModularCrypt.passwordBytes(password), salt, 1 << cost, blockSize, parallelism, ModularCrypt.HASH_SIZE_BYTES);
+        return prefix() + ModularCrypt.encode(salt) + ModularCrypt.SEPARATOR + ModularCrypt.encode(hash);
+    }
+
+    @Override
+    public boolean isCurrent(final String entry) {
+        return entry.startsWith(prefix());
+    }
+
+    private String prefix() {
+        return ModularCrypt.SEPARATOR + ID + ModularCrypt.SEPARATOR + "ln=" + cost + ",r=" + blockSize + ",p=" + parallelism + ModularCrypt.SEPARATOR;
+    }
+
+    @Override
+    public boolean verify(final String password, final String entry) {
+        final String[] fields = ModularCrypt.split(entry, 4);
+        if (fields == null || !ID.equals(fields[0])) {
+            return false;
+        }
+        try {
+            final int[] parameters = ModularCrypt.parseParameters(fields[1], "ln", "r", "p");
+            final byte[] salt = ModularCrypt.decode(fields[2]);
+            final byte[] hash = ModularCrypt.decode(fields[3]);
+            if (parameters[0] < 1 || parameters[0] > 30 || hash.length == 0) {
+                return false;
+            }
+            return ModularCrypt.isEqual(hash,
+                    SCrypt.generate(ModularCrypt.passwordBytes(password), salt, 1 << parameters[0], parameters[1], parameters[2], hash.length));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * Source of random salts for all threads.
+ * <p/>
+ * A single {@link SecureRandom} is seeded once and shared. Every thread takes a block of random bytes from it and
+ * hands out its salts from that block, so the shared generator is only locked once per block instead of once per salt.
+ */
+public final class SaltGenerator {
+
+    /**
+     * characters of printable salts, 6 bit of entropy per character
+     */
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(Charsets.US_ASCII);
+
+    private static final int BLOCK_SIZE = 4096;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<ByteBuffer> BLOCKS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            block.position(BLOCK_SIZE);
+            return block;
+        }
+    };
+
+    private SaltGenerator() {
+    }
+
+    /**
+     * @param length amount of bytes
+     * @return random bytes
+     */
+    public static byte[] nextBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        if (length > BLOCK_SIZE) {
+            RANDOM.nextBytes(bytes);
+            return bytes;
+        }
+        final ByteBuffer block = BLOCKS.get();
+        if (block.remaining() < length) {
+            RANDOM.nextBytes(block.array());
+            block.clear();
+        }
+        block.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Creates a salt of printable ASCII characters. Its bytes are the same before and after a conversion to a
+     * <code>String</code> in any common charset, so it can be used with the string based salts of the
+     * File Authentication Plugin without loss.
+     *
+     * @param length amount of characters
+     * @return random salt
+     */
+    public static byte[] nextPrintableSalt(final int length) {
+        final byte[] salt = nextBytes(length);
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = ALPHABET[salt[i] & 0x3f];
+        }
+        return salt;
+    }
+}
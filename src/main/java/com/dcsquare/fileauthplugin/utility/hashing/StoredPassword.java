@@ -0,0 +1,91 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+/**
+ * Pre-parsed entry of the credential file, see {@link PasswordVerifier#parse(String)}.
+ * <p/>
+ * Salt and hash are decoded once, so checking a password against the entry again only costs the hashing itself.
+ * Instances are immutable and only valid for the {@link PasswordVerifier} configuration they were parsed with.
+ */
+public final class StoredPassword {
+
+    public enum Kind {
+        /**
+         * the entry is the plaintext password
+         */
+        PLAIN,
+        /**
+         * iterated digest with the salt given in {@link #getSalt()}
+         */
+        DIGEST,
+        /**
+         * self-describing entry, see {@link ModularCrypt}
+         */
+        MODULAR_CRYPT,
+        /**
+         * no password matches the entry
+         */
+        MALFORMED
+    }
+
+    private final Kind kind;
+    private final String entry;
+    private final byte[] salt;
+    private final byte[] hash;
+
+    StoredPassword(final Kind kind, final String entry, final byte[] salt, final byte[] hash) {
+        this.kind = kind;
+        this.entry = entry;
+        this.salt = salt;
+        this.hash = hash;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return salt bytes of a {@link Kind#DIGEST} entry, not copied
+     */
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    /**
+     * @return digest bytes of a {@link Kind#DIGEST} entry or the password bytes of a {@link Kind#PLAIN} entry, not copied
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * @return entry of the credential file
+     */
+    public String getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return true, if no password matches the entry
+     */
+    public boolean isMalformed() {
+        return kind == Kind.MALFORMED;
+    }
+}
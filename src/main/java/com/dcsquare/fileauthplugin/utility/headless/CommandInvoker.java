@@ -0,0 +1,218 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.headless;
+
+import org.springframework.shell.core.ExecutionProcessor;
+import org.springframework.shell.core.annotation.CliCommand;
+import org.springframework.shell.core.annotation.CliOption;
+import org.springframework.shell.event.ParseResult;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Invokes the shell commands of an object without Spring Shell, based on their
+ * {@link CliCommand} and {@link CliOption} annotations.
+ * <p/>
+ * Command names are matched case insensitive and without dashes, so <code>addUser</code> can also be called as <code>add-user</code>.
+ */
+public class CommandInvoker {
+
+    private static final String NULL = "__NULL__";
+
+    private final Object target;
+    private final Map<String, Method> commands = new HashMap<>();
+
+    public CommandInvoker(final Object target) {
+        this.target = target;
+        for (Method method : target.getClass().getMethods()) {
+            final CliCommand cliCommand = method.getAnnotation(CliCommand.class);
+            if (cliCommand != null) {
+                for (String name : cliCommand.value()) {
+                    commands.put(normalize(name), method);
+                }
+            }
+        }
+    }
+
+    /**
+     * Invokes a command.
+     *
+     * @param name    name of the command
+     * @param options option keys without leading dashes mapped to their values, a <code>null</code> value for a flag
+     * @return result message of the command
+     * @throws IllegalArgumentException is thrown if the command is unknown or an option is missing or invalid
+     */
+    public String invoke(final String name, final Map<String, String> options) {
+        final Method method = commands.get(normalize(name));
+        if (method == null) {
+            throw new IllegalArgumentException("Unknown command " + name);
+        }
+
+        final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final Object[] arguments = new Object[parameterTypes.length];
+
+        for (int i = 0; i < parameterTypes.length; i++) {
+            final CliOption cliOption = findCliOption(parameterAnnotations[i]);
+            if (cliOption == null) {
+                throw new IllegalArgumentException("Command " + name + " cannot be invoked without shell");
+            }
+
+            String value = cliOption.unspecifiedDefaultValue();
+            boolean specified = false;
+            for (String key : cliOption.key()) {
+                if (options.containsKey(key)) {
+                    specified = true;
+                    value = options.get(key) == null ? cliOption.specifiedDefaultValue() : options.get(key);
+                }
+            }
+            if (!specified && cliOption.mandatory()) {
+                throw new IllegalArgumentException("Missing option --" + cliOption.key()[0]);
+            }
+            arguments[i] = convert(NULL.equals(value) ? null : value, parameterTypes[i], cliOption.key()[0]);
+        }
+
+        //the shell notifies execution processors around every command, so do the same
+        final ExecutionProcessor executionProcessor = target instanceof ExecutionProcessor ? (ExecutionProcessor) target : null;
+        final ParseResult parseResult = new ParseResult(method, target, arguments);
+        if (executionProcessor != null) {
+            executionProcessor.beforeInvocation(parseResult);
+        }
+        try {
+            final Object result = method.invoke(target, arguments);
+            if (executionProcessor != null) {
+                executionProcessor.afterReturningInvocation(parseResult, result);
+            }
+            return String.valueOf(result);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Command " + name + " is not accessible", e);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (executionProcessor != null) {
+                executionProcessor.afterThrowingInvocation(parseResult, cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Splits a command line into tokens at whitespace, single or double quotes group a token.
+     *
+     * @param line command line
+     * @return tokens
+     */
+    public static List<String> tokenize(final String line) {
+        final List<String> tokens = new ArrayList<>();
+        final StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Parses <code>--key value</code> pairs, a key without value is a flag.
+     *
+     * @param tokens tokens after the command name
+     * @return option keys without leading dashes mapped to their values
+     * @throws IllegalArgumentException is thrown if a token is neither an option nor a value
+     */
+    public static Map<String, String> parseOptions(final List<String> tokens) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            final String token = tokens.get(i);
+            if (!token.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected value " + token);
+            }
+            String value = null;
+            if (i + 1 < tokens.size() && !tokens.get(i + 1).startsWith("--")) {
+                value = tokens.get(++i);
+            }
+            options.put(token.substring(2), value);
+        }
+        return options;
+    }
+
+    private static CliOption findCliOption(final Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof CliOption) {
+                return (CliOption) annotation;
+            }
+        }
+        return null;
+    }
+
+    private static Object convert(final String value, final Class<?> type, final String key) {
+        if (type == String.class) {
+            return value;
+        }
+        try {
+            if (type == int.class || type == Integer.class) {
+                return value == null ? (type == int.class ? 0 : null) : Integer.valueOf(value);
+            }
+            if (type == long.class || type == Long.class) {
+                return value == null ? (type == long.class ? 0L : null) : Long.valueOf(value);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option --" + key + " should be a number");
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return value == null ? (type == boolean.class ? false : null) : Boolean.valueOf(value);
+        }
+        throw new IllegalArgumentException("Option --" + key + " has unsupported type " + type.getSimpleName());
+    }
+
+    static String normalize(final String name) {
+        return name.replace("-", "").toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.headless;
+
+import com.dcsquare.fileauthplugin.utility.Commands;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Keeps the configuration and the credentials loaded and accepts commands over a socket on the loopback interface.
+ * <p/>
+ * The protocol is line based: every request is a command line in the shell syntax, e.g.
+ * <code>addUser --username user --password pass</code>. Every request is answered with a line <code>OK &lt;lines&gt;</code>
+ * or <code>ERROR &lt;lines&gt;</code>, followed by that many lines: the result message and the output of the command,
+ * e.g. one line per user of <code>listUsers</code>.
+ * <p/>
+ * Requests can be pipelined, the responses of a connection are sent in the order of its requests.
+ * Changes of users are saved in groups by the {@link GroupCommitter}, a response for a change is only sent after
+ * the credential file was written.
+ */
+public class CredentialServer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialServer.class);
+
+    private static final Future<String> END_OF_REQUESTS = SettableFuture.create();
+
+    private final ServerSocket serverSocket;
+    private final GroupCommitter committer;
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("credential-server-%d").setDaemon(true).build());
+    private final Thread committerThread;
+
+    /**
+     * @param commands configured commands
+     * @param port     port on the loopback interface, 0 for any free port
+     * @throws IOException is thrown if the port cannot be bound
+     */
+    public CredentialServer(final Commands commands, final int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+        committer = new GroupCommitter(commands);
+        committerThread = new Thread(committer, "credential-server-committer");
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        committerThread.start();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Waits until the server is closed.
+     *
+     * @throws InterruptedException is thrown if the thread is interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        committerThread.join();
+    }
+
+    /**
+     * Stops accepting connections and waits until all queued requests are executed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        try {
+            if (committerThread.isAlive()) {
+                committer.stop();
+                committerThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        readRequests(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOG.error("Error accepting connection", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the requests of a connection without waiting for the responses, which are written by another thread.
+     */
+    private void readRequests(final Socket socket) {
+        final BlockingQueue<Future<String>> responses = new LinkedBlockingQueue<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeResponses(socket, responses);
+            }
+        });
+
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final GroupCommitter.Request request = new GroupCommitter.Request(line);
+                responses.add(request.getResponse());
+                committer.submit(request);
+            }
+        } catch (SocketException e) {
+            //connection was closed
+        } catch (IOException e) {
+            LOG.error("Error reading request", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            responses.add(END_OF_REQUESTS);
+        }
+    }
+
+    /**
+     * Writes the responses in the order of the requests, the output is only flushed if no further response is waiting.
+     */
+    private void writeResponses(final Socket socket, final BlockingQueue<Future<String>> responses) {
+        try {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8));
+            Future<String> response;
+            while ((response = responses.take()) != END_OF_REQUESTS) {
+                writer.write(response.get());
+                if (responses.isEmpty()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        } catch (SocketException e) {
+            //connection was closed
+        } catch (IOException | ExecutionException e) {
+            LOG.error("Error writing response", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.headless;
+
+import com.dcsquare.fileauthplugin.utility.Commands;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Executes the requests of all connections of the {@link CredentialServer} one after another on a single thread.
+ * <p/>
+ * All changes of users, which are waiting in the queue, are collected in one batch and saved with a single write of the
+ * credential file. Their responses are only sent after the changes were saved. Any other command saves the pending
+ * changes first, so it sees all earlier changes.
+ */
+class GroupCommitter implements Runnable {
+
+    /**
+     * upper limit of requests, which are executed in one group
+     */
+    static final int MAX_GROUP_SIZE = 4096;
+
+    private static final Set<String> WRITE_COMMANDS = ImmutableSet.of("adduser", "updateuser", "addorupdateuser", "deleteuser");
+    private static final Set<String> UNSUPPORTED_COMMANDS = ImmutableSet.of("configure", "begin", "commit", "rollback");
+
+    private static final Request STOP = new Request("");
+
+    private final Commands commands;
+    private final CommandInvoker invoker;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>(MAX_GROUP_SIZE * 4);
+
+    /**
+     * receives what commands like <code>listUsers</code> and <code>diff</code> print, so it becomes part of the response
+     */
+    private final ByteArrayOutputStream consoleOutput = new ByteArrayOutputStream();
+
+    private final List<Request> group = new ArrayList<>();
+    private final List<Request> pending = new ArrayList<>();
+    private boolean batchStarted;
+
+    GroupCommitter(final Commands commands) {
+        this.commands = commands;
+        this.invoker = new CommandInvoker(commands);
+        commands.setConsole(Channels.newChannel(consoleOutput));
+    }
+
+    /**
+     * Queues a request, waits if the queue is full.
+     *
+     * @param request request
+     * @throws InterruptedException is thrown if the thread is interrupted while waiting
+     */
+    void submit(final Request request) throws InterruptedException {
+        queue.put(request);
+    }
+
+    /**
+     * Stops the committer after all queued requests are executed.
+     *
+     * @throws InterruptedException is thrown if the thread is interrupted while waiting
+     */
+    void stop() throws InterruptedException {
+        queue.put(STOP);
+    }
+
+    @Override
+    public void run() {
+        try {
+            boolean stopped = false;
+            while (!stopped) {
+                group.add(queue.take());
+                queue.drainTo(group, MAX_GROUP_SIZE - 1);
+                for (Request request : group) {
+                    if (request == STOP) {
+                        stopped = true;
+                    } else {
+                        execute(request);
+                    }
+                }
+                group.clear();
+                saveChanges();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(final Request request) {
+        try {
+            final List<String> tokens = CommandInvoker.tokenize(request.getLine());
+            if (tokens.isEmpty()) {
+                throw new IllegalArgumentException("Empty request");
+            }
+            final String name = CommandInvoker.normalize(tokens.get(0));
+            final Map<String, String> options = CommandInvoker.parseOptions(tokens.subList(1, tokens.size()));
+            if (UNSUPPORTED_COMMANDS.contains(name)) {
+                throw new IllegalArgumentException("Command " + tokens.get(0) + " is not available in server mode");
+            }
+
+            if (WRITE_COMMANDS.contains(name)) {
+                if (!batchStarted) {
+                    commands.begin();
+                    batchStarted = true;
+                }
+                request.setResult(invoker.invoke(tokens.get(0), options), commands.isFailed());
+                request.setUsername(options.get("username"));
+                pending.add(request);
+                return;
+            }
+
+            saveChanges();
+            consoleOutput.reset();
+            final String result = invoker.invoke(tokens.get(0), options);
+            request.complete(response(!commands.isFailed(), result, new String(consoleOutput.toByteArray(), Charsets.UTF_8)));
+        } catch (RuntimeException e) {
+            request.complete(response(false, e.getMessage()));
+        } finally {
+            consoleOutput.reset();
+        }
+    }
+
+    /**
+     * Frames a response: a line with <code>OK</code> or <code>ERROR</code> and the amount of lines which follow,
+     * then the lines of the result message and of the console output of the command.
+     *
+     * @param ok    true, if the command succeeded
+     * @param texts result message and console output, their lines are sent one after another
+     * @return response
+     */
+    private static String response(final boolean ok, final String... texts) {
+        final List<String> lines = new ArrayList<>();
+        for (String text : texts) {
+            if (text == null) {
+                lines.add("");
+            } else if (!text.isEmpty()) {
+                lines.addAll(Arrays.asList(text.split("\r?\n")));
+            }
+        }
+        final StringBuilder response = new StringBuilder(ok ? "OK " : "ERROR ").append(lines.size()).append('\n');
+        for (String line : lines) {
+            response.append(line).append('\n');
+        }
+        return response.toString();
+    }
+
+    /**
+     * Saves all pending changes with a single write and answers the requests which made them.
+     */
+    private void saveChanges() {
+        if (!batchStarted) {
+            return;
+        }
+        batchStarted = false;
+        final String result = commands.commit();
+        final boolean saved = result.startsWith("Committed");
+        if (!saved) {
+            commands.rollback();
+        }
+        for (Request request : pending) {
+            if (!saved) {
+                request.complete(response(false, result));
+            } else if (commands.getConflicts().contains(request.getUsername())) {
+                request.complete(response(false, "User " + request.getUsername() + " was added or deleted by another writer meanwhile"));
+            } else {
+                request.complete(response(!request.isFailed(), request.getResult()));
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * A single command line of a connection and its future response.
+     */
+    static class Request {
+
+        private final String line;
+        private final SettableFuture<String> response = SettableFuture.create();
+        private String result;
+        private boolean failed;
+        private String username;
+
+        Request(final String line) {
+            this.line = line;
+        }
+
+        String getLine() {
+            return line;
+        }
+
+        SettableFuture<String> getResponse() {
+            return response;
+        }
+
+        private String getResult() {
+            return result;
+        }
+
+        private boolean isFailed() {
+            return failed;
+        }
+
+        private void setResult(final String result, final boolean failed) {
+            this.result = result;
+            this.failed = failed;
+        }
+
+        private String getUsername() {
+            return username;
+        }
+
+        private void setUsername(final String username) {
+            this.username = username;
+        }
+
+        private void complete(final String response) {
+            this.response.set(response);
+        }
+    }
+}
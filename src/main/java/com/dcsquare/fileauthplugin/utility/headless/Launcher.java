@@ -0,0 +1,153 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.headless;
+
+import com.dcsquare.fileauthplugin.utility.Commands;
+import com.google.common.base.Charsets;
+import org.springframework.shell.Bootstrap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Main class of the utility.
+ * <p/>
+ * Without <code>--config</code> the interactive Spring Shell is started. With <code>--config</code> the commands
+ * run directly, without Spring context, banner and history, which makes the utility usable from scripts:
+ * <pre>
+ * java -jar utility.jar --config path/to/fileAuthConfiguration.properties addUser --username user --password pass
+ * java -jar utility.jar --config path/to/fileAuthConfiguration.properties &lt; commands.txt
+ * </pre>
+ * Without a command on the command line, commands are read from stdin, one per line in the shell syntax.
+ * With <code>--serve &lt;port&gt;</code> instead of a command, the utility keeps running and accepts commands over a
+ * socket on the loopback interface, see {@link CredentialServer}.
+ */
+public class Launcher {
+
+    static final String CONFIG_OPTION = "--config";
+    static final String SERVE_OPTION = "--serve";
+
+    public static void main(final String[] args) throws IOException {
+        if (!Arrays.asList(args).contains(CONFIG_OPTION)) {
+            Bootstrap.main(args);
+            return;
+        }
+        System.exit(run(args, System.in, System.out));
+    }
+
+    /**
+     * Runs the commands without shell.
+     *
+     * @param args command line arguments including <code>--config</code>
+     * @param in   commands, if there is no command in the arguments
+     * @param out  receives the result message of every command
+     * @return exit code, 0 if all commands succeeded
+     * @throws IOException is thrown if the commands cannot be read
+     */
+    static int run(final String[] args, final InputStream in, final PrintStream out) throws IOException {
+        final List<String> arguments = Arrays.asList(args);
+        final int configIndex = arguments.indexOf(CONFIG_OPTION);
+        if (configIndex + 1 >= arguments.size()) {
+            out.println("Usage: " + CONFIG_OPTION + " <path/to/fileAuthConfiguration.properties> [command [--option value]...]");
+            return 2;
+        }
+
+        final Commands commands = new Commands();
+        final CommandInvoker invoker = new CommandInvoker(commands);
+        final String configureResult = invoker.invoke("configure", Collections.singletonMap("file", arguments.get(configIndex + 1)));
+        if (!commands.checkAvailability()) {
+            out.println(configureResult);
+            return 1;
+        }
+        final List<String> command = arguments.subList(configIndex + 2, arguments.size());
+        if (!command.isEmpty() && SERVE_OPTION.equals(command.get(0))) {
+            return serve(commands, command, out);
+        }
+
+        if (!command.isEmpty()) {
+            return execute(commands, invoker, command, out) ? 0 : 1;
+        }
+
+        int exitCode = 0;
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final List<String> tokens = CommandInvoker.tokenize(line);
+            if (tokens.isEmpty() || tokens.get(0).startsWith("#")) {
+                continue;
+            }
+            if (!execute(commands, invoker, tokens, out)) {
+                exitCode = 1;
+            }
+        }
+        return exitCode;
+    }
+
+    private static int serve(final Commands commands, final List<String> command, final PrintStream out) throws IOException {
+        final int port;
+        try {
+            port = Integer.parseInt(command.size() == 2 ? command.get(1) : "");
+        } catch (NumberFormatException e) {
+            out.println("Usage: " + CONFIG_OPTION + " <path/to/fileAuthConfiguration.properties> " + SERVE_OPTION + " <port>");
+            return 2;
+        }
+
+        final CredentialServer server = new CredentialServer(commands, port);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    //shutting down anyway
+                }
+            }
+        });
+        server.start();
+        out.println("Listening on port " + server.getPort());
+        out.flush();
+        try {
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    /**
+     * @return true, if the command neither threw an exception nor reported a failure
+     */
+    private static boolean execute(final Commands commands, final CommandInvoker invoker, final List<String> tokens, final PrintStream out) {
+        try {
+            out.println(invoker.invoke(tokens.get(0), CommandInvoker.parseOptions(tokens.subList(1, tokens.size()))));
+            out.flush();
+            return !commands.isFailed();
+        } catch (RuntimeException e) {
+            out.println("Error: " + e.getMessage());
+            out.flush();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Registry of the timers and counters of the utility, shown by the <code>stats</code> command and optionally
+ * exported as MXBeans under the domain <code>com.dcsquare.fileauthplugin.utility</code>.
+ * <p/>
+ * Names are dotted paths like <code>command.addUser</code>, <code>password.hash</code> or <code>storage.save</code>.
+ */
+public final class Metrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    private static final String JMX_DOMAIN = "com.dcsquare.fileauthplugin.utility";
+
+    private static final ConcurrentMap<String, Timer> TIMERS = new ConcurrentSkipListMap<>();
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static volatile boolean jmxEnabled;
+
+    private Metrics() {
+    }
+
+    /**
+     * @param name name of the timer
+     * @return the timer, created on first use
+     */
+    public static Timer timer(final String name) {
+        Timer timer = TIMERS.get(name);
+        if (timer == null) {
+            final Timer created = new Timer();
+            timer = TIMERS.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+                register("Timer", name, created);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @param name name of the counter
+     * @return the counter, created on first use
+     */
+    public static Counter counter(final String name) {
+        Counter counter = COUNTERS.get(name);
+        if (counter == null) {
+            final Counter created = new Counter();
+            counter = COUNTERS.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+                register("Counter", name, created);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Exports all existing and future timers and counters as MXBeans. Calling it again has no effect.
+     */
+    public static synchronized void enableJmx() {
+        if (jmxEnabled) {
+            return;
+        }
+        jmxEnabled = true;
+        for (Map.Entry<String, Timer> timer : TIMERS.entrySet()) {
+            register("Timer", timer.getKey(), timer.getValue());
+        }
+        for (Map.Entry<String, Counter> counter : COUNTERS.entrySet()) {
+            register("Counter", counter.getKey(), counter.getValue());
+        }
+    }
+
+    /**
+     * Sets all timers and counters back to zero.
+     */
+    public static void reset() {
+        for (Timer timer : TIMERS.values()) {
+            timer.reset();
+        }
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * @return one line per timer and counter, which was used at least once, ordered by name
+     */
+    public static String report() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ENGLISH, "%-24s %10s %12s %10s %10s %10s %10s %10s%n",
+                "timer", "count", "total ms", "mean ms", "p50 ms", "p99 ms", "max ms", "per s"));
+        for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+            final Timer timer = entry.getValue();
+            if (timer.getCount() > 0) {
+                report.append(String.format(Locale.ENGLISH, "%-24s %10d %12.1f %10.3f %10.3f %10.3f %10.3f %10.1f%n",
+                        entry.getKey(), timer.getCount(), timer.getTotalMillis(), timer.getMeanMillis(),
+                        timer.getP50Millis(), timer.getP99Millis(), timer.getMaxMillis(), timer.getRatePerSecond()));
+            }
+        }
+        for (Map.Entry<String, Counter> entry : COUNTERS.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                report.append(String.format(Locale.ENGLISH, "%-24s %10d%n", entry.getKey(), entry.getValue().getCount()));
+            }
+        }
+        return report.toString();
+    }
+
+    private static void register(final String type, final String name, final Object bean) {
+        if (!jmxEnabled) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not register " + name + " in JMX", e);
+        }
+    }
+}
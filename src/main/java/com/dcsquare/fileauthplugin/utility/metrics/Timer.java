@@ -0,0 +1,186 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe timer of an operation, which records count, total, maximum and the distribution of the durations.
+ * <p/>
+ * Durations are counted in logarithmic buckets with four sub-buckets per power of two, so percentiles are
+ * accurate to about 20% with constant memory and without locking.
+ * <pre>
+ * try (Timer.Context ignored = Metrics.timer("storage.save").time()) {
+ *     save();
+ * }
+ * </pre>
+ */
+public class Timer implements TimerMXBean {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private volatile long startNanos = System.nanoTime();
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return context, which records the duration when it is closed
+     */
+    public Context time() {
+        return new Context(this, System.nanoTime());
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void update(final long nanos) {
+        final long duration = Math.max(0, nanos);
+        count.incrementAndGet();
+        totalNanos.addAndGet(duration);
+        buckets.incrementAndGet(bucketOf(duration));
+        long max;
+        while (duration > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, duration)) {
+            //retry until the maximum is updated or another thread recorded a larger duration
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.get() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / NANOS_PER_MILLI / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileMillis(0.5);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileMillis(0.99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return operations per second since the timer was created or reset
+     */
+    @Override
+    public double getRatePerSecond() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : count.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return upper bound of the bucket holding the quantile, in milliseconds
+     */
+    double percentileMillis(final double quantile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), maxNanos.get()) / NANOS_PER_MILLI;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    void reset() {
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        startNanos = System.nanoTime();
+    }
+
+    private static int bucketOf(final long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        final int log2 = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (log2 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (log2 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int log2 = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (log2 - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * One timed operation.
+     */
+    public static class Context implements AutoCloseable {
+
+        private final Timer timer;
+        private final long start;
+        private boolean stopped;
+
+        private Context(final Timer timer, final long start) {
+            this.timer = timer;
+            this.start = start;
+        }
+
+        /**
+         * Records the duration since the operation was started, only the first call is recorded.
+         */
+        @Override
+        public void close() {
+            if (!stopped) {
+                stopped = true;
+                timer.update(System.nanoTime() - start);
+            }
+        }
+    }
+}
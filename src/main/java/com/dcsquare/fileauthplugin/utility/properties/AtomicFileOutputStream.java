@@ -0,0 +1,133 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a file crash-safe: the content goes to a temporary file in the same directory,
+ * which is synced to disk and atomically renamed over the target on {@link #commit()}.
+ * <p/>
+ * Readers of the target always see either the old or the new complete file. If the stream is closed
+ * without commit, the temporary file is deleted and the target stays untouched.
+ */
+public class AtomicFileOutputStream extends OutputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AtomicFileOutputStream.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path target;
+    private final Path temp;
+    private final FileChannel channel;
+    private final OutputStream out;
+    private boolean committed;
+    private boolean closed;
+
+    public AtomicFileOutputStream(final File file) throws IOException {
+        target = file.getAbsoluteFile().toPath();
+        temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+        try {
+            if (Files.exists(target)) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            }
+        } catch (UnsupportedOperationException e) {
+            //no POSIX file system, the default permissions are used
+        }
+        channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        out.write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Syncs the written content to disk and replaces the target file with it.
+     *
+     * @throws IOException is thrown if syncing or renaming fails, the target is unchanged in that case
+     */
+    public void commit() throws IOException {
+        if (closed) {
+            throw new IOException("Stream for " + target + " already closed");
+        }
+        out.flush();
+        channel.force(true);
+        channel.close();
+        closed = true;
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOG.warn("Atomic rename not supported, replacing " + target + " non-atomically");
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        committed = true;
+        syncDirectory();
+    }
+
+    /**
+     * Discards the temporary file if {@link #commit()} was not called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            channel.close();
+        }
+        if (!committed) {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Makes the rename durable, not possible on every platform.
+     */
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            LOG.debug("Could not sync directory " + target.getParent(), e);
+        }
+    }
+}
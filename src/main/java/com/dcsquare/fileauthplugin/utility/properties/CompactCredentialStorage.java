@@ -0,0 +1,156 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Storage engine specialised for credential files with one <code>user:hash</code> line per user.
+ * <p/>
+ * Users are held in a {@link CompactUserMap} instead of a full {@link org.apache.commons.configuration.PropertiesConfiguration}.
+ * New users are appended to the end of the file. Updates and deletions compact the file, i.e. it is
+ * rewritten atomically from memory. Comments and the order of the lines are not preserved.
+ */
+class CompactCredentialStorage implements CredentialStorage {
+
+    private final File file;
+    private final CompactUserMap users;
+    private FileState state;
+
+    CompactCredentialStorage(final File file) throws ConfigurationException {
+        this.file = file;
+        state = FileState.of(file);
+        users = new CompactUserMap((int) Math.min(Integer.MAX_VALUE / 4, file.length() / 64));
+        try (CredentialFileScanner scanner = new CredentialFileScanner(file)) {
+            while (scanner.next()) {
+                users.put(scanner.getUsername(), scanner.getPassword());
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load " + file.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public boolean contains(final String username) {
+        return users.containsKey(username);
+    }
+
+    @Override
+    public String get(final String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public Iterator<String> usernames() {
+        return users.keys();
+    }
+
+    @Override
+    public void commit(final Map<String, String> mutations) throws ConfigurationException {
+        boolean onlyNewUsers = true;
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            if (mutation.getValue() == null || users.containsKey(mutation.getKey())) {
+                onlyNewUsers = false;
+                break;
+            }
+        }
+
+        final Map<String, String> previous = new HashMap<>();
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            final String old = mutation.getValue() == null ? users.remove(mutation.getKey()) : users.put(mutation.getKey(), mutation.getValue());
+            if (!previous.containsKey(mutation.getKey())) {
+                previous.put(mutation.getKey(), old);
+            }
+        }
+
+        try {
+            if (onlyNewUsers) {
+                CredentialFileFormat.append(file, mutations);
+            } else {
+                compact();
+            }
+        } catch (IOException e) {
+            for (Map.Entry<String, String> entry : previous.entrySet()) {
+                if (entry.getValue() == null) {
+                    users.remove(entry.getKey());
+                } else {
+                    users.put(entry.getKey(), entry.getValue());
+                }
+            }
+            throw new ConfigurationException("Could not save " + file.getAbsolutePath(), e);
+        }
+        state = FileState.of(file);
+    }
+
+    /**
+     * Only lines appended to the file are read, a replaced file is loaded again.
+     */
+    @Override
+    public boolean reloadChanges() throws ConfigurationException {
+        final FileState current = FileState.of(file);
+        if (state.isUnchanged(current)) {
+            return true;
+        }
+        if (!state.isAppendedBy(current, file)) {
+            return false;
+        }
+        try (CredentialFileScanner scanner = new CredentialFileScanner(file, state.getLength(), current.getLength() - state.getLength())) {
+            while (scanner.next()) {
+                users.put(scanner.getUsername(), scanner.getPassword());
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load " + file.getAbsolutePath(), e);
+        }
+        state = current;
+        return true;
+    }
+
+    /**
+     * Rewrites the whole file from memory.
+     */
+    private void compact() throws IOException {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.ISO_8859_1));
+            final StringBuilder builder = new StringBuilder();
+            for (int slot = users.nextSlot(0); slot >= 0; slot = users.nextSlot(slot + 1)) {
+                builder.setLength(0);
+                CredentialFileFormat.appendLine(builder, users.keyAt(slot), users.valueAt(slot));
+                builder.append(CredentialFileFormat.LINE_SEPARATOR);
+                writer.append(builder);
+            }
+            writer.flush();
+            out.commit();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open-addressing hash map from username to password with linear probing.
+ * <p/>
+ * Keys and values are kept in two plain arrays, so there is no entry object per user.
+ * Not thread-safe.
+ */
+class CompactUserMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * marks a slot of a removed user, so probing continues behind it
+     */
+    private static final String DELETED = new String("");
+
+    private String[] keys;
+    private String[] values;
+    private int size;
+    private int usedSlots;
+
+    CompactUserMap() {
+        this(MIN_CAPACITY);
+    }
+
+    CompactUserMap(final int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    String get(final String key) {
+        final int slot = find(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    boolean containsKey(final String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return the previous password, <code>null</code> if the user is new
+     */
+    String put(final String key, final String value) {
+        final int existing = find(key);
+        if (existing >= 0) {
+            final String previous = values[existing];
+            values[existing] = value;
+            return previous;
+        }
+        if (usedSlots + 1 > keys.length * 3 / 4) {
+            rehash(capacityFor(size + 1));
+        }
+        int slot = slotFor(key);
+        while (keys[slot] != null && keys[slot] != DELETED) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (keys[slot] == null) {
+            usedSlots++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * @return the removed password, <code>null</code> if the user didn't exist
+     */
+    String remove(final String key) {
+        final int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        final String previous = values[slot];
+        keys[slot] = DELETED;
+        values[slot] = null;
+        size--;
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param from slot to start searching at
+     * @return next slot holding a user, at or after <code>from</code>, -1 if there is none
+     */
+    int nextSlot(int from) {
+        for (; from < keys.length; from++) {
+            if (keys[from] != null && keys[from] != DELETED) {
+                return from;
+            }
+        }
+        return -1;
+    }
+
+    String keyAt(final int slot) {
+        return keys[slot];
+    }
+
+    String valueAt(final int slot) {
+        return values[slot];
+    }
+
+    Iterator<String> keys() {
+        return new Iterator<String>() {
+            private int next = nextSlot(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public String next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                final String key = keys[next];
+                next = nextSlot(next + 1);
+                return key;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int find(final String key) {
+        int slot = slotFor(key);
+        while (keys[slot] != null) {
+            if (keys[slot] != DELETED && keys[slot].equals(key)) {
+                return slot;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    private int slotFor(final String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & (keys.length - 1);
+    }
+
+    private void rehash(final int capacity) {
+        final String[] oldKeys = keys;
+        final String[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null && oldKeys[i] != DELETED) {
+                int slot = slotFor(oldKeys[i]);
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+                usedSlots++;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new String[capacity];
+        values = new String[capacity];
+        size = 0;
+        usedSlots = 0;
+    }
+
+    private static int capacityFor(final int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < size * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
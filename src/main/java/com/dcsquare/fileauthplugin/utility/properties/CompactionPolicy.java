@@ -0,0 +1,55 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+/**
+ * Decides when the journal of a credential file is merged into the file, configured with
+ * <code>credentialStorage.journal.*</code>.
+ */
+public class CompactionPolicy {
+
+    private final long maxJournalSize;
+    private final double maxJournalRatio;
+
+    /**
+     * @param maxJournalSize  journal size in bytes, which triggers a compaction
+     * @param maxJournalRatio ratio of journal size to credential file size, which triggers a compaction
+     */
+    public CompactionPolicy(final long maxJournalSize, final double maxJournalRatio) {
+        this.maxJournalSize = maxJournalSize;
+        this.maxJournalRatio = maxJournalRatio;
+    }
+
+    /**
+     * @param journalSize  size of the journal in bytes
+     * @param snapshotSize size of the credential file in bytes
+     * @return true, if one of the thresholds is crossed
+     */
+    public boolean shouldCompact(final long journalSize, final long snapshotSize) {
+        return journalSize >= maxJournalSize || journalSize >= maxJournalRatio * snapshotSize;
+    }
+
+    public long getMaxJournalSize() {
+        return maxJournalSize;
+    }
+
+    public double getMaxJournalRatio() {
+        return maxJournalRatio;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects changes of the credential file in memory and saves all of them with a single write on commit.
+ * <p/>
+ * The methods behave like the ones of {@link CredentialProperties}, but take the pending changes of the batch into account.
+ * Changes of users, which another writer added or deleted before the commit, are not saved and reported as conflicts.
+ */
+public class CredentialBatch {
+
+    private final CredentialProperties credentialProperties;
+
+    /**
+     * pending changes, a <code>null</code> value marks a deleted user
+     */
+    private final Map<String, String> mutations = new LinkedHashMap<>();
+
+    /**
+     * whether the changed users existed before their first change in this batch
+     */
+    private final Map<String, Boolean> expected = new HashMap<>();
+
+    private Set<String> conflicts = Collections.emptySet();
+
+    public CredentialBatch(CredentialProperties credentialProperties) {
+        this.credentialProperties = credentialProperties;
+    }
+
+    /**
+     * Add a user
+     *
+     * @param username username of the user, which should be created
+     * @param password password, which should be set
+     * @return true, if user doesn't exists and will be created, false if user already exists.
+     */
+    public boolean addUser(String username, String password) {
+        if (exists(username)) {
+            return false;
+        }
+        put(username, password);
+        return true;
+    }
+
+    /**
+     * Updates the user username with given password
+     *
+     * @param username    username of the user, which should be updated
+     * @param newPassword new password, which should be set
+     * @return true, if user exists and will be updated, false if user doesn't exist.
+     */
+    public boolean updateUser(String username, String newPassword) {
+        if (!exists(username)) {
+            return false;
+        }
+        put(username, newPassword);
+        return true;
+    }
+
+    /**
+     * Deletes a user
+     *
+     * @param username username
+     * @return true, if user is existent and will be deleted, false if user doesn't exist.
+     */
+    public boolean deleteUser(String username) {
+        if (!exists(username)) {
+            return false;
+        }
+        put(username, null);
+        return true;
+    }
+
+    /**
+     * @return amount of users changed by this batch
+     */
+    public int size() {
+        return mutations.size();
+    }
+
+    /**
+     * Saves all pending changes to the credential file, except the ones of users which another writer added or deleted
+     * since they were changed in this batch, see {@link #getConflicts()}.
+     *
+     * @return amount of users changed
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    public int commit() throws ConfigurationException {
+        conflicts = Collections.emptySet();
+        if (mutations.isEmpty()) {
+            return 0;
+        }
+        conflicts = credentialProperties.apply(mutations, expected);
+        final int size = mutations.size() - conflicts.size();
+        mutations.clear();
+        expected.clear();
+        return size;
+    }
+
+    /**
+     * @return usernames whose changes were not saved by the last commit, because another writer added or deleted them
+     */
+    public Set<String> getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Discards all pending changes.
+     *
+     * @return amount of discarded changes
+     */
+    public int rollback() {
+        final int size = mutations.size();
+        mutations.clear();
+        expected.clear();
+        return size;
+    }
+
+    private void put(String username, String password) {
+        if (!mutations.containsKey(username)) {
+            expected.put(username, credentialProperties.containsUser(username));
+        }
+        mutations.put(username, password);
+    }
+
+    private boolean exists(String username) {
+        if (mutations.containsKey(username)) {
+            return mutations.get(username) != null;
+        }
+        return credentialProperties.containsUser(username);
+    }
+}
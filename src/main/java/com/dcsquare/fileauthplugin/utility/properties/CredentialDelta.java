@@ -0,0 +1,109 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-user differences between another credential file and the configured one, see {@link CredentialProperties#diff(java.io.File)}.
+ */
+public class CredentialDelta {
+
+    /**
+     * how a user differs
+     */
+    public enum Kind {
+        /**
+         * only in the other credential file
+         */
+        ADD,
+        /**
+         * in both credential files with different passwords
+         */
+        CHANGE,
+        /**
+         * only in the configured credential file
+         */
+        DELETE
+    }
+
+    /**
+     * changes which turn the configured credential file into the other one, a <code>null</code> value deletes the user
+     */
+    private final Map<String, String> mutations = new LinkedHashMap<>();
+    private final Map<String, Kind> kinds = new HashMap<>();
+    private int added;
+    private int changed;
+    private int deleted;
+
+    void add(final String username, final String password) {
+        mutations.put(username, password);
+        kinds.put(username, Kind.ADD);
+        added++;
+    }
+
+    void change(final String username, final String password) {
+        mutations.put(username, password);
+        kinds.put(username, Kind.CHANGE);
+        changed++;
+    }
+
+    void delete(final String username) {
+        mutations.put(username, null);
+        kinds.put(username, Kind.DELETE);
+        deleted++;
+    }
+
+    /**
+     * @return usernames mapped to their new password, <code>null</code> for users which are deleted
+     */
+    public Map<String, String> getMutations() {
+        return Collections.unmodifiableMap(mutations);
+    }
+
+    /**
+     * @param username username
+     * @return how the user differs, <code>null</code> if it doesn't
+     */
+    public Kind getKind(final String username) {
+        return kinds.get(username);
+    }
+
+    /**
+     * @return true, if both credential files hold the same users and passwords
+     */
+    public boolean isEmpty() {
+        return mutations.isEmpty();
+    }
+
+    public int getAdded() {
+        return added;
+    }
+
+    public int getChanged() {
+        return changed;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Escaping rules of the properties format used for credential files.
+ * <p/>
+ * Escaped lines can be read by commons-configuration, <code>java.util.Properties</code> and {@link CredentialFileScanner}.
+ */
+final class CredentialFileFormat {
+
+    static final char SEPARATOR = ':';
+    static final char LINE_SEPARATOR = '\n';
+
+    private CredentialFileFormat() {
+    }
+
+    /**
+     * Appends one <code>username:password</code> line, without line separator.
+     *
+     * @param builder  target
+     * @param username username
+     * @param password password or hash
+     */
+    static void appendLine(final StringBuilder builder, final String username, final String password) {
+        appendEscaped(builder, username, true);
+        builder.append(SEPARATOR);
+        appendEscaped(builder, password, false);
+    }
+
+    /**
+     * Appends an escaped username.
+     *
+     * @param builder  target
+     * @param username username
+     */
+    static void appendKey(final StringBuilder builder, final String username) {
+        appendEscaped(builder, username, true);
+    }
+
+    /**
+     * Escapes backslashes, control and non-ASCII characters.
+     * Keys additionally get their separators and comment characters escaped,
+     * values their list delimiter, so commons-configuration does not split them.
+     */
+    private static void appendEscaped(final StringBuilder builder, final String string, final boolean key) {
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\f':
+                    builder.append("\\f");
+                    break;
+                case ' ':
+                    if (key || i == 0) {
+                        builder.append('\\');
+                    }
+                    builder.append(c);
+                    break;
+                case ':':
+                case '=':
+                case '#':
+                case '!':
+                    if (key) {
+                        builder.append('\\');
+                    }
+                    builder.append(c);
+                    break;
+                case ',':
+                    if (!key) {
+                        builder.append('\\');
+                    }
+                    builder.append(c);
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        builder.append("\\u").append(String.format("%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Resolves backslash escapes of the properties format.
+     *
+     * @param escaped escaped key or value
+     * @return unescaped string
+     */
+    static String unescape(final String escaped) {
+        if (escaped.indexOf('\\') < 0) {
+            return escaped;
+        }
+        final StringBuilder builder = new StringBuilder(escaped.length());
+        for (int i = 0; i < escaped.length(); i++) {
+            char c = escaped.charAt(i);
+            if (c != '\\' || i == escaped.length() - 1) {
+                builder.append(c);
+                continue;
+            }
+            c = escaped.charAt(++i);
+            switch (c) {
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 < escaped.length()) {
+                        builder.append((char) Integer.parseInt(escaped.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    } else {
+                        builder.append(c);
+                    }
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param line  logical line
+     * @param start index of the first character of the key
+     * @return index after the last character of the key
+     */
+    static int keyEnd(final String line, final int start) {
+        int keyEnd = start;
+        boolean escaped = false;
+        while (keyEnd < line.length()) {
+            final char c = line.charAt(keyEnd);
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '=' || c == ':' || isWhitespace(c)) {
+                break;
+            }
+            keyEnd++;
+        }
+        return keyEnd;
+    }
+
+    /**
+     * @param line   logical line
+     * @param keyEnd index after the last character of the key
+     * @return index of the first character of the value
+     */
+    static int valueStart(final String line, final int keyEnd) {
+        int valueStart = skipWhitespace(line, keyEnd);
+        if (valueStart < line.length() && (line.charAt(valueStart) == '=' || line.charAt(valueStart) == ':')) {
+            valueStart = skipWhitespace(line, valueStart + 1);
+        }
+        return valueStart;
+    }
+
+    /**
+     * @return true, if the line ends with an unescaped backslash and continues on the next line
+     */
+    static boolean endsWithContinuation(final String line) {
+        int backslashes = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+
+    static int skipWhitespace(final String line, int index) {
+        while (index < line.length() && isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t' || c == '\f';
+    }
+
+    /**
+     * Appends <code>username:password</code> lines to the end of the file and syncs it to disk,
+     * a missing line separator at the end of the file is added first.
+     *
+     * @param file  credential file
+     * @param users usernames mapped to their passwords
+     * @throws IOException is thrown if the file cannot be written
+     */
+    static void append(final File file, final Map<String, String> users) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final StringBuilder builder = new StringBuilder();
+            final long size = channel.size();
+            if (size > 0) {
+                final ByteBuffer last = ByteBuffer.allocate(1);
+                channel.read(last, size - 1);
+                if (last.get(0) != LINE_SEPARATOR) {
+                    builder.append(LINE_SEPARATOR);
+                }
+            }
+            for (Map.Entry<String, String> user : users.entrySet()) {
+                appendLine(builder, user.getKey(), user.getValue());
+                builder.append(LINE_SEPARATOR);
+            }
+
+            final ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(Charsets.ISO_8859_1));
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(true);
+        }
+    }
+}
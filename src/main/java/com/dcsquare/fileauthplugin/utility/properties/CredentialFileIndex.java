@@ -0,0 +1,311 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar index of a credential file, stored next to it as <code>credentials.properties.index</code>.
+ * <p/>
+ * Holds a Bloom filter over the usernames and a table of <code>(hash, offset)</code> entries sorted by the
+ * {@link String#hashCode()} of the username, where the offset points to the line of the user in the credential file.
+ * The index is memory-mapped, so a lookup touches the Bloom filter, a few pages of the table for the binary search
+ * and the line itself, no matter how large the credential file is.
+ * <p/>
+ * The index covers the credential file up to a length. It records identity and modification time of the file it was
+ * built from, a file changed since is only accepted if the checksum of the whole covered part still matches, so
+ * appending users keeps the index valid and any other change rebuilds it.
+ */
+final class CredentialFileIndex {
+
+    private static final int MAGIC = 0x43524958;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48;
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int NOT_FOUND = -1;
+
+    private final ByteBuffer buffer;
+    private final long coveredLength;
+    private final int entries;
+    private final long bloomBits;
+    private final int tableStart;
+
+    private CredentialFileIndex(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        coveredLength = buffer.getLong(8);
+        entries = buffer.getInt(24);
+        final int bloomWords = buffer.getInt(32);
+        bloomBits = bloomWords * 64L;
+        tableStart = HEADER_SIZE + bloomWords * 8;
+    }
+
+    /**
+     * @param credentialFile credential file
+     * @return index file of the credential file
+     */
+    static File indexFile(final File credentialFile) {
+        return new File(credentialFile.getParentFile(), credentialFile.getName() + ".index");
+    }
+
+    /**
+     * Opens an existing index.
+     *
+     * @param indexFile   index file
+     * @param credentials mapping of the credential file
+     * @param state       state of the credential file, taken before it was mapped
+     * @return the index, <code>null</code> if there is none or it doesn't match the credential file
+     * @throws IOException is thrown if the index cannot be mapped
+     */
+    static CredentialFileIndex open(final File indexFile, final ByteBuffer credentials, final FileState state) throws IOException {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE) {
+            return null;
+        }
+        final MappedByteBuffer buffer = MappedLines.map(indexFile);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        final CredentialFileIndex index = new CredentialFileIndex(buffer);
+        if (index.coveredLength > credentials.limit() || buffer.limit() != index.tableStart + index.entries * 8L) {
+            return null;
+        }
+        final boolean untouched = state.getFileKey() != null && buffer.getInt(36) == state.getFileKey().hashCode()
+                && buffer.getLong(40) == state.getLastModified() && index.coveredLength == credentials.limit();
+        if (!untouched && buffer.getLong(16) != checksum(credentials, (int) index.coveredLength)) {
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Indexes the whole credential file and writes the index atomically.
+     *
+     * @param indexFile   index file
+     * @param credentials mapping of the credential file
+     * @param state       state of the credential file, taken before it was mapped
+     * @return the new index
+     * @throws IOException is thrown if the index cannot be written
+     */
+    static CredentialFileIndex build(final File indexFile, final ByteBuffer credentials, final FileState state) throws IOException {
+        long[] table = new long[Math.max(16, credentials.limit() / 64)];
+        int size = 0;
+        final MappedLines.Line line = new MappedLines.Line();
+        int position = 0;
+        while (position < credentials.limit()) {
+            position = MappedLines.readLine(credentials, position, line);
+            if (!line.entry) {
+                continue;
+            }
+            final int hash = line.escaped ? MappedLines.escapedKey(credentials, line.keyStart).hashCode() : line.hash;
+            if (size == table.length) {
+                table = Arrays.copyOf(table, size * 2);
+            }
+            table[size++] = entry(hash, line.keyStart);
+        }
+        Arrays.sort(table, 0, size);
+        size = removeDuplicates(table, size, credentials);
+
+        final long[] bloom = new long[Math.max(1, (int) ((size * (long) BITS_PER_ENTRY + 63) / 64))];
+        for (int i = 0; i < size; i++) {
+            final long bloomHash = bloomHash(hashOf(table[i]));
+            for (int k = 1; k <= BLOOM_HASHES; k++) {
+                final long bit = bloomBit(bloomHash, k, bloom.length * 64L);
+                bloom[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        try (AtomicFileOutputStream atomicOut = new AtomicFileOutputStream(indexFile)) {
+            final DataOutputStream out = new DataOutputStream(atomicOut);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(credentials.limit());
+            out.writeLong(checksum(credentials, credentials.limit()));
+            out.writeInt(size);
+            out.writeInt(BLOOM_HASHES);
+            out.writeInt(bloom.length);
+            out.writeInt(state.getFileKey() == null ? 0 : state.getFileKey().hashCode());
+            out.writeLong(state.getLastModified());
+            for (long word : bloom) {
+                out.writeLong(word);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeLong(table[i]);
+            }
+            out.flush();
+            atomicOut.commit();
+        }
+        return new CredentialFileIndex(MappedLines.map(indexFile));
+    }
+
+    /**
+     * @return length of the credential file covered by the index
+     */
+    long getCoveredLength() {
+        return coveredLength;
+    }
+
+    /**
+     * @return amount of indexed users
+     */
+    int size() {
+        return entries;
+    }
+
+    /**
+     * @return offset of the line of the i-th entry in the credential file
+     */
+    int offsetAt(final int i) {
+        return offsetOf(buffer.getLong(tableStart + i * 8));
+    }
+
+    /**
+     * Looks up the line of a user.
+     *
+     * @param credentials mapping of the credential file
+     * @param username    username
+     * @return offset of the line of the user, -1 if the user isn't indexed
+     */
+    int find(final ByteBuffer credentials, final String username) {
+        final int hash = username.hashCode();
+        if (!mightContain(hash)) {
+            return NOT_FOUND;
+        }
+        int low = 0;
+        int high = entries;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (hashOf(buffer.getLong(tableStart + middle * 8)) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < entries; i++) {
+            final long entry = buffer.getLong(tableStart + i * 8);
+            if (hashOf(entry) != hash) {
+                break;
+            }
+            if (MappedLines.keyMatches(credentials, offsetOf(entry), username)) {
+                return offsetOf(entry);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private boolean mightContain(final int hash) {
+        final long bloomHash = bloomHash(hash);
+        for (int k = 1; k <= BLOOM_HASHES; k++) {
+            final long bit = bloomBit(bloomHash, k, bloomBits);
+            if ((buffer.getLong(HEADER_SIZE + (int) (bit >>> 6) * 8) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all but the last line of users, which appear more than once like the properties format does.
+     *
+     * @return new size of the table
+     */
+    private static int removeDuplicates(final long[] table, final int size, final ByteBuffer credentials) {
+        int written = 0;
+        int groupStart = 0;
+        while (groupStart < size) {
+            int groupEnd = groupStart + 1;
+            while (groupEnd < size && hashOf(table[groupEnd]) == hashOf(table[groupStart])) {
+                groupEnd++;
+            }
+            if (groupEnd - groupStart == 1) {
+                table[written++] = table[groupStart];
+            } else {
+                //same hash, entries are ordered by offset, so later lines overwrite earlier ones
+                final Map<String, Long> lastLines = new LinkedHashMap<>();
+                for (int i = groupStart; i < groupEnd; i++) {
+                    final String key = MappedLines.key(credentials, offsetOf(table[i]));
+                    lastLines.remove(key);
+                    lastLines.put(key, table[i]);
+                }
+                final long[] group = new long[lastLines.size()];
+                int i = 0;
+                for (long entry : lastLines.values()) {
+                    group[i++] = entry;
+                }
+                Arrays.sort(group);
+                for (long entry : group) {
+                    table[written++] = entry;
+                }
+            }
+            groupStart = groupEnd;
+        }
+        return written;
+    }
+
+    private static long entry(final int hash, final int offset) {
+        return ((long) hash << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int hashOf(final long entry) {
+        return (int) (entry >> 32);
+    }
+
+    private static int offsetOf(final long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Spreads the 32 bit hash over 64 bits, the Bloom filter derives its hash functions from both halves.
+     */
+    private static long bloomHash(final int hash) {
+        long h = hash & 0xffffffffL;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long bloomBit(final long bloomHash, final int k, final long bits) {
+        final long combined = (int) bloomHash + k * (long) (int) (bloomHash >>> 32);
+        return (combined & Long.MAX_VALUE) % bits;
+    }
+
+    private static long checksum(final ByteBuffer credentials, final int length) {
+        final CRC32 crc = new CRC32();
+        final byte[] bytes = new byte[Math.min(length, 64 * 1024)];
+        final ByteBuffer source = credentials.duplicate();
+        source.position(0);
+        source.limit(length);
+        while (source.hasRemaining()) {
+            final int count = Math.min(bytes.length, source.remaining());
+            source.get(bytes, 0, count);
+            crc.update(bytes, 0, count);
+        }
+        return crc.getValue() ^ ((long) length << 32);
+    }
+}
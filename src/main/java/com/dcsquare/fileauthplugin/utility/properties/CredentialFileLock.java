@@ -0,0 +1,145 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.util.concurrent.Striped;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Exclusive lock for changing a credential file, held by one writer of all processes and threads at a time.
+ * <p/>
+ * The credential file itself is replaced on every save, so the lock is taken on a file next to it, e.g.
+ * <code>credentials.properties.lock</code>. The lock file also holds a version, which every writer increments, so
+ * other writers notice a change even if it happened within the resolution of the file modification time.
+ * {@link FileLock}s only exclude other processes, threads of this JVM are excluded by an additional in-memory lock.
+ */
+class CredentialFileLock implements Closeable {
+
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final int VERSION_SIZE = 8;
+
+    private static final Striped<Lock> LOCAL_LOCKS = Striped.lock(64);
+
+    private final Lock localLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    private CredentialFileLock(final Lock localLock, final FileChannel channel, final FileLock fileLock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * Waits until the lock of the credential file is free and takes it.
+     *
+     * @param file credential file
+     * @return the held lock, must be closed
+     * @throws IOException is thrown if the lock file cannot be created or locked
+     */
+    static CredentialFileLock acquire(final File file) throws IOException {
+        final File lockFile = lockFile(file);
+        final Lock localLock = LOCAL_LOCKS.get(lockFile.getCanonicalPath());
+        localLock.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new CredentialFileLock(localLock, channel, channel.lock());
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * @param file credential file
+     * @return the lock file next to the credential file
+     */
+    static File lockFile(final File file) {
+        return new File(file.getPath() + LOCK_SUFFIX);
+    }
+
+    /**
+     * Reads the version without taking the lock.
+     *
+     * @param file credential file
+     * @return version of the last save, 0 if the file was never saved with a lock
+     */
+    static long readVersion(final File file) {
+        final File lockFile = lockFile(file);
+        if (lockFile.length() < VERSION_SIZE) {
+            return 0;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(lockFile, "r")) {
+            return randomAccessFile.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return version of the last save
+     * @throws IOException is thrown if the lock file cannot be read
+     */
+    long getVersion() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(VERSION_SIZE);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            //read until full or end of file
+        }
+        return buffer.hasRemaining() ? 0 : buffer.getLong(0);
+    }
+
+    /**
+     * Marks a save of the credential file.
+     *
+     * @throws IOException is thrown if the lock file cannot be written
+     */
+    void incrementVersion() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(VERSION_SIZE);
+        buffer.putLong(0, getVersion() + 1);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            try {
+                fileLock.release();
+            } finally {
+                channel.close();
+            }
+        } finally {
+            localLock.unlock();
+        }
+    }
+}
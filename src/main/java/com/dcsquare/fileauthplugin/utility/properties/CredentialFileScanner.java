@@ -0,0 +1,135 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Streams the entries of a credential file without loading the whole file.
+ * <p/>
+ * Lines are parsed with the rules of the properties format: comments, continuation lines,
+ * the separators <code>=</code>, <code>:</code> and whitespace and backslash escapes.
+ * Passwords are only unescaped when they are requested.
+ * <pre>
+ * try (CredentialFileScanner scanner = new CredentialFileScanner(file)) {
+ *     while (scanner.next()) {
+ *         scanner.getUsername();
+ *     }
+ * }
+ * </pre>
+ */
+public class CredentialFileScanner implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private String username;
+    private String rawPassword;
+    private String password;
+
+    public CredentialFileScanner(final File file) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.ISO_8859_1), BUFFER_SIZE);
+    }
+
+    /**
+     * Scans only a part of the file, e.g. lines appended to it since it was read.
+     *
+     * @param file   credential file
+     * @param offset start of the first line
+     * @param length amount of bytes to scan
+     * @throws IOException is thrown if the file cannot be read
+     */
+    CredentialFileScanner(final File file, final long offset, final long length) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        reader = new BufferedReader(new InputStreamReader(ByteStreams.limit(in, length), Charsets.ISO_8859_1), BUFFER_SIZE);
+    }
+
+    /**
+     * Advances to the next entry.
+     *
+     * @return true, if there is another entry, false if the end of the file is reached
+     * @throws IOException is thrown if the file cannot be read
+     */
+    public boolean next() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int start = CredentialFileFormat.skipWhitespace(line, 0);
+            if (start == line.length() || line.charAt(start) == '#' || line.charAt(start) == '!') {
+                continue;
+            }
+            while (CredentialFileFormat.endsWithContinuation(line)) {
+                final String nextLine = reader.readLine();
+                line = line.substring(0, line.length() - 1);
+                if (nextLine == null) {
+                    break;
+                }
+                line = line + nextLine.substring(CredentialFileFormat.skipWhitespace(nextLine, 0));
+            }
+            parse(line, start);
+            return true;
+        }
+        username = null;
+        rawPassword = null;
+        password = null;
+        return false;
+    }
+
+    /**
+     * @return username of the current entry
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return password or hash of the current entry
+     */
+    public String getPassword() {
+        if (password == null && rawPassword != null) {
+            password = CredentialFileFormat.unescape(rawPassword);
+        }
+        return password;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void parse(final String line, final int start) {
+        final int keyEnd = CredentialFileFormat.keyEnd(line, start);
+        username = CredentialFileFormat.unescape(line.substring(start, keyEnd));
+        rawPassword = line.substring(CredentialFileFormat.valueStart(line, keyEnd));
+        password = null;
+    }
+}
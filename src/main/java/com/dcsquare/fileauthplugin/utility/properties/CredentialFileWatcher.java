@@ -0,0 +1,106 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the credential files and their journals for changes of other processes.
+ * <p/>
+ * Files are replaced on save, so the directories are watched and the events are filtered by file name. An event only
+ * marks the files as changed, the changes are taken over by the thread which uses the {@link CredentialProperties},
+ * so their state never changes in the middle of an operation.
+ */
+class CredentialFileWatcher implements Closeable {
+
+    private final WatchService watchService;
+    private final Set<Path> watchedFiles = new HashSet<>();
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    CredentialFileWatcher(final List<File> files) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        final Set<Path> directories = new HashSet<>();
+        try {
+            for (File file : files) {
+                final Path path = file.getAbsoluteFile().toPath();
+                watchedFiles.add(path);
+                watchedFiles.add(CredentialJournal.journalFile(file).getAbsoluteFile().toPath());
+                if (directories.add(path.getParent())) {
+                    path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "credential-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true, if a file changed since the last call
+     */
+    boolean pollChanged() {
+        return changed.getAndSet(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                final Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || watchedFiles.contains(directory.resolve((Path) event.context()))) {
+                        changed.set(true);
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            //stopped by close()
+        }
+    }
+}
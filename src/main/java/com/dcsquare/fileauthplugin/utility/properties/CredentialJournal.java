@@ -0,0 +1,333 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of the changes of a credential file, stored next to it as <code>credentials.properties.journal</code>.
+ * <p/>
+ * Every change is one line with an increasing sequence number:
+ * <pre>
+ * #sequence 41
+ * 42 + user:hash
+ * 43 - otheruser
+ * </pre>
+ * Usernames and hashes are escaped like in the credential file. The header holds the sequence of the last change,
+ * which was merged into the credential file before the journal was reset. Other nodes can follow the changes with
+ * {@link #read(File, long)}.
+ */
+public class CredentialJournal {
+
+    private static final String HEADER = "#sequence ";
+    private static final String ADD = " + ";
+    private static final String DELETE = " - ";
+
+    private final File file;
+    private long sequence;
+    private long size;
+
+    /**
+     * Opens the journal, a missing journal is created empty.
+     *
+     * @param file journal file
+     * @throws IOException is thrown if the journal cannot be created
+     */
+    CredentialJournal(final File file) throws IOException {
+        this.file = file;
+        if (!file.exists()) {
+            reset(0);
+        }
+        size = file.length();
+    }
+
+    /**
+     * @param credentialFile credential file
+     * @return journal file of the credential file
+     */
+    public static File journalFile(final File credentialFile) {
+        return new File(credentialFile.getParentFile(), credentialFile.getName() + ".journal");
+    }
+
+    /**
+     * Reads the changes after the given sequence.
+     *
+     * @param file          journal file
+     * @param afterSequence sequence of the last change already known, 0 for all changes in the journal
+     * @return changes in the order they were made, <code>null</code> if the journal was reset after
+     *         <code>afterSequence</code>, so the credential file has to be read again
+     * @throws IOException is thrown if the journal cannot be read
+     */
+    public static List<Change> read(final File file, final long afterSequence) throws IOException {
+        final List<Change> changes = new ArrayList<>();
+        final long compacted = read(file, changes, validBytes(file));
+        if (afterSequence < compacted) {
+            return null;
+        }
+        final List<Change> newer = new ArrayList<>();
+        for (Change change : changes) {
+            if (change.getSequence() > afterSequence) {
+                newer.add(change);
+            }
+        }
+        return newer;
+    }
+
+    /**
+     * Reads the changes, which are not merged into the credential file yet.
+     *
+     * @param file journal file
+     * @return changes in the order they were made
+     * @throws IOException is thrown if the journal cannot be read
+     */
+    static List<Change> readPending(final File file) throws IOException {
+        final List<Change> changes = new ArrayList<>();
+        read(file, changes, validBytes(file));
+        return changes;
+    }
+
+    /**
+     * Reads all changes of the journal and cuts off a partially written change at the end, which is left by a crash.
+     *
+     * @return changes in the order they were made
+     * @throws IOException is thrown if the journal cannot be read or repaired
+     */
+    List<Change> replay() throws IOException {
+        final List<Change> changes = new ArrayList<>();
+        final long validLength = validBytes(file);
+        sequence = read(file, changes, validLength);
+        if (!changes.isEmpty()) {
+            sequence = changes.get(changes.size() - 1).getSequence();
+        }
+        if (validLength < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        size = validLength;
+        return changes;
+    }
+
+    /**
+     * Appends the changes and syncs them to disk. If the write fails, the journal is cut back to its previous size.
+     *
+     * @param mutations usernames mapped to their new password, <code>null</code> for deleted users
+     * @throws IOException is thrown if the journal cannot be written
+     */
+    void append(final Map<String, String> mutations) throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        long next = sequence;
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            builder.append(++next);
+            if (mutation.getValue() == null) {
+                builder.append(DELETE);
+                CredentialFileFormat.appendKey(builder, mutation.getKey());
+            } else {
+                builder.append(ADD);
+                CredentialFileFormat.appendLine(builder, mutation.getKey(), mutation.getValue());
+            }
+            builder.append(CredentialFileFormat.LINE_SEPARATOR);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(Charsets.ISO_8859_1));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            try {
+                long position = size;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                channel.force(true);
+            } catch (IOException e) {
+                channel.truncate(size);
+                throw e;
+            }
+        }
+        size += buffer.capacity();
+        sequence = next;
+    }
+
+    /**
+     * Empties the journal after its changes were merged into the credential file, the sequence is kept.
+     *
+     * @throws IOException is thrown if the journal cannot be written
+     */
+    void reset() throws IOException {
+        reset(sequence);
+        size = file.length();
+    }
+
+    /**
+     * Reads the changes, which other processes appended since this journal was opened or written.
+     *
+     * @return changes in the order they were made, <code>null</code> if the journal was reset meanwhile
+     * @throws IOException is thrown if the journal cannot be read
+     */
+    List<Change> readAppended() throws IOException {
+        if (file.length() == size) {
+            return Collections.emptyList();
+        }
+        final List<Change> changes = read(file, sequence);
+        if (changes == null) {
+            return null;
+        }
+        if (!changes.isEmpty()) {
+            sequence = changes.get(changes.size() - 1).getSequence();
+        }
+        size = validBytes(file);
+        return changes;
+    }
+
+    /**
+     * @return size of the journal in bytes
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return sequence of the last change
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    private void reset(final long compactedSequence) throws IOException {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+            final Writer writer = new OutputStreamWriter(out, Charsets.ISO_8859_1);
+            writer.write(HEADER + compactedSequence + CredentialFileFormat.LINE_SEPARATOR);
+            writer.flush();
+            out.commit();
+        }
+    }
+
+    /**
+     * Reads the complete lines up to <code>validLength</code>.
+     *
+     * @return sequence of the header
+     */
+    private static long read(final File file, final List<Change> changes, final long validLength) throws IOException {
+        long compacted = 0;
+        long position = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.ISO_8859_1))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                position += line.length() + 1;
+                if (position > validLength) {
+                    break;
+                }
+                if (line.startsWith(HEADER)) {
+                    compacted = Long.parseLong(line.substring(HEADER.length()).trim());
+                } else if (!line.isEmpty()) {
+                    changes.add(parse(line));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid journal " + file.getAbsolutePath(), e);
+        }
+        return compacted;
+    }
+
+    private static Change parse(final String line) throws IOException {
+        final int space = line.indexOf(' ');
+        if (space < 0 || line.length() < space + 3) {
+            throw new IOException("Invalid journal line " + line);
+        }
+        final long sequence = Long.parseLong(line.substring(0, space));
+        final String record = line.substring(space + 3);
+        if (line.startsWith(DELETE, space)) {
+            return new Change(sequence, CredentialFileFormat.unescape(record), null);
+        }
+        if (!line.startsWith(ADD, space)) {
+            throw new IOException("Invalid journal line " + line);
+        }
+        final int keyEnd = CredentialFileFormat.keyEnd(record, 0);
+        return new Change(sequence, CredentialFileFormat.unescape(record.substring(0, keyEnd)),
+                CredentialFileFormat.unescape(record.substring(CredentialFileFormat.valueStart(record, keyEnd))));
+    }
+
+    /**
+     * @return length of the journal up to and including the last line separator
+     */
+    private static long validBytes(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long end = channel.size();
+            while (end > 0) {
+                final long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                channel.read(buffer, start);
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == CredentialFileFormat.LINE_SEPARATOR) {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * One change of the journal.
+     */
+    public static class Change {
+
+        private final long sequence;
+        private final String username;
+        private final String password;
+
+        Change(final long sequence, final String username, final String password) {
+            this.sequence = sequence;
+            this.username = username;
+            this.password = password;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * @return new password or hash, <code>null</code> if the user was deleted
+         */
+        public String getPassword() {
+            return password;
+        }
+    }
+}
@@ -18,21 +18,66 @@
 
 package com.dcsquare.fileauthplugin.utility.properties;
 
+import com.dcsquare.fileauthplugin.utility.metrics.Metrics;
+import com.dcsquare.fileauthplugin.utility.metrics.Timer;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.configuration.ConfigurationException;
-import org.apache.commons.configuration.PropertiesConfiguration;
-import org.apache.commons.configuration.PropertiesConfigurationLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class contains all methods, which operate with the credential file.
+ * <p/>
+ * Several processes can change the same credential file. Changes are saved while holding the
+ * {@link CredentialFileLock} of the file. If another process saved the file since it was loaded, it is loaded again
+ * and only the changes of this instance are applied to it, so the changes of the other process are kept. For a user
+ * changed by both, the later save wins.
+ * <p/>
+ * With {@link #watch()} changes of other processes are also taken over before reading users. Only the changed files
+ * are read again, and engines which can tell appended lines apart only read those.
  *
  * @author Christian Goetz
  */
-public class CredentialProperties {
+public class CredentialProperties implements Closeable {
 
-    private PropertiesConfiguration propertiesConfiguration;
+    private static final Logger LOG = LoggerFactory.getLogger(CredentialProperties.class);
+
+    private static final int LIST_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(Charsets.UTF_8);
+
+    private final File file;
+    private final StorageEngine storageEngine;
+    private final CompactionPolicy compactionPolicy;
+    private final List<File> files;
+    private CredentialStorage storage;
+    private CredentialFileWatcher watcher;
+
+    /**
+     * version and modification times of the files, when they were loaded or saved by this instance
+     */
+    private long[] loadedFingerprint;
 
 
     /**
@@ -42,13 +87,167 @@ public class CredentialProperties {
      * @throws ConfigurationException is thrown if an error is encountered during loading of the file
      */
     public CredentialProperties(String filename) throws ConfigurationException {
-        propertiesConfiguration = new PropertiesConfiguration();
+        this(filename, StorageEngine.PROPERTIES);
+    }
+
+    /**
+     * Initialize credential file with the given storage engine
+     *
+     * @param filename      credential file name
+     * @param storageEngine engine which loads and saves the file
+     * @throws ConfigurationException is thrown if an error is encountered during loading of the file
+     */
+    public CredentialProperties(String filename, StorageEngine storageEngine) throws ConfigurationException {
+        this(filename, storageEngine, 1);
+    }
+
+    /**
+     * Initialize credential file with the given storage engine, spread over shard files
+     *
+     * @param filename      credential file name
+     * @param storageEngine engine which loads and saves the file or each shard
+     * @param shards        amount of shard files, 1 for a single credential file
+     * @throws ConfigurationException is thrown if an error is encountered during loading of the file
+     */
+    public CredentialProperties(String filename, StorageEngine storageEngine, int shards) throws ConfigurationException {
+        this(filename, storageEngine, shards, null);
+    }
+
+    /**
+     * Initialize credential file with the given storage engine, spread over shard files
+     *
+     * @param filename         credential file name
+     * @param storageEngine    engine which loads and saves the file or each shard
+     * @param shards           amount of shard files, 1 for a single credential file
+     * @param compactionPolicy <code>null</code> to save every change in the credential file, otherwise changes are
+     *                         appended to a journal next to each file and merged into it with this policy
+     * @throws ConfigurationException is thrown if an error is encountered during loading of the file, or if the users
+     *                                are already spread over another amount of shards
+     */
+    public CredentialProperties(String filename, StorageEngine storageEngine, int shards, CompactionPolicy compactionPolicy) throws ConfigurationException {
+        file = new File(filename);
+        final int existingShards = ShardedCredentialStorage.existingShards(file);
+        if (existingShards > 1 && existingShards != shards) {
+            throw new ConfigurationException("The users of " + file.getAbsolutePath() + " are spread over " + existingShards
+                    + " shards, but " + shards + " are configured. Set credentialStorage.shards to " + existingShards);
+        }
+        this.storageEngine = storageEngine;
+        this.compactionPolicy = compactionPolicy;
+        files = shards > 1 ? ShardedCredentialStorage.shardFiles(file, shards) : Collections.singletonList(file);
+        load();
+    }
+
+    @SuppressWarnings("try")
+    private void load() throws ConfigurationException {
+        //taken before loading, a save during the load is noticed as change
+        loadedFingerprint = fingerprint();
+        try (Timer.Context ignored = Metrics.timer("storage.load").time()) {
+            if (files.size() > 1) {
+                storage = new ShardedCredentialStorage(storageEngine, file, files, compactionPolicy);
+            } else {
+                storage = storageEngine.open(file, compactionPolicy);
+            }
+        }
+    }
+
+    /**
+     * Loads the credential file again, if another process saved it since it was loaded.
+     *
+     * @return true, if the file was loaded again
+     * @throws ConfigurationException is thrown if the file cannot be loaded
+     */
+    public boolean refresh() throws ConfigurationException {
+        final long[] fingerprint = fingerprint();
+        if (Arrays.equals(loadedFingerprint, fingerprint)) {
+            return false;
+        }
+        if (reloadChanges(fingerprint)) {
+            loadedFingerprint = fingerprint;
+            Metrics.counter("storage.incrementalReloads").inc();
+        } else {
+            load();
+            Metrics.counter("storage.reloads").inc();
+        }
+        return true;
+    }
+
+    /**
+     * Takes over the changes of the files, whose part of the fingerprint changed, without loading the others again.
+     * A new version with unchanged modification times can be a save within their resolution, then every engine
+     * checks its file itself.
+     *
+     * @return false, if all files have to be loaded again
+     */
+    private boolean reloadChanges(final long[] fingerprint) throws ConfigurationException {
+        final boolean versionChanged = loadedFingerprint[0] != fingerprint[0];
+        for (int i = 0; i < files.size(); i++) {
+            final int from = 1 + i * 4;
+            if (!versionChanged && Arrays.equals(Arrays.copyOfRange(loadedFingerprint, from, from + 4), Arrays.copyOfRange(fingerprint, from, from + 4))) {
+                continue;
+            }
+            if (storage instanceof ShardedCredentialStorage) {
+                ((ShardedCredentialStorage) storage).reloadShard(i);
+            } else if (!storage.reloadChanges()) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        PropertiesConfigurationLayout propertiesConfigurationLayout = new PropertiesConfigurationLayout(propertiesConfiguration);
-        propertiesConfigurationLayout.setGlobalSeparator(":");
-        propertiesConfiguration.setFile(new File(filename));
-        propertiesConfiguration.load();
+    /**
+     * Watches the credential files, changes of other processes are taken over before users are read the next time.
+     *
+     * @throws IOException is thrown if the files cannot be watched
+     */
+    public void watch() throws IOException {
+        if (watcher == null) {
+            watcher = new CredentialFileWatcher(files);
+        }
+    }
 
+    /**
+     * Stops watching the credential files.
+     *
+     * @throws IOException is thrown if the watch cannot be stopped
+     */
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Takes over the changes of other processes, if the watched files changed.
+     */
+    private void refreshIfChanged() {
+        if (watcher == null || !watcher.pollChanged()) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (ConfigurationException e) {
+            LOG.warn("Could not load the changes of " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Detects changes of the files with the version of the lock file, which is incremented by every save with a lock,
+     * and with the modification time and length of the credential files and their journals for other writers.
+     */
+    private long[] fingerprint() {
+        final long[] fingerprint = new long[1 + files.size() * 4];
+        fingerprint[0] = CredentialFileLock.readVersion(file);
+        int i = 1;
+        for (File credentialFile : files) {
+            final File journalFile = CredentialJournal.journalFile(credentialFile);
+            fingerprint[i++] = credentialFile.lastModified();
+            fingerprint[i++] = credentialFile.length();
+            fingerprint[i++] = journalFile.lastModified();
+            fingerprint[i++] = journalFile.length();
+        }
+        return fingerprint;
     }
 
     /**
@@ -60,15 +259,29 @@ public class CredentialProperties {
      * @throws ConfigurationException is thrown if there is a problem during save
      */
     public boolean addUser(String username, String password) throws ConfigurationException {
-        if (!propertiesConfiguration.containsKey(username)) {
-            propertiesConfiguration.addProperty(username, password);
-            propertiesConfiguration.save();
-            return true;
+        refresh();
+        if (!storage.contains(username)) {
+            return commit(ImmutableMap.of(username, password), ImmutableMap.of(username, false)).isEmpty();
         } else {
             return false;
         }
     }
 
+    /**
+     * Adds all given users and saves the credential file only once.
+     *
+     * @param users usernames mapped to the passwords, which should be set
+     * @return amount of users added, users which already exist are skipped
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    public int addUsers(Map<String, String> users) throws ConfigurationException {
+        final CredentialBatch batch = new CredentialBatch(this);
+        for (Map.Entry<String, String> user : users.entrySet()) {
+            batch.addUser(user.getKey(), user.getValue());
+        }
+        return batch.commit();
+    }
+
     /**
      * Updates the user username with given password
      *
@@ -78,10 +291,9 @@ public class CredentialProperties {
      * @throws ConfigurationException is thrown if there is a problem during save
      */
     public boolean updateUser(String username, String newPassword) throws ConfigurationException {
-        if (propertiesConfiguration.containsKey(username)) {
-            propertiesConfiguration.setProperty(username, newPassword);
-            propertiesConfiguration.save();
-            return true;
+        refresh();
+        if (storage.contains(username)) {
+            return commit(ImmutableMap.of(username, newPassword), ImmutableMap.of(username, true)).isEmpty();
         } else {
             return false;
         }
@@ -95,22 +307,189 @@ public class CredentialProperties {
      * @throws ConfigurationException is thrown if there is a problem during save
      */
     public boolean deleteUser(String username) throws ConfigurationException {
-        if (propertiesConfiguration.containsKey(username)) {
-            propertiesConfiguration.clearProperty(username);
-            propertiesConfiguration.save();
-            return true;
+        refresh();
+        if (storage.contains(username)) {
+            return commit(Collections.<String, String>singletonMap(username, null), ImmutableMap.of(username, true)).isEmpty();
         } else {
             return false;
         }
     }
 
+    /**
+     * @param username username
+     * @return true, if the user exists in the credential file
+     */
+    public boolean containsUser(String username) {
+        refreshIfChanged();
+        return storage.contains(username);
+    }
+
+    /**
+     * @param username username
+     * @return the password entry of the user, <code>null</code> if the user doesn't exist
+     */
+    public String getPassword(String username) {
+        refreshIfChanged();
+        return storage.get(username);
+    }
+
+    /**
+     * @return the credential file, or the shard files if the users are spread over shards
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Applies the changes of a {@link CredentialBatch} and saves the credential file once.
+     *
+     * @param mutations usernames mapped to their new password, a <code>null</code> password deletes the user
+     * @param expected  usernames mapped to whether the user existed when the change was made
+     * @return usernames whose changes were not saved, because another writer added or deleted the user meanwhile
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    Set<String> apply(Map<String, String> mutations, Map<String, Boolean> expected) throws ConfigurationException {
+        return commit(mutations, expected);
+    }
+
+    /**
+     * Reads the users of a credential file without opening it with a storage engine, so no file is created, split
+     * into shards or compacted. The credential file or the shard files its users are spread over are scanned and the
+     * changes of their journals are applied.
+     *
+     * @param file      credential file
+     * @param journaled true, if changes are appended to a journal next to each file
+     * @return usernames mapped to their entries
+     * @throws IOException is thrown if a file cannot be read
+     */
+    public static Map<String, String> read(final File file, final boolean journaled) throws IOException {
+        final int shards;
+        try {
+            shards = ShardedCredentialStorage.existingShards(file);
+        } catch (ConfigurationException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        final Map<String, String> users = new HashMap<>();
+        for (File shardFile : shards > 1 ? ShardedCredentialStorage.shardFiles(file, shards) : Collections.singletonList(file)) {
+            try (CredentialFileScanner scanner = new CredentialFileScanner(shardFile)) {
+                while (scanner.next()) {
+                    users.put(scanner.getUsername(), scanner.getPassword());
+                }
+            }
+            final File journalFile = CredentialJournal.journalFile(shardFile);
+            if (journaled && journalFile.isFile()) {
+                for (CredentialJournal.Change change : CredentialJournal.readPending(journalFile)) {
+                    if (change.getPassword() == null) {
+                        users.remove(change.getUsername());
+                    } else {
+                        users.put(change.getUsername(), change.getPassword());
+                    }
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Computes the changes, which turn this credential file into the given one. The other file is loaded once,
+     * including the changes of its journal, and compared user by user with the users held in memory.
+     *
+     * @param source other credential file, e.g. the one of another broker node
+     * @return per-user differences
+     * @throws IOException is thrown if the other file or its journal cannot be read
+     */
+    public CredentialDelta diff(File source) throws IOException {
+        refreshIfChanged();
+        final CompactUserMap sourceUsers = new CompactUserMap((int) Math.min(Integer.MAX_VALUE / 4, source.length() / 64));
+        try (CredentialFileScanner scanner = new CredentialFileScanner(source)) {
+            while (scanner.next()) {
+                sourceUsers.put(scanner.getUsername(), scanner.getPassword());
+            }
+        }
+        final File journalFile = CredentialJournal.journalFile(source);
+        if (journalFile.isFile()) {
+            for (CredentialJournal.Change change : CredentialJournal.readPending(journalFile)) {
+                if (change.getPassword() == null) {
+                    sourceUsers.remove(change.getUsername());
+                } else {
+                    sourceUsers.put(change.getUsername(), change.getPassword());
+                }
+            }
+        }
+
+        final CredentialDelta delta = new CredentialDelta();
+        for (int slot = sourceUsers.nextSlot(0); slot >= 0; slot = sourceUsers.nextSlot(slot + 1)) {
+            final String username = sourceUsers.keyAt(slot);
+            final String password = storage.get(username);
+            if (password == null) {
+                delta.add(username, sourceUsers.valueAt(slot));
+            } else if (!password.equals(sourceUsers.valueAt(slot))) {
+                delta.change(username, sourceUsers.valueAt(slot));
+            }
+        }
+        final Iterator<String> usernames = storage.usernames();
+        while (usernames.hasNext()) {
+            final String username = usernames.next();
+            if (!sourceUsers.containsKey(username)) {
+                delta.delete(username);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Saves the changes of the delta with a single commit, only the changed users are written.
+     *
+     * @param delta changes computed with {@link #diff(File)}
+     * @return amount of changed users
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    public int sync(CredentialDelta delta) throws ConfigurationException {
+        if (!delta.isEmpty()) {
+            commit(delta.getMutations(), Collections.<String, Boolean>emptyMap());
+        }
+        return delta.getMutations().size();
+    }
+
+    /**
+     * Merges the journals into the credential files, does nothing if the changes are saved without journal.
+     *
+     * @return true, if there was a journal
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    public boolean compact() throws ConfigurationException {
+        try (CredentialFileLock lock = CredentialFileLock.acquire(file)) {
+            refresh();
+            final List<JournaledCredentialStorage> journaled = journaled();
+            for (JournaledCredentialStorage journaledStorage : journaled) {
+                journaledStorage.compact();
+            }
+            if (!journaled.isEmpty()) {
+                lock.incrementVersion();
+                loadedFingerprint = fingerprint();
+            }
+            return !journaled.isEmpty();
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not lock the credential file " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return all usernames, including the changes which are only in the journal
+     */
+    public Iterator<String> usernames() {
+        refreshIfChanged();
+        return storage.usernames();
+    }
+
     /**
      * This method lists all present users in the credential file
      *
      * @return amount of users
      */
     public int show() {
-        final Iterator<String> keys = propertiesConfiguration.getKeys();
+        refreshIfChanged();
+        final Iterator<String> keys = storage.usernames();
         int userCount = 0;
         while (keys.hasNext()) {
             userCount++;
@@ -119,4 +498,233 @@ public class CredentialProperties {
         }
         return userCount;
     }
+
+    /**
+     * Lists the users of the credential file, which match the filter. The file is streamed,
+     * so neither all users nor the output are held in memory.
+     *
+     * @param filter selects the listed users
+     * @param out    receives one username per line, <code>null</code> to only count the users
+     * @return amount of listed users
+     * @throws IOException is thrown if the credential file cannot be read or the output cannot be written
+     */
+    public int list(UserFilter filter, WritableByteChannel out) throws IOException {
+        refreshIfChanged();
+        if (hasPendingChanges()) {
+            return listPending(filter, out);
+        }
+        if (files.size() > 1) {
+            return listShards(filter, out);
+        }
+        final ByteBuffer buffer = out == null ? null : ByteBuffer.allocateDirect(LIST_BUFFER_SIZE);
+        int skipped = 0;
+        int listed = 0;
+
+        try (CredentialFileScanner scanner = new CredentialFileScanner(files.get(0))) {
+            while ((filter.getLimit() < 0 || listed < filter.getLimit()) && scanner.next()) {
+                final String username = scanner.getUsername();
+                if (!filter.matches(username)) {
+                    continue;
+                }
+                if (skipped < filter.getOffset()) {
+                    skipped++;
+                    continue;
+                }
+                listed++;
+                if (buffer != null) {
+                    write(out, buffer, username.getBytes(Charsets.UTF_8));
+                    write(out, buffer, LINE_SEPARATOR);
+                }
+            }
+        }
+
+        flush(out, buffer);
+        return listed;
+    }
+
+    /**
+     * Lists from memory, because some changes are only in the journal and not in the credential files yet.
+     */
+    private int listPending(final UserFilter filter, final WritableByteChannel out) throws IOException {
+        final ByteBuffer buffer = out == null ? null : ByteBuffer.allocateDirect(LIST_BUFFER_SIZE);
+        final Iterator<String> usernames = storage.usernames();
+        int skipped = 0;
+        int listed = 0;
+        while ((filter.getLimit() < 0 || listed < filter.getLimit()) && usernames.hasNext()) {
+            final String username = usernames.next();
+            if (!filter.matches(username)) {
+                continue;
+            }
+            if (skipped < filter.getOffset()) {
+                skipped++;
+                continue;
+            }
+            listed++;
+            if (buffer != null) {
+                write(out, buffer, username.getBytes(Charsets.UTF_8));
+                write(out, buffer, LINE_SEPARATOR);
+            }
+        }
+        flush(out, buffer);
+        return listed;
+    }
+
+    private boolean hasPendingChanges() {
+        for (JournaledCredentialStorage journaledStorage : journaled()) {
+            if (journaledStorage.hasPendingChanges()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<JournaledCredentialStorage> journaled() {
+        final List<CredentialStorage> storages = storage instanceof ShardedCredentialStorage
+                ? ((ShardedCredentialStorage) storage).shards()
+                : Collections.singletonList(storage);
+        final List<JournaledCredentialStorage> journaled = new ArrayList<>();
+        for (CredentialStorage credentialStorage : storages) {
+            if (credentialStorage instanceof JournaledCredentialStorage) {
+                journaled.add((JournaledCredentialStorage) credentialStorage);
+            }
+        }
+        return journaled;
+    }
+
+    /**
+     * Scans all shards in parallel. The matching users of each shard are collected in memory and written in the order
+     * of the shards, so the result is the same as if the shards were one file.
+     */
+    private int listShards(final UserFilter filter, final WritableByteChannel out) throws IOException {
+        //no shard has to find more users than the requested page
+        final int maxMatches = filter.getLimit() < 0 ? -1 : filter.getOffset() + filter.getLimit();
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<List<String>>> shards = new ArrayList<>(files.size());
+            for (final File shardFile : files) {
+                shards.add(executorService.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws IOException {
+                        return scanShard(shardFile, filter, maxMatches, out == null);
+                    }
+                }));
+            }
+
+            final ByteBuffer buffer = out == null ? null : ByteBuffer.allocateDirect(LIST_BUFFER_SIZE);
+            int skipped = 0;
+            int listed = 0;
+            for (Future<List<String>> shard : shards) {
+                for (String username : shard.get()) {
+                    if (filter.getLimit() >= 0 && listed >= filter.getLimit()) {
+                        break;
+                    }
+                    if (skipped < filter.getOffset()) {
+                        skipped++;
+                        continue;
+                    }
+                    listed++;
+                    if (buffer != null) {
+                        write(out, buffer, username.getBytes(Charsets.UTF_8));
+                        write(out, buffer, LINE_SEPARATOR);
+                    }
+                }
+            }
+            flush(out, buffer);
+            return listed;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing users", e);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * @param countOnly if true, the returned list only holds <code>null</code> elements to save the usernames
+     * @return matching users of the shard, at most <code>maxMatches</code> if it isn't negative
+     */
+    private static List<String> scanShard(final File shardFile, final UserFilter filter, final int maxMatches, final boolean countOnly) throws IOException {
+        final List<String> matches = new ArrayList<>();
+        try (CredentialFileScanner scanner = new CredentialFileScanner(shardFile)) {
+            while ((maxMatches < 0 || matches.size() < maxMatches) && scanner.next()) {
+                final String username = scanner.getUsername();
+                if (filter.matches(username)) {
+                    matches.add(countOnly ? null : username);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static void flush(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        if (buffer != null) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Saves the changes, all saves of the credential file go through here so they are timed and hold the lock of the
+     * credential file. If another process saved the file meanwhile, it is loaded again first and only these changes
+     * are applied to its current content.
+     * <p/>
+     * The changes were checked against the users known before the lock was taken, so they are checked again against
+     * the current content: a change is not saved, if its user exists now but did not when the change was made, or
+     * the other way round. Users without expectation are changed regardless.
+     *
+     * @return usernames whose changes were not saved
+     */
+    @SuppressWarnings("try")
+    private Set<String> commit(Map<String, String> mutations, Map<String, Boolean> expected) throws ConfigurationException {
+        final Set<String> conflicts = new LinkedHashSet<>();
+        final Map<String, String> applicable;
+        try (Timer.Context ignored = Metrics.timer("storage.save").time();
+             CredentialFileLock lock = CredentialFileLock.acquire(file)) {
+            refresh();
+            for (Map.Entry<String, Boolean> expectation : expected.entrySet()) {
+                if (mutations.containsKey(expectation.getKey()) && storage.contains(expectation.getKey()) != expectation.getValue()) {
+                    conflicts.add(expectation.getKey());
+                }
+            }
+            if (conflicts.isEmpty()) {
+                applicable = mutations;
+            } else {
+                applicable = new LinkedHashMap<>(mutations);
+                applicable.keySet().removeAll(conflicts);
+                LOG.warn("Not saving the changes of {} users, which were added or deleted by another writer meanwhile", conflicts.size());
+            }
+            if (!applicable.isEmpty()) {
+                storage.commit(applicable);
+                lock.incrementVersion();
+                loadedFingerprint = fingerprint();
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not lock the credential file " + file.getAbsolutePath(), e);
+        }
+        Metrics.counter("storage.changedUsers").inc(applicable.size());
+        return conflicts;
+    }
+
+    private static void write(WritableByteChannel out, ByteBuffer buffer, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            final int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
 }
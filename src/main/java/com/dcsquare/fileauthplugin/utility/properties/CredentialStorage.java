@@ -0,0 +1,71 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Storage engine behind {@link CredentialProperties}, which holds the users of one credential file.
+ * <p/>
+ * All changes go through {@link #commit(Map)}, so every engine decides on its own how a set of changes is persisted.
+ */
+interface CredentialStorage {
+
+    /**
+     * @param username username
+     * @return true, if the user exists
+     */
+    boolean contains(String username);
+
+    /**
+     * @param username username
+     * @return stored password or hash of the user, <code>null</code> if the user doesn't exist
+     */
+    String get(String username);
+
+    /**
+     * @return amount of users
+     */
+    int size();
+
+    /**
+     * @return all usernames
+     */
+    Iterator<String> usernames();
+
+    /**
+     * Applies the changes and persists them.
+     *
+     * @param mutations usernames mapped to their new password, a <code>null</code> password deletes the user
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    void commit(Map<String, String> mutations) throws ConfigurationException;
+
+    /**
+     * Takes over the changes, which another process saved in the file since this storage loaded or saved it, without
+     * loading the whole file again.
+     *
+     * @return true, if the changes were taken over, false if the engine can't do so and the file has to be loaded again
+     * @throws ConfigurationException is thrown if the changes cannot be read
+     */
+    boolean reloadChanges() throws ConfigurationException;
+}
@@ -18,6 +18,7 @@
 
 package com.dcsquare.fileauthplugin.utility.properties;
 
+import com.dcsquare.fileauthplugin.utility.hashing.HashScheme;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
 import org.slf4j.Logger;
@@ -41,6 +42,22 @@ public class FileAuthConfiguration {
     private String algorithm;
     private int iterations;
     private String credentialFileName;
+    private StorageEngine storageEngine;
+    private int shards;
+    private CompactionPolicy compactionPolicy;
+    private boolean jmxEnabled;
+    private boolean watchEnabled;
+    private long verifierCacheSize;
+    private long verifierCacheTtl;
+    private HashScheme hashScheme;
+    private int pbkdf2Iterations;
+    private int bcryptCost;
+    private int scryptCost;
+    private int scryptBlockSize;
+    private int scryptParallelism;
+    private int argon2Memory;
+    private int argon2Iterations;
+    private int argon2Parallelism;
     private PropertiesConfiguration propertiesConfiguration;
 
     static final Logger LOG = LoggerFactory.getLogger(FileAuthConfiguration.class);
@@ -79,6 +96,32 @@ public class FileAuthConfiguration {
         separationChar = propertiesConfiguration.getString("passwordHashingSalt.separationChar", "$");
         isSalted = propertiesConfiguration.getBoolean("passwordHashingSalt.enabled", true);
         isFirst = propertiesConfiguration.getBoolean("passwordHashingSalt.isFirst", true);
+        storageEngine = StorageEngine.fromName(propertiesConfiguration.getString("credentialStorage.engine", "properties"));
+        shards = propertiesConfiguration.getInt("credentialStorage.shards", 1);
+        if (shards < 1) {
+            throw new ConfigurationException("credentialStorage.shards must be greater than zero");
+        }
+        jmxEnabled = propertiesConfiguration.getBoolean("metrics.jmx.enabled", false);
+        watchEnabled = propertiesConfiguration.getBoolean("credentialStorage.watch.enabled", false);
+        verifierCacheSize = propertiesConfiguration.getLong("verifier.cache.size", 10000);
+        verifierCacheTtl = propertiesConfiguration.getLong("verifier.cache.ttl", 300);
+        if (verifierCacheSize < 0 || verifierCacheTtl < 0) {
+            throw new ConfigurationException("verifier.cache.size and verifier.cache.ttl must not be negative");
+        }
+        if (propertiesConfiguration.getBoolean("credentialStorage.journal.enabled", false)) {
+            compactionPolicy = new CompactionPolicy(
+                    propertiesConfiguration.getLong("credentialStorage.journal.compactionSize", 4 * 1024 * 1024),
+                    propertiesConfiguration.getDouble("credentialStorage.journal.compactionRatio", 0.5));
+        }
+        hashScheme = HashScheme.fromName(propertiesConfiguration.getString("passwordHashing.scheme", "digest"));
+        pbkdf2Iterations = propertiesConfiguration.getInt("passwordHashing.pbkdf2.iterations", 210000);
+        bcryptCost = propertiesConfiguration.getInt("passwordHashing.bcrypt.cost", 10);
+        scryptCost = propertiesConfiguration.getInt("passwordHashing.scrypt.cost", 15);
+        scryptBlockSize = propertiesConfiguration.getInt("passwordHashing.scrypt.blockSize", 8);
+        scryptParallelism = propertiesConfiguration.getInt("passwordHashing.scrypt.parallelism", 1);
+        argon2Memory = propertiesConfiguration.getInt("passwordHashing.argon2.memory", 19456);
+        argon2Iterations = propertiesConfiguration.getInt("passwordHashing.argon2.iterations", 2);
+        argon2Parallelism = propertiesConfiguration.getInt("passwordHashing.argon2.parallelism", 1);
     }
 
     public String getAlgorithm() {
@@ -105,8 +148,103 @@ public class FileAuthConfiguration {
         return iterations;
     }
 
+    /**
+     * Changes the amount of hash iterations and saves it in the configuration file.
+     *
+     * @param iterations amount of hash iterations
+     * @throws ConfigurationException is thrown if the configuration file cannot be saved
+     */
+    public void setIterations(int iterations) throws ConfigurationException {
+        propertiesConfiguration.setProperty("passwordHashing.iterations", iterations);
+        propertiesConfiguration.save();
+        this.iterations = iterations;
+    }
+
     public String getSeparationChar() {
         return separationChar;
     }
 
+    public StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * @return policy for merging the journal, <code>null</code> if the journal is disabled
+     */
+    public CompactionPolicy getCompactionPolicy() {
+        return compactionPolicy;
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * A file rewritten by another process is loaded again as a whole, which is every change with the properties engine
+     * and every update or delete without journal. Only the compact, mapped and indexed engines with journal take over
+     * just the appended changes.
+     *
+     * @return true, if changes of the credential file by other processes are taken over while the utility runs
+     */
+    public boolean isWatchEnabled() {
+        return watchEnabled;
+    }
+
+    /**
+     * @return maximum amount of cached successful password checks, 0 if they are not cached
+     */
+    public long getVerifierCacheSize() {
+        return verifierCacheSize;
+    }
+
+    /**
+     * @return seconds a successful password check stays cached
+     */
+    public long getVerifierCacheTtl() {
+        return verifierCacheTtl;
+    }
+
+    public HashScheme getHashScheme() {
+        return hashScheme;
+    }
+
+    public int getPbkdf2Iterations() {
+        return pbkdf2Iterations;
+    }
+
+    public int getBcryptCost() {
+        return bcryptCost;
+    }
+
+    public int getScryptCost() {
+        return scryptCost;
+    }
+
+    public int getScryptBlockSize() {
+        return scryptBlockSize;
+    }
+
+    public int getScryptParallelism() {
+        return scryptParallelism;
+    }
+
+    /**
+     * @return Argon2 memory in KiB
+     */
+    public int getArgon2Memory() {
+        return argon2Memory;
+    }
+
+    public int getArgon2Iterations() {
+        return argon2Iterations;
+    }
+
+    public int getArgon2Parallelism() {
+        return argon2Parallelism;
+    }
+
 }
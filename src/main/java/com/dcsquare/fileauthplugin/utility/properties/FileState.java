@@ -0,0 +1,127 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Identity, length and last bytes of a credential file at one point in time, to tell whether another process left the
+ * file untouched, only appended lines to it or replaced it.
+ */
+final class FileState {
+
+    private static final int END_SIZE = 64;
+    /**
+     * state of a missing or unreadable file, which is never unchanged
+     */
+    private static final FileState UNKNOWN = new FileState(null, 0, 0, new byte[0]);
+
+    private final Object fileKey;
+    private final long length;
+    private final long lastModified;
+    private final byte[] end;
+
+    private FileState(final Object fileKey, final long length, final long lastModified, final byte[] end) {
+        this.fileKey = fileKey;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.end = end;
+    }
+
+    /**
+     * @param file credential file
+     * @return current state of the file, which is never unchanged if the file cannot be read
+     */
+    static FileState of(final File file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            final long length = attributes.size();
+            return new FileState(attributes.fileKey(), length, attributes.lastModifiedTime().toMillis(),
+                    read(file, Math.max(0, length - END_SIZE), (int) Math.min(length, END_SIZE)));
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * @param current later state of the same path
+     * @return true, if the file was neither replaced nor changed
+     */
+    boolean isUnchanged(final FileState current) {
+        return fileKey != null && fileKey.equals(current.fileKey) && length == current.length && lastModified == current.lastModified;
+    }
+
+    /**
+     * Lines were appended, if it is still the same file, which is longer now, still holds the same bytes where it
+     * ended before and ends with a complete line, both before and now.
+     *
+     * @param current later state of the same path
+     * @param file    the file
+     * @return true, if only complete lines were appended to the file
+     */
+    boolean isAppendedBy(final FileState current, final File file) {
+        if (fileKey == null || !fileKey.equals(current.fileKey) || current.length <= length) {
+            return false;
+        }
+        if (!endsWithLine() || !current.endsWithLine()) {
+            return false;
+        }
+        try {
+            return Arrays.equals(end, read(file, length - end.length, end.length));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @return identity of the file, e.g. device and inode, <code>null</code> if the file system doesn't provide one
+     */
+    Object getFileKey() {
+        return fileKey;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    private boolean endsWithLine() {
+        return end.length == 0 || end[end.length - 1] == '\n';
+    }
+
+    private static byte[] read(final File file, final long position, final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                //read until full or end of file
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine for huge credential files, which looks users up with a persistent {@link CredentialFileIndex}
+ * instead of loading or indexing the file in memory.
+ * <p/>
+ * Opening only maps the credential file and its index, existence checks and lookups read a few pages.
+ * New users are appended to the file and kept in a small in-memory tail index, the index on disk is rebuilt
+ * when the tail grows too large. Updates and deletions rewrite the file like the mapped engine and rebuild the index.
+ * A missing or outdated index is rebuilt on open. Files larger than 2 GB are not supported.
+ */
+class IndexedCredentialStorage implements CredentialStorage {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_TAIL_SIZE = 1024;
+
+    private final File file;
+    private final File indexFile;
+    private MappedByteBuffer buffer;
+    private CredentialFileIndex index;
+    private FileState state;
+
+    /**
+     * users appended after the index was built, mapped to the offset of their line
+     */
+    private final Map<String, Integer> tail = new HashMap<>();
+
+    IndexedCredentialStorage(final File file) throws ConfigurationException {
+        this.file = file;
+        indexFile = CredentialFileIndex.indexFile(file);
+        try {
+            map();
+            index = CredentialFileIndex.open(indexFile, buffer, state);
+            if (index == null) {
+                index = CredentialFileIndex.build(indexFile, buffer, state);
+            } else {
+                indexTail((int) index.getCoveredLength());
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load " + file.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public boolean contains(final String username) {
+        return find(username) != EMPTY;
+    }
+
+    @Override
+    public String get(final String username) {
+        final int offset = find(username);
+        if (offset == EMPTY) {
+            return null;
+        }
+        return MappedLines.password(buffer, offset);
+    }
+
+    @Override
+    public int size() {
+        return index.size() + tail.size();
+    }
+
+    @Override
+    public Iterator<String> usernames() {
+        final List<String> usernames = new ArrayList<>(size());
+        for (int i = 0; i < index.size(); i++) {
+            usernames.add(MappedLines.key(buffer, index.offsetAt(i)));
+        }
+        usernames.addAll(tail.keySet());
+        return usernames.iterator();
+    }
+
+    @Override
+    public void commit(final Map<String, String> mutations) throws ConfigurationException {
+        boolean onlyNewUsers = true;
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            if (mutation.getValue() == null || contains(mutation.getKey())) {
+                onlyNewUsers = false;
+                break;
+            }
+        }
+
+        try {
+            if (onlyNewUsers) {
+                final int previousSize = buffer.limit();
+                CredentialFileFormat.append(file, mutations);
+                map();
+                indexTail(previousSize);
+                if (tail.size() > Math.max(MIN_TAIL_SIZE, index.size() / 8)) {
+                    rebuild();
+                }
+            } else {
+                MappedLines.rewrite(buffer, file, mutations);
+                map();
+                rebuild();
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not save " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Lines appended to the file are indexed in memory like own appended users, a replaced file is loaded again.
+     */
+    @Override
+    public boolean reloadChanges() throws ConfigurationException {
+        final FileState current = FileState.of(file);
+        if (state.isUnchanged(current)) {
+            return true;
+        }
+        if (!state.isAppendedBy(current, file)) {
+            return false;
+        }
+        final long indexedLength = state.getLength();
+        try {
+            map();
+            indexTail((int) indexedLength);
+            if (tail.size() > Math.max(MIN_TAIL_SIZE, index.size() / 8)) {
+                rebuild();
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load " + file.getAbsolutePath(), e);
+        }
+        return true;
+    }
+
+    private int find(final String username) {
+        final Integer appended = tail.get(username);
+        if (appended != null) {
+            return appended;
+        }
+        return index.find(buffer, username);
+    }
+
+    /**
+     * Maps the file again, the state is taken before, so a change during the mapping is noticed later.
+     */
+    private void map() throws IOException {
+        state = FileState.of(file);
+        buffer = MappedLines.map(file);
+    }
+
+    private void rebuild() throws IOException {
+        index = CredentialFileIndex.build(indexFile, buffer, state);
+        tail.clear();
+    }
+
+    /**
+     * Indexes the lines after the given offset in memory.
+     */
+    private void indexTail(final int from) {
+        final MappedLines.Line line = new MappedLines.Line();
+        int position = from;
+        while (position < buffer.limit()) {
+            position = MappedLines.readLine(buffer, position, line);
+            if (line.entry) {
+                tail.put(MappedLines.key(buffer, line.keyStart), line.keyStart);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterators;
+import org.apache.commons.configuration.ConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log-structured storage: changes are appended to a {@link CredentialJournal} instead of rewriting the credential file.
+ * <p/>
+ * The credential file is held by another storage engine as snapshot. Changes since the last compaction are kept in
+ * memory on top of it and are merged into the snapshot with a single rewrite, when the {@link CompactionPolicy}
+ * says so. Replaying a journal is idempotent, so a crash between rewriting the snapshot and resetting the journal
+ * loses nothing.
+ */
+class JournaledCredentialStorage implements CredentialStorage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournaledCredentialStorage.class);
+
+    private final File file;
+    private final CredentialStorage snapshot;
+    private final CredentialJournal journal;
+    private final CompactionPolicy compactionPolicy;
+
+    /**
+     * changes not merged into the snapshot yet, a <code>null</code> value marks a deleted user
+     */
+    private final Map<String, String> pending = new HashMap<>();
+    private int size;
+
+    JournaledCredentialStorage(final File file, final CredentialStorage snapshot, final CompactionPolicy compactionPolicy) throws ConfigurationException {
+        this.file = file;
+        this.snapshot = snapshot;
+        this.compactionPolicy = compactionPolicy;
+        size = snapshot.size();
+        try {
+            journal = new CredentialJournal(CredentialJournal.journalFile(file));
+            for (CredentialJournal.Change change : journal.replay()) {
+                apply(change.getUsername(), change.getPassword());
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load the journal of " + file.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public boolean contains(final String username) {
+        if (pending.containsKey(username)) {
+            return pending.get(username) != null;
+        }
+        return snapshot.contains(username);
+    }
+
+    @Override
+    public String get(final String username) {
+        if (pending.containsKey(username)) {
+            return pending.get(username);
+        }
+        return snapshot.get(username);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<String> usernames() {
+        final Iterator<String> unchanged = Iterators.filter(snapshot.usernames(), new Predicate<String>() {
+            @Override
+            public boolean apply(final String username) {
+                return !pending.containsKey(username);
+            }
+        });
+        final Iterator<String> changed = Iterators.filter(pending.keySet().iterator(), new Predicate<String>() {
+            @Override
+            public boolean apply(final String username) {
+                return pending.get(username) != null;
+            }
+        });
+        return Iterators.concat(unchanged, changed);
+    }
+
+    @Override
+    public void commit(final Map<String, String> mutations) throws ConfigurationException {
+        try {
+            journal.append(mutations);
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not write the journal of " + file.getAbsolutePath(), e);
+        }
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            apply(mutation.getKey(), mutation.getValue());
+        }
+
+        if (compactionPolicy.shouldCompact(journal.size(), file.length())) {
+            try {
+                compact();
+            } catch (ConfigurationException e) {
+                //the changes are safe in the journal, the next commit tries again
+                LOG.warn("Could not merge the journal into " + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    /**
+     * Reads only the changes appended to the journal, as long as the credential file itself was not replaced by a
+     * compaction of another process.
+     */
+    @Override
+    public boolean reloadChanges() throws ConfigurationException {
+        if (!snapshot.reloadChanges()) {
+            return false;
+        }
+        try {
+            final List<CredentialJournal.Change> changes = journal.readAppended();
+            if (changes == null) {
+                return false;
+            }
+            for (CredentialJournal.Change change : changes) {
+                apply(change.getUsername(), change.getPassword());
+            }
+            return true;
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load the journal of " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Merges the pending changes into the credential file and resets the journal.
+     *
+     * @throws ConfigurationException is thrown if the credential file or the journal cannot be written
+     */
+    void compact() throws ConfigurationException {
+        if (!pending.isEmpty()) {
+            snapshot.commit(new HashMap<>(pending));
+            pending.clear();
+        }
+        try {
+            journal.reset();
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not reset the journal of " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * @return true, if there are changes which are only in the journal
+     */
+    boolean hasPendingChanges() {
+        return !pending.isEmpty();
+    }
+
+    private void apply(final String username, final String password) {
+        final boolean existed = contains(username);
+        if (password == null) {
+            if (existed) {
+                size--;
+            }
+        } else if (!existed) {
+            size++;
+        }
+        pending.put(username, password);
+    }
+}
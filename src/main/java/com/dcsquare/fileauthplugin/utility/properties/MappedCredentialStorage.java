@@ -0,0 +1,255 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine for huge credential files, which memory-maps the file instead of parsing it.
+ * <p/>
+ * Loading only builds an open-addressing index from the hash of each username to the offset of its line,
+ * the passwords are decoded when they are requested. Keys with escape sequences are rare and kept in a separate map.
+ * New users are appended to the file; updates and deletions rewrite it atomically, copying all untouched
+ * lines including comments byte by byte from the mapping. Files larger than 2 GB are not supported.
+ */
+class MappedCredentialStorage implements CredentialStorage {
+
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final File file;
+    private MappedByteBuffer buffer;
+    private FileState state;
+
+    /**
+     * offsets of the first key character, the slot is chosen by the hash of the username
+     */
+    private int[] offsets;
+    private int[] hashes;
+    private int indexed;
+
+    /**
+     * usernames with escape sequences in the file, mapped to the offset of their key
+     */
+    private final Map<String, Integer> escapedKeys = new HashMap<>();
+
+    MappedCredentialStorage(final File file) throws ConfigurationException {
+        this.file = file;
+        state = FileState.of(file);
+        try {
+            map();
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load " + file.getAbsolutePath(), e);
+        }
+        index(0);
+    }
+
+    @Override
+    public boolean contains(final String username) {
+        return find(username) != EMPTY;
+    }
+
+    @Override
+    public String get(final String username) {
+        final int offset = find(username);
+        if (offset == EMPTY) {
+            return null;
+        }
+        return MappedLines.password(buffer, offset);
+    }
+
+    @Override
+    public int size() {
+        return indexed + escapedKeys.size();
+    }
+
+    @Override
+    public Iterator<String> usernames() {
+        final List<String> usernames = new ArrayList<>(size());
+        for (int offset : offsets) {
+            if (offset != EMPTY) {
+                usernames.add(MappedLines.rawKey(buffer, offset));
+            }
+        }
+        usernames.addAll(escapedKeys.keySet());
+        return usernames.iterator();
+    }
+
+    @Override
+    public void commit(final Map<String, String> mutations) throws ConfigurationException {
+        boolean onlyNewUsers = true;
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            if (mutation.getValue() == null || contains(mutation.getKey())) {
+                onlyNewUsers = false;
+                break;
+            }
+        }
+
+        try {
+            if (onlyNewUsers) {
+                final int previousSize = buffer.limit();
+                CredentialFileFormat.append(file, mutations);
+                map();
+                index(previousSize);
+            } else {
+                MappedLines.rewrite(buffer, file, mutations);
+                map();
+                clearIndex();
+                index(0);
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not save " + file.getAbsolutePath(), e);
+        }
+        state = FileState.of(file);
+    }
+
+    /**
+     * Only lines appended to the file are indexed, a replaced file is loaded again.
+     */
+    @Override
+    public boolean reloadChanges() throws ConfigurationException {
+        final FileState current = FileState.of(file);
+        if (state.isUnchanged(current)) {
+            return true;
+        }
+        if (!state.isAppendedBy(current, file)) {
+            return false;
+        }
+        try {
+            map();
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not load " + file.getAbsolutePath(), e);
+        }
+        index((int) state.getLength());
+        state = current;
+        return true;
+    }
+
+    private void map() throws IOException {
+        buffer = MappedLines.map(file);
+    }
+
+    /**
+     * Indexes all entries starting at the given offset.
+     */
+    private void index(final int from) {
+        if (offsets == null) {
+            allocate(capacityFor(buffer.limit() / 64));
+        }
+        final MappedLines.Line line = new MappedLines.Line();
+        int position = from;
+        while (position < buffer.limit()) {
+            position = MappedLines.readLine(buffer, position, line);
+            if (!line.entry) {
+                continue;
+            }
+            if (line.escaped) {
+                escapedKeys.put(MappedLines.escapedKey(buffer, line.keyStart), line.keyStart);
+            } else {
+                put(line.hash, line.keyStart);
+            }
+        }
+    }
+
+    private int find(final String username) {
+        final int hash = username.hashCode();
+        int slot = slotFor(hash);
+        while (offsets[slot] != EMPTY) {
+            if (hashes[slot] == hash && MappedLines.keyEquals(buffer, offsets[slot], username)) {
+                return offsets[slot];
+            }
+            slot = (slot + 1) & (offsets.length - 1);
+        }
+        final Integer escaped = escapedKeys.get(username);
+        return escaped == null ? EMPTY : escaped;
+    }
+
+    private void put(final int hash, final int offset) {
+        if ((indexed + 1) * 2 > offsets.length) {
+            rehash(offsets.length * 2);
+        }
+        int slot = slotFor(hash);
+        while (offsets[slot] != EMPTY) {
+            if (hashes[slot] == hash && MappedLines.keyEquals(buffer, offsets[slot], MappedLines.rawKey(buffer, offset))) {
+                //a later line for the same user wins
+                offsets[slot] = offset;
+                return;
+            }
+            slot = (slot + 1) & (offsets.length - 1);
+        }
+        offsets[slot] = offset;
+        hashes[slot] = hash;
+        indexed++;
+    }
+
+    private void rehash(final int capacity) {
+        final int[] oldOffsets = offsets;
+        final int[] oldHashes = hashes;
+        allocate(capacity);
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != EMPTY) {
+                int slot = slotFor(oldHashes[i]);
+                while (offsets[slot] != EMPTY) {
+                    slot = (slot + 1) & (offsets.length - 1);
+                }
+                offsets[slot] = oldOffsets[i];
+                hashes[slot] = oldHashes[i];
+                indexed++;
+            }
+        }
+    }
+
+    private void clearIndex() {
+        offsets = null;
+        hashes = null;
+        escapedKeys.clear();
+    }
+
+    private void allocate(final int capacity) {
+        offsets = new int[capacity];
+        hashes = new int[capacity];
+        Arrays.fill(offsets, EMPTY);
+        indexed = 0;
+    }
+
+    private int slotFor(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash & (offsets.length - 1);
+    }
+
+    private static int capacityFor(final int size) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < size * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
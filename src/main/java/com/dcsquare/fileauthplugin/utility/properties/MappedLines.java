@@ -0,0 +1,310 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parses the lines of a memory-mapped credential file in place, shared by the storage engines working on mappings.
+ * <p/>
+ * Offsets point to the first key character of a logical line. Keys without escape sequences are compared and
+ * hashed byte by byte, the hash equals {@link String#hashCode()} of the username.
+ */
+final class MappedLines {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private MappedLines() {
+    }
+
+    /**
+     * Maps the whole file read-only.
+     *
+     * @throws IOException is thrown if the file cannot be mapped or is larger than 2 GB
+     */
+    static MappedByteBuffer map(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Credential file " + file.getAbsolutePath() + " is too large to be mapped");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Parses the logical line starting at the given position without decoding it.
+     *
+     * @return position of the next line
+     */
+    static int readLine(final ByteBuffer buffer, final int position, final Line line) {
+        final int limit = buffer.limit();
+        int i = position;
+        while (i < limit && isWhitespace(buffer.get(i))) {
+            i++;
+        }
+        line.entry = false;
+        if (i >= limit) {
+            return limit;
+        }
+        final byte first = buffer.get(i);
+        if (first == '\n' || first == '\r' || first == '#' || first == '!') {
+            return endOfPhysicalLine(buffer, i);
+        }
+
+        line.entry = true;
+        line.keyStart = i;
+        line.escaped = false;
+        int hash = 0;
+        for (; i < limit; i++) {
+            final byte c = buffer.get(i);
+            if (c == '\\') {
+                line.escaped = true;
+                break;
+            }
+            if (isKeyTerminator(c)) {
+                break;
+            }
+            hash = 31 * hash + (c & 0xff);
+        }
+        line.hash = hash;
+        return endOfLogicalLine(buffer, i);
+    }
+
+    /**
+     * Decodes the logical line starting at the given offset like {@link CredentialFileScanner} does.
+     */
+    static String decodeLine(final ByteBuffer buffer, final int offset) {
+        final StringBuilder line = new StringBuilder();
+        int i = offset;
+        while (true) {
+            final int next = endOfPhysicalLine(buffer, i);
+            int end = next;
+            while (end > i && (buffer.get(end - 1) == '\n' || buffer.get(end - 1) == '\r')) {
+                end--;
+            }
+            for (int j = i; j < end; j++) {
+                line.append((char) (buffer.get(j) & 0xff));
+            }
+            if (!CredentialFileFormat.endsWithContinuation(line.toString()) || next >= buffer.limit()) {
+                return line.toString();
+            }
+            line.setLength(line.length() - 1);
+            i = next;
+            while (i < buffer.limit() && isWhitespace(buffer.get(i))) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @return unescaped password of the line at the given offset
+     */
+    static String password(final ByteBuffer buffer, final int offset) {
+        final String line = decodeLine(buffer, offset);
+        return CredentialFileFormat.unescape(line.substring(CredentialFileFormat.valueStart(line, CredentialFileFormat.keyEnd(line, 0))));
+    }
+
+    static String rawKey(final ByteBuffer buffer, final int offset) {
+        final StringBuilder key = new StringBuilder();
+        for (int i = offset; i < buffer.limit() && !isKeyTerminator(buffer.get(i)); i++) {
+            key.append((char) (buffer.get(i) & 0xff));
+        }
+        return key.toString();
+    }
+
+    static String escapedKey(final ByteBuffer buffer, final int offset) {
+        final String line = decodeLine(buffer, offset);
+        return CredentialFileFormat.unescape(line.substring(0, CredentialFileFormat.keyEnd(line, 0)));
+    }
+
+    /**
+     * @return username of the line at the given offset, with or without escape sequences
+     */
+    static String key(final ByteBuffer buffer, final int offset) {
+        final String rawKey = rawKey(buffer, offset);
+        final int end = offset + rawKey.length();
+        if (end < buffer.limit() && buffer.get(end) == '\\') {
+            return escapedKey(buffer, offset);
+        }
+        return rawKey;
+    }
+
+    /**
+     * Compares a key without escape sequences with the username.
+     */
+    static boolean keyEquals(final ByteBuffer buffer, final int offset, final String username) {
+        final int limit = buffer.limit();
+        for (int i = 0; i < username.length(); i++) {
+            if (offset + i >= limit || (buffer.get(offset + i) & 0xff) != username.charAt(i)) {
+                return false;
+            }
+        }
+        final int end = offset + username.length();
+        return end >= limit || isKeyTerminator(buffer.get(end));
+    }
+
+    /**
+     * Compares the key of the line at the given offset with the username, with or without escape sequences.
+     */
+    static boolean keyMatches(final ByteBuffer buffer, final int offset, final String username) {
+        if (keyEquals(buffer, offset, username)) {
+            return true;
+        }
+        return key(buffer, offset).equals(username);
+    }
+
+    /**
+     * Writes a new file with the changes applied. Untouched lines are copied from the mapping,
+     * changed users stay at their position and new users are appended.
+     */
+    static void rewrite(final ByteBuffer buffer, final File file, final Map<String, String> mutations) throws IOException {
+        final Map<String, String> pending = new LinkedHashMap<>(mutations);
+        final Set<String> written = new HashSet<>();
+        final Set<Integer> mutatedHashes = new HashSet<>();
+        for (String username : mutations.keySet()) {
+            mutatedHashes.add(username.hashCode());
+        }
+
+        try (AtomicFileOutputStream atomicOut = new AtomicFileOutputStream(file)) {
+            final OutputStream out = new BufferedOutputStream(atomicOut, COPY_BUFFER_SIZE);
+            final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+            final StringBuilder builder = new StringBuilder();
+            final Line line = new Line();
+            boolean endsWithLineSeparator = true;
+
+            int position = 0;
+            while (position < buffer.limit()) {
+                final int lineStart = position;
+                position = readLine(buffer, position, line);
+
+                if (line.entry && (line.escaped || mutatedHashes.contains(line.hash))) {
+                    final String username = line.escaped ? escapedKey(buffer, line.keyStart) : rawKey(buffer, line.keyStart);
+                    if (written.contains(username)) {
+                        continue;
+                    }
+                    if (pending.containsKey(username)) {
+                        final String password = pending.remove(username);
+                        written.add(username);
+                        if (password != null) {
+                            builder.setLength(0);
+                            CredentialFileFormat.appendLine(builder, username, password);
+                            builder.append(CredentialFileFormat.LINE_SEPARATOR);
+                            out.write(builder.toString().getBytes(Charsets.ISO_8859_1));
+                            endsWithLineSeparator = true;
+                        }
+                        continue;
+                    }
+                }
+                copy(buffer, lineStart, position, out, copyBuffer);
+                final byte last = buffer.get(position - 1);
+                endsWithLineSeparator = last == '\n' || last == '\r';
+            }
+
+            if (!endsWithLineSeparator && !pending.isEmpty()) {
+                out.write(CredentialFileFormat.LINE_SEPARATOR);
+            }
+            for (Map.Entry<String, String> user : pending.entrySet()) {
+                if (user.getValue() != null) {
+                    builder.setLength(0);
+                    CredentialFileFormat.appendLine(builder, user.getKey(), user.getValue());
+                    builder.append(CredentialFileFormat.LINE_SEPARATOR);
+                    out.write(builder.toString().getBytes(Charsets.ISO_8859_1));
+                }
+            }
+            out.flush();
+            atomicOut.commit();
+        }
+    }
+
+    private static void copy(final ByteBuffer buffer, final int from, final int to, final OutputStream out, final byte[] copyBuffer) throws IOException {
+        final ByteBuffer source = buffer.duplicate();
+        source.position(from);
+        int remaining = to - from;
+        while (remaining > 0) {
+            final int length = Math.min(remaining, copyBuffer.length);
+            source.get(copyBuffer, 0, length);
+            out.write(copyBuffer, 0, length);
+            remaining -= length;
+        }
+    }
+
+    private static int endOfPhysicalLine(final ByteBuffer buffer, int i) {
+        final int limit = buffer.limit();
+        while (i < limit && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+            i++;
+        }
+        if (i < limit && buffer.get(i) == '\r') {
+            i++;
+        }
+        if (i < limit && buffer.get(i) == '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int endOfLogicalLine(final ByteBuffer buffer, int i) {
+        while (true) {
+            final int next = endOfPhysicalLine(buffer, i);
+            int end = next;
+            while (end > i && (buffer.get(end - 1) == '\n' || buffer.get(end - 1) == '\r')) {
+                end--;
+            }
+            int backslashes = 0;
+            while (end - backslashes - 1 >= i && buffer.get(end - backslashes - 1) == '\\') {
+                backslashes++;
+            }
+            if (backslashes % 2 == 0 || next >= buffer.limit()) {
+                return next;
+            }
+            i = next;
+        }
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\f';
+    }
+
+    private static boolean isKeyTerminator(final byte b) {
+        return b == ':' || b == '=' || b == ' ' || b == '\t' || b == '\f' || b == '\n' || b == '\r' || b == '\\';
+    }
+
+    /**
+     * Position of key and line of one logical line, reused while scanning.
+     */
+    static class Line {
+        boolean entry;
+        boolean escaped;
+        int keyStart;
+        int hash;
+    }
+}
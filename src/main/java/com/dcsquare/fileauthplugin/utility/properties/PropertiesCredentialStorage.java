@@ -0,0 +1,114 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.PropertiesConfigurationLayout;
+import org.apache.commons.configuration.PropertyConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Storage engine based on commons-configuration's {@link PropertiesConfiguration}.
+ */
+class PropertiesCredentialStorage implements CredentialStorage {
+
+    private final File file;
+    private final PropertiesConfiguration propertiesConfiguration;
+    private FileState state;
+
+    PropertiesCredentialStorage(final File file) throws ConfigurationException {
+        this.file = file;
+        propertiesConfiguration = new PropertiesConfiguration();
+
+        PropertiesConfigurationLayout propertiesConfigurationLayout = new PropertiesConfigurationLayout(propertiesConfiguration);
+        propertiesConfigurationLayout.setGlobalSeparator(":");
+        propertiesConfiguration.setFile(file);
+        state = FileState.of(file);
+        propertiesConfiguration.load();
+    }
+
+    @Override
+    public boolean contains(final String username) {
+        return propertiesConfiguration.containsKey(username);
+    }
+
+    @Override
+    public String get(final String username) {
+        return propertiesConfiguration.getString(username);
+    }
+
+    @Override
+    public int size() {
+        final Iterator<String> keys = propertiesConfiguration.getKeys();
+        int size = 0;
+        while (keys.hasNext()) {
+            keys.next();
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<String> usernames() {
+        return propertiesConfiguration.getKeys();
+    }
+
+    @Override
+    public void commit(final Map<String, String> mutations) throws ConfigurationException {
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            if (mutation.getValue() == null) {
+                propertiesConfiguration.clearProperty(mutation.getKey());
+            } else {
+                //escaped, so entries with commas like the scrypt and Argon2 ones are not split into a list
+                propertiesConfiguration.setProperty(mutation.getKey(),
+                        PropertyConverter.escapeDelimiters(mutation.getValue(), propertiesConfiguration.getListDelimiter()));
+            }
+        }
+        save();
+    }
+
+    /**
+     * The layout of the file is parsed as a whole, so a changed file is always loaded again. Every save of another
+     * process rewrites the whole file, so watching is cheap only with the line based engines and the journal.
+     */
+    @Override
+    public boolean reloadChanges() {
+        return state.isUnchanged(FileState.of(file));
+    }
+
+    /**
+     * Saves the credential file atomically, so readers like a reloading broker never see a partially written file.
+     *
+     * @throws ConfigurationException is thrown if there is a problem during save
+     */
+    private void save() throws ConfigurationException {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+            propertiesConfiguration.save(out);
+            out.commit();
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not save " + file.getAbsolutePath(), e);
+        }
+        state = FileState.of(file);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Spreads the users over several shard files by a hash of the username, every shard is held by its own storage engine.
+ * <p/>
+ * A change only rewrites the shards of the changed users. The shards are saved one after another, so if saving one
+ * shard fails, the changes of the shards saved before are kept.
+ * <p/>
+ * If none of the shard files exists yet, the users of the unsharded credential file are copied into the shards.
+ * The unsharded file itself is left untouched.
+ * <p/>
+ * The amount of shards is stored in a manifest next to the credential file, e.g. <code>credentials.properties.shards</code>.
+ * The shard of a user depends on the amount of shards, so the users cannot be found anymore with another amount.
+ */
+class ShardedCredentialStorage implements CredentialStorage {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+
+    private final StorageEngine storageEngine;
+    private final List<File> shardFiles;
+    private final CompactionPolicy compactionPolicy;
+    private final List<CredentialStorage> shards;
+
+    ShardedCredentialStorage(final StorageEngine storageEngine, final File file, final List<File> shardFiles,
+                             final CompactionPolicy compactionPolicy) throws ConfigurationException {
+        this.storageEngine = storageEngine;
+        this.shardFiles = shardFiles;
+        this.compactionPolicy = compactionPolicy;
+        final boolean split = !anyExists(shardFiles) && file.length() > 0;
+        try {
+            for (File shardFile : shardFiles) {
+                if (!shardFile.exists() && !shardFile.createNewFile()) {
+                    throw new ConfigurationException("Could not create shard " + shardFile.getAbsolutePath());
+                }
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not create shards of " + file.getAbsolutePath(), e);
+        }
+
+        shards = open(storageEngine, shardFiles, compactionPolicy);
+        if (split) {
+            final boolean journaled = compactionPolicy != null && CredentialJournal.journalFile(file).exists();
+            copyUsers(storageEngine.open(file, journaled ? compactionPolicy : null));
+        }
+        final File manifest = manifestFile(file);
+        if (!manifest.exists()) {
+            writeManifest(manifest, shardFiles.size());
+        }
+    }
+
+    /**
+     * @param file credential file
+     * @return file which holds the amount of shards of the credential file
+     */
+    static File manifestFile(final File file) {
+        return new File(file.getParentFile(), file.getName() + ".shards");
+    }
+
+    /**
+     * Reads the amount of shards the users of a credential file are spread over. Shards which were created before the
+     * manifest was introduced are counted by their files.
+     *
+     * @param file credential file
+     * @return amount of shards, 1 if the users are not spread over shards
+     * @throws ConfigurationException is thrown if the manifest cannot be read
+     */
+    static int existingShards(final File file) throws ConfigurationException {
+        final File manifest = manifestFile(file);
+        if (manifest.exists()) {
+            try {
+                return Integer.parseInt(Files.toString(manifest, Charsets.US_ASCII).trim());
+            } catch (IOException | NumberFormatException e) {
+                throw new ConfigurationException("Could not read the amount of shards from " + manifest.getAbsolutePath(), e);
+            }
+        }
+        int shards = 0;
+        while (shardFiles(file, shards + 1).get(shards).exists()) {
+            shards++;
+        }
+        return Math.max(shards, 1);
+    }
+
+    private static void writeManifest(final File manifest, final int shards) throws ConfigurationException {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(manifest)) {
+            out.write((shards + "\n").getBytes(Charsets.US_ASCII));
+            out.commit();
+        } catch (IOException e) {
+            throw new ConfigurationException("Could not save " + manifest.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Names the shard files after the credential file, e.g. <code>credentials.3.properties</code>.
+     *
+     * @param file   credential file
+     * @param shards amount of shards
+     * @return shard files
+     */
+    static List<File> shardFiles(final File file, final int shards) {
+        final String name = file.getName();
+        final int extension = name.lastIndexOf('.');
+        final List<File> files = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            final String shardName = extension > 0
+                    ? name.substring(0, extension) + "." + i + name.substring(extension)
+                    : name + "." + i;
+            files.add(new File(file.getParentFile(), shardName));
+        }
+        return files;
+    }
+
+    /**
+     * @param username username
+     * @param shards   amount of shards
+     * @return index of the shard of the user
+     */
+    static int shardOf(final String username, final int shards) {
+        return Hashing.consistentHash(HASH_FUNCTION.hashString(username, Charsets.UTF_8), shards);
+    }
+
+    @Override
+    public boolean contains(final String username) {
+        return shard(username).contains(username);
+    }
+
+    @Override
+    public String get(final String username) {
+        return shard(username).get(username);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (CredentialStorage shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<String> usernames() {
+        final List<Iterator<String>> usernames = new ArrayList<>(shards.size());
+        for (CredentialStorage shard : shards) {
+            usernames.add(shard.usernames());
+        }
+        return Iterators.concat(usernames.iterator());
+    }
+
+    @Override
+    public void commit(final Map<String, String> mutations) throws ConfigurationException {
+        final List<Map<String, String>> shardMutations = partition(mutations);
+        for (int i = 0; i < shards.size(); i++) {
+            if (!shardMutations.get(i).isEmpty()) {
+                shards.get(i).commit(shardMutations.get(i));
+            }
+        }
+    }
+
+    /**
+     * Takes over the changes of all shards, shards which can't take them over are loaded again.
+     */
+    @Override
+    public boolean reloadChanges() throws ConfigurationException {
+        for (int i = 0; i < shards.size(); i++) {
+            reloadShard(i);
+        }
+        return true;
+    }
+
+    /**
+     * Takes over the changes of one shard, which another process saved. Only this shard is loaded again, if its
+     * engine can't take over the changes.
+     *
+     * @param index index of the shard
+     * @throws ConfigurationException is thrown if the shard cannot be loaded
+     */
+    void reloadShard(final int index) throws ConfigurationException {
+        if (!shards.get(index).reloadChanges()) {
+            shards.set(index, storageEngine.open(shardFiles.get(index), compactionPolicy));
+        }
+    }
+
+    /**
+     * @return storages of the shards
+     */
+    List<CredentialStorage> shards() {
+        return shards;
+    }
+
+    private CredentialStorage shard(final String username) {
+        return shards.get(shardOf(username, shards.size()));
+    }
+
+    private List<Map<String, String>> partition(final Map<String, String> mutations) {
+        final List<Map<String, String>> partitions = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            partitions.add(new HashMap<String, String>());
+        }
+        for (Map.Entry<String, String> mutation : mutations.entrySet()) {
+            partitions.get(shardOf(mutation.getKey(), shards.size())).put(mutation.getKey(), mutation.getValue());
+        }
+        return partitions;
+    }
+
+    private void copyUsers(final CredentialStorage unsharded) throws ConfigurationException {
+        final Map<String, String> users = new HashMap<>();
+        final Iterator<String> usernames = unsharded.usernames();
+        while (usernames.hasNext()) {
+            final String username = usernames.next();
+            users.put(username, unsharded.get(username));
+        }
+        commit(users);
+    }
+
+    /**
+     * Loads the shards in parallel.
+     */
+    private static List<CredentialStorage> open(final StorageEngine storageEngine, final List<File> shardFiles,
+                                                final CompactionPolicy compactionPolicy) throws ConfigurationException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(shardFiles.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final List<Future<CredentialStorage>> futures = new ArrayList<>(shardFiles.size());
+            for (final File shardFile : shardFiles) {
+                futures.add(executorService.submit(new Callable<CredentialStorage>() {
+                    @Override
+                    public CredentialStorage call() throws ConfigurationException {
+                        return storageEngine.open(shardFile, compactionPolicy);
+                    }
+                }));
+            }
+            final List<CredentialStorage> shards = new ArrayList<>(shardFiles.size());
+            for (Future<CredentialStorage> future : futures) {
+                shards.add(future.get());
+            }
+            return shards;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConfigurationException) {
+                throw (ConfigurationException) e.getCause();
+            }
+            throw new ConfigurationException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigurationException("Interrupted while loading the shards", e);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static boolean anyExists(final List<File> files) {
+        for (File file : files) {
+            if (file.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.File;
+
+/**
+ * Available storage engines for the credential file, configured with <code>credentialStorage.engine</code>.
+ */
+public enum StorageEngine {
+
+    /**
+     * commons-configuration based, keeps comments and layout of the file
+     */
+    PROPERTIES {
+        @Override
+        CredentialStorage open(final File file) throws ConfigurationException {
+            return new PropertiesCredentialStorage(file);
+        }
+    },
+
+    /**
+     * specialised for <code>user:hash</code> files, needs a fraction of the memory and load time
+     */
+    COMPACT {
+        @Override
+        CredentialStorage open(final File file) throws ConfigurationException {
+            return new CompactCredentialStorage(file);
+        }
+    },
+
+    /**
+     * memory-maps the file and only indexes the usernames, for files with millions of users
+     */
+    MAPPED {
+        @Override
+        CredentialStorage open(final File file) throws ConfigurationException {
+            return new MappedCredentialStorage(file);
+        }
+    },
+
+    /**
+     * looks users up with a sorted index and a Bloom filter next to the file, without loading the file
+     */
+    INDEXED {
+        @Override
+        CredentialStorage open(final File file) throws ConfigurationException {
+            return new IndexedCredentialStorage(file);
+        }
+    };
+
+    abstract CredentialStorage open(File file) throws ConfigurationException;
+
+    /**
+     * @param file             credential file
+     * @param compactionPolicy <code>null</code> to save every change in the credential file,
+     *                         otherwise changes are appended to a journal and merged with this policy
+     * @return storage of the file
+     * @throws ConfigurationException is thrown if the file or its journal cannot be loaded
+     */
+    CredentialStorage open(final File file, final CompactionPolicy compactionPolicy) throws ConfigurationException {
+        if (compactionPolicy == null) {
+            return open(file);
+        }
+        return new JournaledCredentialStorage(file, open(file), compactionPolicy);
+    }
+
+    /**
+     * @param name name of the engine, case insensitive
+     * @return the engine
+     * @throws ConfigurationException is thrown if there is no engine with this name
+     */
+    public static StorageEngine fromName(final String name) throws ConfigurationException {
+        for (StorageEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.trim())) {
+                return engine;
+            }
+        }
+        throw new ConfigurationException("Unknown credential storage engine " + name);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import java.util.regex.Pattern;
+
+/**
+ * Selects which users are listed: by username prefix and/or regular expression, and a page of the matching users.
+ */
+public class UserFilter {
+
+    public static final UserFilter ALL = new UserFilter(null, null, 0, -1);
+
+    private final String prefix;
+    private final Pattern pattern;
+    private final int offset;
+    private final int limit;
+
+    /**
+     * @param prefix only users starting with this prefix match, <code>null</code> for all users
+     * @param regex  only users containing a match of this regular expression match, <code>null</code> for all users
+     * @param offset amount of matching users which are skipped
+     * @param limit  maximum amount of listed users, negative for no limit
+     * @throws java.util.regex.PatternSyntaxException is thrown if the regular expression is invalid
+     */
+    public UserFilter(final String prefix, final String regex, final int offset, final int limit) {
+        this.prefix = prefix;
+        this.pattern = regex == null ? null : Pattern.compile(regex);
+        this.offset = Math.max(0, offset);
+        this.limit = limit;
+    }
+
+    /**
+     * @param username username
+     * @return true, if the username matches prefix and regular expression
+     */
+    public boolean matches(final String username) {
+        if (prefix != null && !username.startsWith(prefix)) {
+            return false;
+        }
+        return pattern == null || pattern.matcher(username).find();
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return maximum amount of listed users, negative for no limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
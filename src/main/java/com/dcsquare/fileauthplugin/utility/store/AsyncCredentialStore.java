@@ -0,0 +1,257 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.store;
+
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordEncoder;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialBatch;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.dcsquare.fileauthplugin.utility.properties.UserFilter;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.configuration.ConfigurationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CredentialStore} on top of {@link CredentialProperties}.
+ * <p/>
+ * Passwords are hashed on a pool with one thread per CPU, while a single I/O thread reads and saves the credential file.
+ * The hashing of new passwords overlaps with saving earlier changes, and all changes whose passwords are hashed by the
+ * time the I/O thread is free are saved with a single write. If the hashing pool is full, the calling thread hashes
+ * the password itself, which slows down callers instead of queueing without limit.
+ * <p/>
+ * The store takes over the {@link CredentialProperties}, they must not be used otherwise while the store is open.
+ */
+public class AsyncCredentialStore implements CredentialStore {
+
+    /**
+     * queued passwords per hashing thread before callers hash themselves
+     */
+    private static final int HASH_QUEUE_SIZE_PER_THREAD = 64;
+
+    private static final Splitter LINES = Splitter.on(System.getProperty("line.separator")).omitEmptyStrings();
+
+    private final CredentialProperties credentialProperties;
+    private final PasswordEncoder passwordEncoder;
+    private final ListeningExecutorService hashExecutor;
+    private final ListeningExecutorService ioExecutor;
+    private final boolean ownsHashExecutor;
+    private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+
+    private final Runnable saveChanges = new Runnable() {
+        @Override
+        public void run() {
+            saveChanges();
+        }
+    };
+
+    public AsyncCredentialStore(final FileAuthConfiguration fileAuthConfiguration, final CredentialProperties credentialProperties) {
+        this(fileAuthConfiguration, credentialProperties, newHashExecutor(), true);
+    }
+
+    /**
+     * @param hashExecutor executor for hashing passwords, which is not shut down by {@link #close()}
+     */
+    public AsyncCredentialStore(final FileAuthConfiguration fileAuthConfiguration, final CredentialProperties credentialProperties,
+                                final ExecutorService hashExecutor) {
+        this(fileAuthConfiguration, credentialProperties, hashExecutor, false);
+    }
+
+    private AsyncCredentialStore(final FileAuthConfiguration fileAuthConfiguration, final CredentialProperties credentialProperties,
+                                 final ExecutorService hashExecutor, final boolean ownsHashExecutor) {
+        this.credentialProperties = credentialProperties;
+        this.passwordEncoder = new PasswordEncoder(fileAuthConfiguration, PasswordEncoder.DEFAULT_SALT_LENGTH);
+        this.hashExecutor = MoreExecutors.listeningDecorator(hashExecutor);
+        this.ownsHashExecutor = ownsHashExecutor;
+        this.ioExecutor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("credential-store-io-%d").setDaemon(true).build()));
+    }
+
+    /**
+     * Opens the credential file of a configuration with the configured storage engine.
+     *
+     * @param configFileName path of the fileAuthConfiguration.properties
+     * @return store for the users of the credential file
+     * @throws IOException            is thrown if the configuration cannot be read
+     * @throws ConfigurationException is thrown if the configuration is invalid or the credential file cannot be read
+     */
+    public static AsyncCredentialStore open(final String configFileName) throws IOException, ConfigurationException {
+        final FileAuthConfiguration fileAuthConfiguration = new FileAuthConfiguration(configFileName);
+        final File file = new File(new File(configFileName).getParent(), fileAuthConfiguration.getCredentialFileName());
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(),
+                fileAuthConfiguration.getStorageEngine(), fileAuthConfiguration.getShards(), fileAuthConfiguration.getCompactionPolicy());
+        return new AsyncCredentialStore(fileAuthConfiguration, credentialProperties);
+    }
+
+    @Override
+    public ListenableFuture<Boolean> addUser(final String username, final String password) {
+        return change(ChangeType.ADD, username, hash(password));
+    }
+
+    @Override
+    public ListenableFuture<Boolean> updateUser(final String username, final String password) {
+        return change(ChangeType.UPDATE, username, hash(password));
+    }
+
+    @Override
+    public ListenableFuture<Boolean> deleteUser(final String username) {
+        return change(ChangeType.DELETE, username, Futures.<String>immediateFuture(null));
+    }
+
+    @Override
+    public ListenableFuture<String> getPassword(final String username) {
+        return ioExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return credentialProperties.getPassword(username);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<String>> listUsers(final UserFilter filter) {
+        return ioExecutor.submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws IOException {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                credentialProperties.list(filter, Channels.newChannel(out));
+                return Lists.newArrayList(LINES.split(new String(out.toByteArray(), Charsets.UTF_8)));
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        ioExecutor.shutdown();
+        if (ownsHashExecutor) {
+            hashExecutor.shutdown();
+        }
+    }
+
+    private ListenableFuture<String> hash(final String password) {
+        return hashExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return passwordEncoder.encode(password);
+            }
+        });
+    }
+
+    private ListenableFuture<Boolean> change(final ChangeType type, final String username, final ListenableFuture<String> entry) {
+        final Change change = new Change(type, username, entry);
+        changes.add(change);
+        ioExecutor.execute(saveChanges);
+        return change.result;
+    }
+
+    /**
+     * Applies all queued changes in their order and saves them with a single write. Runs on the I/O thread only.
+     */
+    private void saveChanges() {
+        final List<Change> group = new ArrayList<>();
+        final List<Boolean> results = new ArrayList<>();
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+
+        Change change;
+        while ((change = changes.poll()) != null) {
+            try {
+                //waits for the hashing of this password, the ones of later changes continue meanwhile
+                final String entry = Futures.getUnchecked(change.entry);
+                switch (change.type) {
+                    case ADD:
+                        results.add(batch.addUser(change.username, entry));
+                        break;
+                    case UPDATE:
+                        results.add(batch.updateUser(change.username, entry));
+                        break;
+                    default:
+                        results.add(batch.deleteUser(change.username));
+                }
+                group.add(change);
+            } catch (UncheckedExecutionException e) {
+                change.result.setException(e.getCause());
+            }
+        }
+        if (group.isEmpty()) {
+            return;
+        }
+
+        try {
+            batch.commit();
+        } catch (ConfigurationException | RuntimeException e) {
+            for (Change failed : group) {
+                failed.result.setException(e);
+            }
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            //another writer added or deleted the user before the changes were saved
+            final boolean conflict = batch.getConflicts().contains(group.get(i).username);
+            group.get(i).result.set(results.get(i) && !conflict);
+        }
+    }
+
+    private enum ChangeType {
+        ADD, UPDATE, DELETE
+    }
+
+    private static class Change {
+
+        private final ChangeType type;
+        private final String username;
+        private final ListenableFuture<String> entry;
+        private final SettableFuture<Boolean> result = SettableFuture.create();
+
+        private Change(final ChangeType type, final String username, final ListenableFuture<String> entry) {
+            this.type = type;
+            this.username = username;
+            this.entry = entry;
+        }
+    }
+
+    private static ExecutorService newHashExecutor() {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * HASH_QUEUE_SIZE_PER_THREAD),
+                new ThreadFactoryBuilder().setNameFormat("credential-store-hash-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.store;
+
+import com.dcsquare.fileauthplugin.utility.properties.UserFilter;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Asynchronous access to the users of a credential file.
+ * <p/>
+ * Operations take effect in the order they were called, so an operation sees all changes of operations called before
+ * it, even if their futures are not done yet. A change is only done after it was saved.
+ */
+public interface CredentialStore extends Closeable {
+
+    /**
+     * @param username username
+     * @param password plaintext password, hashed as configured
+     * @return true, if the user was added, false if the user already exists
+     */
+    ListenableFuture<Boolean> addUser(String username, String password);
+
+    /**
+     * @param username username
+     * @param password new plaintext password, hashed as configured
+     * @return true, if the user was updated, false if the user doesn't exist
+     */
+    ListenableFuture<Boolean> updateUser(String username, String password);
+
+    /**
+     * @param username username
+     * @return true, if the user was deleted, false if the user doesn't exist
+     */
+    ListenableFuture<Boolean> deleteUser(String username);
+
+    /**
+     * @param username username
+     * @return entry of the user in the credential file, <code>null</code> if the user doesn't exist
+     */
+    ListenableFuture<String> getPassword(String username);
+
+    /**
+     * @param filter selects the listed users
+     * @return usernames matching the filter
+     */
+    ListenableFuture<List<String>> listUsers(UserFilter filter);
+
+    /**
+     * Stops accepting operations. Operations called before are still completed.
+     */
+    @Override
+    void close();
+}
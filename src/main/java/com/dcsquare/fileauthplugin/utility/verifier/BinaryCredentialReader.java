@@ -0,0 +1,226 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.verifier;
+
+import com.dcsquare.fileauthplugin.utility.hashing.ModularCrypt;
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordHasher;
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * Looks up users in a binary credential file written by {@link BinaryCredentialWriter}, e.g. on a broker which
+ * would otherwise parse the text credential file on every start.
+ * <p/>
+ * The file is memory-mapped as a whole and nothing is parsed: a lookup is a binary search over the record offsets,
+ * which compares the username bytes in place, and a check hashes the password with the salt, algorithm and iterations
+ * stored in the record of the user.
+ * <p/>
+ * Layout, all numbers big endian:
+ * <pre>
+ * header      int magic, int version, int entries, int algorithms, int offsets start, int records start
+ * algorithms  per algorithm: short length, UTF-8 name
+ * offsets     per entry: int offset of its record, sorted by the unsigned UTF-8 bytes of the username
+ * records     per entry: short length, UTF-8 username, byte kind, byte algorithm index, int iterations,
+ *             short length, salt, short length, hash
+ * trailer     long CRC32 of everything before
+ * </pre>
+ * Entries in the modular crypt format are stored as a whole in the hash field, without an algorithm.
+ * Instances are thread-safe.
+ */
+public class BinaryCredentialReader {
+
+    static final int MAGIC = 0x43524442;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int TRAILER_SIZE = 8;
+
+    static final byte KIND_PLAIN = 0;
+    static final byte KIND_DIGEST = 1;
+    static final byte KIND_MODULAR_CRYPT = 2;
+    static final byte KIND_MALFORMED = 3;
+
+    /**
+     * algorithm index of records without an algorithm
+     */
+    static final int NO_ALGORITHM = 0xff;
+
+    private static final int NOT_FOUND = -1;
+
+    private final ByteBuffer buffer;
+    private final int entries;
+    private final String[] algorithms;
+    private final int offsetsStart;
+
+    private BinaryCredentialReader(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        entries = buffer.getInt(8);
+        algorithms = new String[buffer.getInt(12)];
+        offsetsStart = buffer.getInt(16);
+        int position = HEADER_SIZE;
+        for (int i = 0; i < algorithms.length; i++) {
+            final byte[] name = new byte[buffer.getShort(position) & 0xffff];
+            position += 2;
+            get(position, name);
+            position += name.length;
+            algorithms[i] = new String(name, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * Maps a binary credential file and checks its checksum.
+     *
+     * @param file binary credential file
+     * @return reader for the file
+     * @throws IOException is thrown if the file cannot be mapped or is no valid binary credential file
+     */
+    public static BinaryCredentialReader open(final File file) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + TRAILER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid binary credential file " + file.getAbsolutePath());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Invalid binary credential file " + file.getAbsolutePath());
+        }
+        final int checksumPosition = buffer.limit() - TRAILER_SIZE;
+        if (buffer.getLong(checksumPosition) != checksum(buffer, checksumPosition)) {
+            throw new IOException("Checksum mismatch in binary credential file " + file.getAbsolutePath());
+        }
+        return new BinaryCredentialReader(buffer);
+    }
+
+    /**
+     * @return amount of users
+     */
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * @param username username
+     * @return true, if the user exists
+     */
+    public boolean contains(final String username) {
+        return find(username.getBytes(Charsets.UTF_8)) != NOT_FOUND;
+    }
+
+    /**
+     * Checks the password of a user.
+     *
+     * @param username username
+     * @param password plaintext password
+     * @return true, if the user exists and the password matches
+     */
+    public boolean verify(final String username, final String password) {
+        final int record = find(username.getBytes(Charsets.UTF_8));
+        if (record == NOT_FOUND) {
+            return false;
+        }
+        int position = record + 2 + (buffer.getShort(record) & 0xffff);
+        final byte kind = buffer.get(position);
+        final int algorithm = buffer.get(position + 1) & 0xff;
+        final int iterations = buffer.getInt(position + 2);
+        position += 6;
+        final byte[] salt = new byte[buffer.getShort(position) & 0xffff];
+        get(position + 2, salt);
+        position += 2 + salt.length;
+        final byte[] hash = new byte[buffer.getShort(position) & 0xffff];
+        get(position + 2, hash);
+
+        switch (kind) {
+            case KIND_PLAIN:
+                return MessageDigest.isEqual(hash, password.getBytes(Charsets.UTF_8));
+            case KIND_DIGEST:
+                return MessageDigest.isEqual(hash, PasswordHasher.getHasher(algorithms[algorithm], iterations).digest(password, salt));
+            case KIND_MODULAR_CRYPT:
+                return ModularCrypt.verify(password, new String(hash, Charsets.US_ASCII));
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Binary search over the offsets, the usernames are compared byte by byte in the mapping.
+     *
+     * @return offset of the record of the user, -1 if the user doesn't exist
+     */
+    private int find(final byte[] username) {
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int record = buffer.getInt(offsetsStart + middle * 4);
+            final int compared = compare(record, username);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return record;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Compares the username of a record with the given one by their unsigned bytes, like {@link BinaryCredentialWriter}
+     * sorts them.
+     */
+    private int compare(final int record, final byte[] username) {
+        final int length = buffer.getShort(record) & 0xffff;
+        final int start = record + 2;
+        final int common = Math.min(length, username.length);
+        for (int i = 0; i < common; i++) {
+            final int difference = (buffer.get(start + i) & 0xff) - (username[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - username.length;
+    }
+
+    private void get(final int position, final byte[] target) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.get(target);
+    }
+
+    static long checksum(final ByteBuffer buffer, final int length) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(0).limit(length);
+        final byte[] chunk = new byte[64 * 1024];
+        while (duplicate.hasRemaining()) {
+            final int size = Math.min(chunk.length, duplicate.remaining());
+            duplicate.get(chunk, 0, size);
+            crc.update(chunk, 0, size);
+        }
+        return crc.getValue();
+    }
+}
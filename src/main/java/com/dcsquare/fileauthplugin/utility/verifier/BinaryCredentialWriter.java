@@ -0,0 +1,173 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.verifier;
+
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordVerifier;
+import com.dcsquare.fileauthplugin.utility.hashing.StoredPassword;
+import com.dcsquare.fileauthplugin.utility.properties.AtomicFileOutputStream;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static com.dcsquare.fileauthplugin.utility.verifier.BinaryCredentialReader.*;
+
+/**
+ * Compiles the users of a credential file into a binary credential file for the {@link BinaryCredentialReader}.
+ * <p/>
+ * Every entry is parsed once with the hashing configuration, so the reader doesn't need the configuration and
+ * doesn't decode anything. The file is replaced atomically.
+ */
+public final class BinaryCredentialWriter {
+
+    private static final int MAX_FIELD_LENGTH = 0xffff;
+
+    private BinaryCredentialWriter() {
+    }
+
+    /**
+     * Writes all users to a binary credential file.
+     *
+     * @param target                binary credential file, which is replaced
+     * @param fileAuthConfiguration hashing configuration of the credential file
+     * @param credentialProperties  users to write
+     * @return amount of written users
+     * @throws IOException is thrown if the file cannot be written or the users don't fit into the format
+     */
+    public static int write(final File target, final FileAuthConfiguration fileAuthConfiguration,
+                            final CredentialProperties credentialProperties) throws IOException {
+        final PasswordVerifier passwordVerifier = new PasswordVerifier(fileAuthConfiguration);
+        final List<Record> records = new ArrayList<>();
+        final Iterator<String> usernames = credentialProperties.usernames();
+        while (usernames.hasNext()) {
+            final String username = usernames.next();
+            final String entry = credentialProperties.getPassword(username);
+            if (entry != null) {
+                records.add(new Record(username.getBytes(Charsets.UTF_8), passwordVerifier.parse(entry),
+                        fileAuthConfiguration.getIterations()));
+            }
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(final Record first, final Record second) {
+                return UnsignedBytes.lexicographicalComparator().compare(first.username, second.username);
+            }
+        });
+
+        final byte[] algorithm = fileAuthConfiguration.getAlgorithm().getBytes(Charsets.UTF_8);
+        final int offsetsStart = HEADER_SIZE + 2 + algorithm.length;
+        final int recordsStart = offsetsStart + records.size() * 4;
+        final int[] offsets = new int[records.size()];
+        long position = recordsStart;
+        for (int i = 0; i < records.size(); i++) {
+            offsets[i] = (int) position;
+            position += records.get(i).length();
+            if (position + TRAILER_SIZE > Integer.MAX_VALUE) {
+                throw new IOException("Too many users for a binary credential file");
+            }
+        }
+
+        try (AtomicFileOutputStream file = new AtomicFileOutputStream(target)) {
+            final CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+            final DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(records.size());
+            out.writeInt(1);
+            out.writeInt(offsetsStart);
+            out.writeInt(recordsStart);
+            writeField(out, algorithm);
+            for (final int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (final Record record : records) {
+                record.write(out);
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.commit();
+        }
+        return records.size();
+    }
+
+    private static void writeField(final DataOutputStream out, final byte[] field) throws IOException {
+        out.writeShort(field.length);
+        out.write(field);
+    }
+
+    private static class Record {
+
+        private final byte[] username;
+        private final byte kind;
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Record(final byte[] username, final StoredPassword stored, final int iterations) throws IOException {
+            this.username = username;
+            switch (stored.getKind()) {
+                case PLAIN:
+                    kind = KIND_PLAIN;
+                    hash = stored.getHash();
+                    break;
+                case DIGEST:
+                    kind = KIND_DIGEST;
+                    hash = stored.getHash();
+                    break;
+                case MODULAR_CRYPT:
+                    kind = KIND_MODULAR_CRYPT;
+                    hash = stored.getEntry().getBytes(Charsets.US_ASCII);
+                    break;
+                default:
+                    kind = KIND_MALFORMED;
+                    hash = new byte[0];
+            }
+            this.iterations = kind == KIND_DIGEST ? iterations : 0;
+            salt = kind == KIND_DIGEST ? stored.getSalt() : new byte[0];
+            if (username.length > MAX_FIELD_LENGTH || salt.length > MAX_FIELD_LENGTH || hash.length > MAX_FIELD_LENGTH) {
+                throw new IOException("Entry of user " + new String(username, Charsets.UTF_8) + " is too long for a binary credential file");
+            }
+        }
+
+        private long length() {
+            return 2 + username.length + 1 + 1 + 4 + 2 + salt.length + 2 + hash.length;
+        }
+
+        private void write(final DataOutputStream out) throws IOException {
+            writeField(out, username);
+            out.writeByte(kind);
+            out.writeByte(kind == KIND_DIGEST ? 0 : NO_ALGORITHM);
+            out.writeInt(iterations);
+            writeField(out, salt);
+            writeField(out, hash);
+        }
+    }
+}
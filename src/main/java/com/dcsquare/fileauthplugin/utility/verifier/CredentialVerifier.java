@@ -0,0 +1,226 @@
+/*
+ *
+ *  * Copyright 2013 dc-square GmbH
+ *  *
+ *  *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  *  you may not use this file except in compliance with the License.
+ *  *  You may obtain a copy of the License at
+ *  *
+ *  *        http://www.apache.org/licenses/LICENSE-2.0
+ *  *
+ *  *  Unless required by applicable law or agreed to in writing, software
+ *  *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  *  See the License for the specific language governing permissions and
+ *  *  limitations under the License.
+ *
+ */
+
+package com.dcsquare.fileauthplugin.utility.verifier;
+
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordVerifier;
+import com.dcsquare.fileauthplugin.utility.hashing.SaltGenerator;
+import com.dcsquare.fileauthplugin.utility.hashing.StoredPassword;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.configuration.ConfigurationException;
+import org.jasypt.exceptions.EncryptionInitializationException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks username and password against the users of a credential file with the same rules as the utility and the
+ * File Authentication Plugin, for embedding in broker side authentication code.
+ * <p/>
+ * The credential file is only read, never created, split into shards or compacted, but its shards and, if enabled,
+ * its journal are taken into account.
+ * The entries are parsed once when they are loaded, so salt and hash are not decoded for every check. Successful
+ * checks are cached for <code>verifier.cache.ttl</code> seconds, up to <code>verifier.cache.size</code> checks, so
+ * clients which reconnect with the same password don't cost a full password hash every time. The cache is keyed by an
+ * HMAC of username and password with a random key of this instance, the plaintext password is never kept.
+ * A changed or deleted entry invalidates its cached checks.
+ * <pre>
+ * final CredentialVerifier verifier = CredentialVerifier.open("/opt/hivemq/plugins/fileAuthConfiguration.properties");
+ * if (verifier.verify(username, password)) {
+ *     ...
+ * }
+ * </pre>
+ * Instances are thread-safe.
+ */
+public class CredentialVerifier {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_KEY_SIZE_BYTES = 32;
+
+    private final FileAuthConfiguration fileAuthConfiguration;
+    private final PasswordVerifier passwordVerifier;
+    private final Cache<ByteBuffer, StoredPassword> verified;
+    private final ThreadLocal<Mac> macs;
+    private volatile Map<String, StoredPassword> credentials = new ConcurrentHashMap<>();
+
+    public CredentialVerifier(final FileAuthConfiguration fileAuthConfiguration) {
+        this(fileAuthConfiguration, Ticker.systemTicker());
+    }
+
+    CredentialVerifier(final FileAuthConfiguration fileAuthConfiguration, final Ticker ticker) {
+        this.fileAuthConfiguration = fileAuthConfiguration;
+        passwordVerifier = new PasswordVerifier(fileAuthConfiguration);
+        verified = CacheBuilder.newBuilder()
+                .maximumSize(fileAuthConfiguration.getVerifierCacheSize())
+                .expireAfterWrite(fileAuthConfiguration.getVerifierCacheTtl(), TimeUnit.SECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+
+        final SecretKeySpec key = new SecretKeySpec(SaltGenerator.nextBytes(MAC_KEY_SIZE_BYTES), MAC_ALGORITHM);
+        //fail fast if the MAC is not available
+        createMac(key);
+        macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                return createMac(key);
+            }
+        };
+    }
+
+    /**
+     * Creates a verifier with the given configuration and loads the users of its credential file.
+     *
+     * @param configFileName path of the fileAuthConfiguration.properties
+     * @return verifier for the users of the credential file
+     * @throws IOException            is thrown if the configuration or the credential file cannot be read
+     * @throws ConfigurationException is thrown if the configuration is invalid
+     */
+    public static CredentialVerifier open(final String configFileName) throws IOException, ConfigurationException {
+        final FileAuthConfiguration fileAuthConfiguration = new FileAuthConfiguration(configFileName);
+        final CredentialVerifier verifier = new CredentialVerifier(fileAuthConfiguration);
+        verifier.load(new File(new File(configFileName).getParent(), fileAuthConfiguration.getCredentialFileName()));
+        return verifier;
+    }
+
+    /**
+     * Replaces all users with the ones of a credential file. The file is only read, its shards and, if the journal is
+     * enabled in the configuration, the journals are taken into account.
+     *
+     * @param credentialFile credential file
+     * @return amount of loaded users
+     * @throws IOException is thrown if the file cannot be read
+     */
+    public int load(final File credentialFile) throws IOException {
+        final Map<String, String> entries = CredentialProperties.read(credentialFile, fileAuthConfiguration.getCompactionPolicy() != null);
+        final Map<String, StoredPassword> loaded = new ConcurrentHashMap<>(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            loaded.put(entry.getKey(), passwordVerifier.parse(entry.getValue()));
+        }
+        credentials = loaded;
+        return loaded.size();
+    }
+
+    /**
+     * Replaces all users with the ones of loaded credential properties, including the changes of their journal.
+     *
+     * @param credentialProperties credential properties
+     * @return amount of loaded users
+     */
+    public int load(final CredentialProperties credentialProperties) {
+        final Map<String, StoredPassword> loaded = new ConcurrentHashMap<>();
+        final Iterator<String> usernames = credentialProperties.usernames();
+        while (usernames.hasNext()) {
+            final String username = usernames.next();
+            final String entry = credentialProperties.getPassword(username);
+            if (entry != null) {
+                loaded.put(username, passwordVerifier.parse(entry));
+            }
+        }
+        credentials = loaded;
+        return loaded.size();
+    }
+
+    /**
+     * Adds a user or changes the entry of a user.
+     *
+     * @param username username
+     * @param entry    entry of the user in the credential file
+     */
+    public void put(final String username, final String entry) {
+        credentials.put(username, passwordVerifier.parse(entry));
+    }
+
+    /**
+     * @param username username
+     */
+    public void remove(final String username) {
+        credentials.remove(username);
+    }
+
+    /**
+     * Checks the password of a user.
+     *
+     * @param username username
+     * @param password plaintext password
+     * @return true, if the user exists and the password matches its entry
+     */
+    public boolean verify(final String username, final String password) {
+        final StoredPassword stored = credentials.get(username);
+        if (stored == null) {
+            return false;
+        }
+        final ByteBuffer key = ByteBuffer.wrap(mac(username, password));
+        //an entry changed since the check was cached is a different instance
+        if (verified.getIfPresent(key) == stored) {
+            return true;
+        }
+        if (!passwordVerifier.verify(password, stored)) {
+            return false;
+        }
+        verified.put(key, stored);
+        return true;
+    }
+
+    /**
+     * Forgets all cached checks, e.g. after the hashing configuration changed.
+     */
+    public void invalidateCache() {
+        verified.invalidateAll();
+    }
+
+    /**
+     * @return hits and misses of the cached checks
+     */
+    public CacheStats getCacheStats() {
+        return verified.stats();
+    }
+
+    private byte[] mac(final String username, final String password) {
+        final Mac mac = macs.get();
+        final byte[] usernameBytes = username.getBytes(Charsets.UTF_8);
+        //the length keeps "ab" + "c" and "a" + "bc" apart
+        mac.update(ByteBuffer.allocate(4).putInt(usernameBytes.length).array());
+        mac.update(usernameBytes);
+        return mac.doFinal(password.getBytes(Charsets.UTF_8));
+    }
+
+    private static Mac createMac(final SecretKeySpec key) {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionInitializationException(e);
+        }
+    }
+}
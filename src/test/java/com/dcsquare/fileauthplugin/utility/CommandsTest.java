@@ -2,6 +2,9 @@ package com.dcsquare.fileauthplugin.utility;
 
 import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
 import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.dcsquare.fileauthplugin.utility.properties.UserFilter;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.apache.commons.configuration.ConfigurationException;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -9,8 +12,12 @@ import org.junit.rules.TemporaryFolder;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -287,12 +294,50 @@ public class CommandsTest {
         commands = new Commands4Test("test");
         commands.credentialProperties = credentialProperties;
 
-        when(credentialProperties.show()).thenReturn(3);
+        when(credentialProperties.list(any(UserFilter.class), any(WritableByteChannel.class))).thenReturn(3);
 
-        final String message = commands.listUsers();
+        final String message = commands.listUsers(null, null, 0, -1, null, false);
         assertEquals("Listed 3 users", message);
     }
 
+    @Test
+    public void test_listUsers_to_file_and_count() throws Exception {
+        temporaryFolder.create();
+        final File file = temporaryFolder.newFile();
+        commands.credentialProperties = new CredentialProperties(file.getAbsolutePath());
+        commands.credentialProperties.addUser("device1", "test");
+        commands.credentialProperties.addUser("device2", "test");
+        commands.credentialProperties.addUser("admin", "test");
+
+        final File output = new File(temporaryFolder.getRoot(), "users.txt");
+        assertEquals("Listed 1 users to " + output.getAbsolutePath(), commands.listUsers("device", null, 1, -1, output.getAbsolutePath(), false));
+        assertEquals("device2" + System.getProperty("line.separator"), Files.toString(output, Charsets.UTF_8));
+
+        assertEquals("Counted 2 users", commands.listUsers(null, "\\d$", 0, -1, null, true));
+        assertEquals("Error: Invalid regular expression [", commands.listUsers(null, "[", 0, -1, null, true));
+    }
+
+    @Test
+    public void test_diff_and_sync() throws Exception {
+        temporaryFolder.create();
+        final File file = temporaryFolder.newFile();
+        commands.credentialProperties = new CredentialProperties(file.getAbsolutePath());
+        commands.credentialProperties.addUser("changed", "old");
+        commands.credentialProperties.addUser("deleted", "hash");
+        final File source = temporaryFolder.newFile();
+        Files.write("changed:new\nadded:hash\n", source, Charsets.UTF_8);
+
+        final File output = new File(temporaryFolder.getRoot(), "diff.txt");
+        assertEquals("Found 1 users to add, 1 to change, 1 to delete", commands.diff(source.getAbsolutePath(), output.getAbsolutePath()));
+        final List<String> lines = Files.readLines(output, Charsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertTrue(lines.containsAll(Arrays.asList("~ changed", "+ added", "- deleted")));
+
+        assertEquals("Synced with " + source.getAbsolutePath() + ": added 1, changed 1, deleted 1 users", commands.sync(source.getAbsolutePath()));
+        assertEquals("Found 0 users to add, 0 to change, 0 to delete", commands.diff(source.getAbsolutePath(), output.getAbsolutePath()));
+        assertEquals("Source file unknown not found", commands.sync("unknown"));
+    }
+
     @Test
     public void test_set_correct_salt_length() throws Exception {
         final String message = commands.setSaltLength("4");
@@ -306,6 +351,97 @@ public class CommandsTest {
         assertEquals(message, "Error: The length should be an integer, using default salt length");
     }
 
+    @Test
+    public void test_commit_without_batch() throws Exception {
+        assertEquals("No batch started", commands.commit());
+        assertEquals("No batch started", commands.rollback());
+    }
+
+    @Test
+    public void test_begin_and_commit_batch() throws Exception {
+        temporaryFolder.create();
+        final File file = temporaryFolder.newFile();
+        commands = new Commands4Test("test");
+        commands.credentialProperties = new CredentialProperties(file.getAbsolutePath());
+
+        assertEquals("Batch started, changes are saved on commit", commands.begin());
+        assertEquals("User test added", commands.addUser("test", "test"));
+        assertEquals("User test updated", commands.addOrUpdateUser("test", "test"));
+        assertEquals("Batch already started with 1 pending changes", commands.begin());
+        assertEquals(0, new CredentialProperties(file.getAbsolutePath()).show());
+
+        assertEquals("Committed 1 changes", commands.commit());
+        assertNull(commands.credentialBatch);
+        assertEquals(1, new CredentialProperties(file.getAbsolutePath()).show());
+    }
+
+    @Test
+    public void test_importUsers_refused_during_batch() throws Exception {
+        temporaryFolder.create();
+        final File file = temporaryFolder.newFile();
+        final File csv = temporaryFolder.newFile();
+        Files.write("user,password\n", csv, Charsets.UTF_8);
+        commands = new Commands4Test("test");
+        commands.credentialProperties = new CredentialProperties(file.getAbsolutePath());
+
+        commands.begin();
+        assertEquals("Commit or rollback the current batch first", commands.importUsers(csv.getAbsolutePath()));
+        assertEquals("Discarded 0 changes", commands.rollback());
+        assertFalse(commands.credentialProperties.containsUser("user"));
+    }
+
+    @Test
+    public void test_commit_reports_users_added_by_other_writer() throws Exception {
+        temporaryFolder.create();
+        final File file = temporaryFolder.newFile();
+        commands = new Commands4Test("test");
+        commands.credentialProperties = new CredentialProperties(file.getAbsolutePath());
+
+        commands.begin();
+        assertEquals("User user1 added", commands.addUser("user1", "test"));
+        assertEquals("User user2 added", commands.addUser("user2", "test"));
+        new CredentialProperties(file.getAbsolutePath()).addUser("user1", "other");
+
+        assertEquals("Committed 1 changes, not saved because another writer added or deleted the users meanwhile: user1", commands.commit());
+        assertTrue(commands.isFailed());
+        assertEquals("other", new CredentialProperties(file.getAbsolutePath()).getPassword("user1"));
+    }
+
+    @Test
+    public void test_verifyUser_and_benchmarkHash() throws Exception {
+        temporaryFolder.create();
+        final File config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\npasswordHashing.iterations:10\n", config, Charsets.UTF_8);
+        commands.configure(config.getAbsolutePath());
+        commands.addUser("test", "password");
+
+        assertEquals("Password of user test is valid", commands.verifyUser("test", "password"));
+        assertEquals("Password of user test is invalid", commands.verifyUser("test", "wrong"));
+        assertEquals("User unknown not existent", commands.verifyUser("unknown", "password"));
+
+        assertTrue(commands.benchmarkHash(10, 2).startsWith("Checked 10 passwords with 2 threads: "));
+        assertEquals("Error: Samples and threads must be greater than zero", commands.benchmarkHash(0, 1));
+    }
+
+    @Test
+    public void test_tuneHashing() throws Exception {
+        temporaryFolder.create();
+        final File config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("# hashing\nfilename:credentials.properties\npasswordHashing.iterations:10\n", config, Charsets.UTF_8);
+        commands.configure(config.getAbsolutePath());
+
+        assertTrue(commands.tuneHashing(10, false).endsWith(", saved as passwordHashing.iterations"));
+        final int iterations = new FileAuthConfiguration(config.getAbsolutePath()).getIterations();
+        assertTrue(iterations > 0);
+        assertEquals(iterations, commands.fileAuthConfiguration.getIterations());
+        assertTrue(Files.toString(config, Charsets.UTF_8).startsWith("# hashing"));
+
+        commands.addUser("test", "password");
+        assertTrue(commands.tuneHashing(10, false).endsWith(", not saved because the passwords of the existing 1 users can't be checked with other iterations, use --force to save anyway"));
+        assertEquals(iterations, new FileAuthConfiguration(config.getAbsolutePath()).getIterations());
+        assertEquals("Error: The target time should be greater than zero", commands.tuneHashing(0, true));
+    }
+
     public class Commands4Test extends Commands {
         private String hashedString;
 
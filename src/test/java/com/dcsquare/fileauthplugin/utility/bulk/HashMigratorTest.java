@@ -0,0 +1,100 @@
+package com.dcsquare.fileauthplugin.utility.bulk;
+
+import com.dcsquare.fileauthplugin.utility.hashing.BCryptHasher;
+import com.dcsquare.fileauthplugin.utility.hashing.ModularCrypt;
+import com.dcsquare.fileauthplugin.utility.hashing.ModularCryptHasher;
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordHasher;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class HashMigratorTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File credentialFile;
+    private CredentialProperties credentialProperties;
+    private ModularCryptHasher currentHasher;
+    private HashMigrator hashMigrator;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        final File config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\npasswordHashing.scheme:bcrypt\npasswordHashing.bcrypt.cost:5\n", config, Charsets.UTF_8);
+        final FileAuthConfiguration fileAuthConfiguration = new FileAuthConfiguration(config.getAbsolutePath());
+        credentialFile = new File(temporaryFolder.getRoot(), "credentials.properties");
+        credentialProperties = new CredentialProperties(credentialFile.getAbsolutePath());
+        currentHasher = ModularCrypt.create(fileAuthConfiguration);
+        hashMigrator = new HashMigrator(new Function<String, String>() {
+            @Override
+            public String apply(final String password) {
+                return currentHasher.hash(password);
+            }
+        }, fileAuthConfiguration, 2);
+    }
+
+    @Test
+    public void test_migrate() throws Exception {
+        credentialProperties.addUser("digest", PasswordHasher.hashPassword("SHA-512", "password", 10, null));
+        credentialProperties.addUser("oldCost", new BCryptHasher(4).hash("password"));
+        credentialProperties.addUser("changedPassword", new BCryptHasher(4).hash("other"));
+        final String current = currentHasher.hash("password");
+        credentialProperties.addUser("current", current);
+
+        assertEquals(3, hashMigrator.countOutdated(Collections.singletonList(credentialFile)).getOutdated());
+
+        final File checkpoint = new File(temporaryFolder.getRoot(), "migration.checkpoint");
+        final HashMigrator.Result result = hashMigrator.migrate(writeCsv("# users\ndigest,password\noldCost,password\n" +
+                "changedPassword,password\ncurrent,password\nunknown,password\ninvalid\n"), checkpoint, credentialProperties);
+
+        assertEquals(2, result.getMigrated());
+        assertEquals(1, result.getCurrent());
+        assertEquals(1, result.getMismatched());
+        assertEquals(1, result.getUnknown());
+        assertEquals(1, result.getInvalidLines());
+        assertFalse(checkpoint.exists());
+
+        final CredentialProperties saved = new CredentialProperties(credentialFile.getAbsolutePath());
+        assertTrue(currentHasher.isCurrent(saved.getPassword("digest")));
+        assertTrue(ModularCrypt.verify("password", saved.getPassword("digest")));
+        assertTrue(currentHasher.isCurrent(saved.getPassword("oldCost")));
+        assertFalse(currentHasher.isCurrent(saved.getPassword("changedPassword")));
+        assertEquals(current, saved.getPassword("current"));
+        assertEquals(1, hashMigrator.countOutdated(Collections.singletonList(credentialFile)).getOutdated());
+    }
+
+    @Test
+    public void test_resume_from_checkpoint() throws Exception {
+        final StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            credentialProperties.addUser("user" + i, "plain");
+            csv.append("user").append(i).append(",password").append('\n');
+        }
+        final File checkpoint = new File(temporaryFolder.getRoot(), "migration.checkpoint");
+        Files.write("2\n", checkpoint, Charsets.UTF_8);
+
+        final HashMigrator.Result result = hashMigrator.migrate(writeCsv(csv.toString()), checkpoint, credentialProperties);
+
+        assertEquals(2, result.getResumedLine());
+        assertEquals(2, result.getMigrated());
+        assertEquals("plain", credentialProperties.getPassword("user1"));
+        assertTrue(currentHasher.isCurrent(credentialProperties.getPassword("user2")));
+        assertTrue(currentHasher.isCurrent(credentialProperties.getPassword("user3")));
+    }
+
+    private File writeCsv(final String content) throws Exception {
+        final File csv = temporaryFolder.newFile();
+        Files.write(content, csv, Charsets.UTF_8);
+        return csv;
+    }
+}
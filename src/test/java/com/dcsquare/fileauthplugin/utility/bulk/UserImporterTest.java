@@ -0,0 +1,105 @@
+package com.dcsquare.fileauthplugin.utility.bulk;
+
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.google.common.base.Function;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class UserImporterTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File credentialFile;
+    private CredentialProperties credentialProperties;
+    private UserImporter userImporter;
+    private final AtomicInteger hashed = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        credentialFile = temporaryFolder.newFile();
+        credentialProperties = new CredentialProperties(credentialFile.getAbsolutePath());
+        userImporter = new UserImporter(new Function<String, String>() {
+            @Override
+            public String apply(final String password) {
+                hashed.incrementAndGet();
+                return "hashed-" + password;
+            }
+        }, 4);
+    }
+
+    @Test
+    public void test_import_users() throws Exception {
+        final StringBuilder csv = new StringBuilder("# username,password\n\n");
+        for (int i = 0; i < 3000; i++) {
+            csv.append("user").append(i).append(",pass").append(i).append('\n');
+        }
+        final UserImporter.Result result = userImporter.importUsers(writeCsv(csv.toString()), credentialProperties);
+
+        assertEquals(3000, result.getImported());
+        assertEquals(0, result.getSkipped());
+        assertEquals(0, result.getInvalidLines());
+
+        final PropertiesConfiguration saved = new PropertiesConfiguration(credentialFile);
+        assertEquals("hashed-pass0", saved.getString("user0"));
+        assertEquals("hashed-pass2999", saved.getString("user2999"));
+    }
+
+    @Test
+    public void test_import_skips_existing_duplicate_and_invalid_lines() throws Exception {
+        credentialProperties.addUser("existing", "old");
+
+        final UserImporter.Result result = userImporter.importUsers(
+                writeCsv("existing,new\nuser,first\nuser,second\ninvalid\n,nouser\nnopassword,\n"), credentialProperties);
+
+        assertEquals(1, result.getImported());
+        assertEquals(2, result.getSkipped());
+        assertEquals(3, result.getInvalidLines());
+
+        final PropertiesConfiguration saved = new PropertiesConfiguration(credentialFile);
+        assertEquals("old", saved.getString("existing"));
+        assertEquals("hashed-first", saved.getString("user"));
+    }
+
+    @Test
+    public void test_existing_and_duplicate_users_are_not_hashed() throws Exception {
+        credentialProperties.addUser("user0", "old");
+        final StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            csv.append("user").append(i % 2000).append(",pass").append(i).append('\n');
+        }
+
+        final UserImporter.Result result = userImporter.importUsers(writeCsv(csv.toString()), credentialProperties);
+
+        assertEquals(1999, result.getImported());
+        assertEquals(1001, result.getSkipped());
+        assertEquals(1999, hashed.get());
+        assertEquals("old", credentialProperties.getPassword("user0"));
+        assertEquals("hashed-pass1", credentialProperties.getPassword("user1"));
+    }
+
+    @Test
+    public void test_import_counts_blank_username_as_invalid() throws Exception {
+        final UserImporter.Result result = userImporter.importUsers(writeCsv("   ,secret\n\t,secret\nuser,secret\n"), credentialProperties);
+
+        assertEquals(1, result.getImported());
+        assertEquals(2, result.getInvalidLines());
+        assertFalse(credentialProperties.containsUser(""));
+    }
+
+    private File writeCsv(final String content) throws Exception {
+        final File csv = temporaryFolder.newFile();
+        final BufferedWriter bw = new BufferedWriter(new FileWriter(csv));
+        bw.write(content);
+        bw.close();
+        return csv;
+    }
+}
@@ -0,0 +1,27 @@
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HashTunerTest {
+
+    @Test
+    public void test_tune() throws Exception {
+        final HashTuner hashTuner = new HashTuner("SHA-256");
+        final int iterations = hashTuner.tune(20);
+        assertTrue(iterations > 0);
+        assertTrue(hashTuner.tune(200) > iterations);
+    }
+
+    @Test(expected = EncryptionInitializationException.class)
+    public void test_unknown_algorithm() throws Exception {
+        new HashTuner("unknown");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_target() throws Exception {
+        new HashTuner("SHA-256").tune(0);
+    }
+}
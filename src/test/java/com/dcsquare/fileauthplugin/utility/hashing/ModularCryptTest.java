@@ -0,0 +1,97 @@
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.bouncycastle.util.encoders.Hex;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class ModularCryptTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void test_pbkdf2() throws Exception {
+        final String entry = new Pbkdf2Hasher("SHA-256", 1000).hash("p\u00e4ssword");
+        assertTrue(entry.startsWith("$pbkdf2-sha256$i=1000$"));
+        assertRoundTrip(entry, "p\u00e4ssword");
+    }
+
+    @Test
+    public void test_pbkdf2_rfc6070_vector() throws Exception {
+        final String hash = ModularCrypt.encode(Hex.decode("0c60c80f961f0e71f3a9b524af6012062fe037a6"));
+        final String entry = "$pbkdf2-sha1$i=1$" + ModularCrypt.encode("salt".getBytes(Charsets.US_ASCII)) + "$" + hash;
+        assertTrue(ModularCrypt.verify("password", entry));
+        assertFalse(ModularCrypt.verify("Password", entry));
+    }
+
+    @Test
+    public void test_bcrypt() throws Exception {
+        final String entry = new BCryptHasher(4).hash("password");
+        assertTrue(entry.startsWith("$2b$04$"));
+        assertRoundTrip(entry, "password");
+        assertTrue(ModularCrypt.verify("U*U", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW"));
+    }
+
+    @Test
+    public void test_scrypt() throws Exception {
+        final String entry = new SCryptHasher(4, 8, 1).hash("password");
+        assertTrue(entry.startsWith("$scrypt$ln=4,r=8,p=1$"));
+        assertRoundTrip(entry, "password");
+    }
+
+    @Test
+    public void test_scrypt_rfc7914_vector() throws Exception {
+        final String hash = ModularCrypt.encode(Hex.decode("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162" +
+                "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"));
+        final String entry = "$scrypt$ln=10,r=8,p=16$" + ModularCrypt.encode("NaCl".getBytes(Charsets.US_ASCII)) + "$" + hash;
+        assertTrue(ModularCrypt.verify("password", entry));
+    }
+
+    @Test
+    public void test_argon2() throws Exception {
+        final String entry = new Argon2Hasher(64, 1, 1).hash("password");
+        assertTrue(entry.startsWith("$argon2id$v=19$m=64,t=1,p=1$"));
+        assertRoundTrip(entry, "password");
+    }
+
+    @Test
+    public void test_malformed_and_unknown_entries() throws Exception {
+        assertFalse(ModularCrypt.verify("password", "$unknown$a$b$c"));
+        assertFalse(ModularCrypt.verify("password", "$scrypt$ln=4$c2FsdA$aGFzaA"));
+        assertFalse(ModularCrypt.verify("password", "$argon2id$v=19$m=64,t=1,p=1$%%%$aGFzaA"));
+        assertFalse(ModularCrypt.verify("password", "$pbkdf2-md5$i=1$c2FsdA$aGFzaA"));
+        assertFalse(ModularCrypt.verify("password", "$2b$04$short"));
+        assertFalse(ModularCrypt.verify("password", "$"));
+    }
+
+    @Test(expected = EncryptionInitializationException.class)
+    public void test_invalid_cost() throws Exception {
+        new BCryptHasher(3);
+    }
+
+    @Test
+    public void test_create_from_configuration() throws Exception {
+        temporaryFolder.create();
+        final File config = temporaryFolder.newFile();
+        Files.write("filename:credentials.properties\npasswordHashing.scheme:ARGON2\npasswordHashing.argon2.memory:32\n" +
+                "passwordHashing.argon2.iterations:1\n", config, Charsets.UTF_8);
+        final FileAuthConfiguration fileAuthConfiguration = new FileAuthConfiguration(config.getAbsolutePath());
+
+        final String entry = ModularCrypt.create(fileAuthConfiguration).hash("password");
+        assertTrue(entry.startsWith("$argon2id$v=19$m=32,t=1,p=1$"));
+        assertTrue(new PasswordVerifier(fileAuthConfiguration).verify("password", entry));
+        assertTrue(new PasswordVerifier(fileAuthConfiguration).verify("password", new BCryptHasher(4).hash("password")));
+    }
+
+    private static void assertRoundTrip(final String entry, final String password) {
+        assertTrue(ModularCrypt.verify(password, entry));
+        assertFalse(ModularCrypt.verify(password + "x", entry));
+    }
+}
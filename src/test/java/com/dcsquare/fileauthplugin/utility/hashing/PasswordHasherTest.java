@@ -0,0 +1,102 @@
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.google.common.base.Charsets;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.exceptions.EncryptionInitializationException;
+import org.jasypt.salt.FixedStringSaltGenerator;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PasswordHasherTest {
+
+    @Test
+    public void test_salted_hash_is_compatible_with_jasypt() throws Exception {
+        final String salt = "someSalt";
+        assertEquals(jasyptHash("SHA-512", "password", 100, salt), PasswordHasher.hashPassword("SHA-512", "password", 100, salt));
+        assertEquals(jasyptHash("SHA-256", "p\u00e4ssw\u00f6rd", 1, salt), PasswordHasher.hashPassword("SHA-256", "p\u00e4ssw\u00f6rd", 1, salt));
+    }
+
+    @Test
+    public void test_salt_with_multibyte_characters_is_compatible_with_jasypt() throws Exception {
+        final String salt = new String(new byte[]{(byte) 0xff, 'a', (byte) 0xc3, (byte) 0xa4, (byte) 0x80}, Charsets.UTF_8);
+        assertEquals(jasyptHash("SHA-512", "password", 10, salt), PasswordHasher.hashPassword("SHA-512", "password", 10, salt));
+    }
+
+    @Test
+    public void test_printable_salt_bytes_are_compatible_with_jasypt() throws Exception {
+        final byte[] salt = SaltGenerator.nextPrintableSalt(50);
+        assertEquals(jasyptHash("SHA-512", "password", 10, new String(salt, Charsets.UTF_8)),
+                PasswordHasher.getHasher("SHA-512", 10).hash("password", salt));
+    }
+
+    @Test
+    public void test_unsalted_hash_can_be_checked_by_jasypt() throws Exception {
+        final String hash = PasswordHasher.hashPassword("SHA-512", "password", 10, null);
+        assertTrue(jasyptEncryptor("SHA-512", 10).checkPassword("password", hash));
+        assertFalse(jasyptEncryptor("SHA-512", 10).checkPassword("wrong", hash));
+    }
+
+    @Test
+    public void test_hasher_is_cached() throws Exception {
+        assertSame(PasswordHasher.getHasher("SHA-512", 10), PasswordHasher.getHasher("SHA-512", 10));
+        assertNotSame(PasswordHasher.getHasher("SHA-512", 10), PasswordHasher.getHasher("SHA-512", 11));
+    }
+
+    @Test(expected = EncryptionInitializationException.class)
+    public void test_unknown_algorithm() throws Exception {
+        PasswordHasher.hashPassword("unknown", "password", 10, "salt");
+    }
+
+    @Test
+    public void test_concurrent_hashing() throws Exception {
+        final String expected = jasyptHash("SHA-512", "password", 1000, "salt");
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        final List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(executorService.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return PasswordHasher.hashPassword("SHA-512", "password", 1000, "salt");
+                }
+            }));
+        }
+        for (Future<String> future : futures) {
+            assertEquals(expected, future.get());
+        }
+        executorService.shutdown();
+    }
+
+    private static String jasyptHash(final String algorithm, final String password, final int iterations, final String salt) {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setProvider(new BouncyCastleProvider());
+        config.setAlgorithm(algorithm);
+        config.setIterations(iterations);
+        final FixedStringSaltGenerator saltGenerator = new FixedStringSaltGenerator();
+        saltGenerator.setSalt(salt);
+        config.setSaltGenerator(saltGenerator);
+        config.setSaltSizeBytes(salt.length());
+        encryptor.setConfig(config);
+        return encryptor.encryptPassword(password);
+    }
+
+    private static ConfigurablePasswordEncryptor jasyptEncryptor(final String algorithm, final int iterations) {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setProvider(new BouncyCastleProvider());
+        config.setAlgorithm(algorithm);
+        config.setIterations(iterations);
+        encryptor.setConfig(config);
+        return encryptor;
+    }
+}
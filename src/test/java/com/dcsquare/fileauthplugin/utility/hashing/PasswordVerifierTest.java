@@ -0,0 +1,90 @@
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class PasswordVerifierTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+    }
+
+    @Test
+    public void test_salt_first() throws Exception {
+        final PasswordVerifier verifier = verifier("passwordHashing.iterations:10\n");
+        final String salt = new String(new byte[]{(byte) 0xff, 'a', 'b'}, Charsets.UTF_8);
+        final String entry = encode(salt) + "$" + PasswordHasher.hashPassword("SHA-512", "password", 10, salt);
+
+        assertTrue(verifier.verify("password", entry));
+        assertFalse(verifier.verify("wrong", entry));
+    }
+
+    @Test
+    public void test_salt_last_with_custom_separator() throws Exception {
+        final PasswordVerifier verifier = verifier("passwordHashing.iterations:5\npasswordHashing.algorithm:SHA-256\n" +
+                "passwordHashingSalt.isFirst:false\npasswordHashingSalt.separationChar:#\n");
+        final String entry = PasswordHasher.hashPassword("SHA-256", "password", 5, "salt") + "#" + encode("salt");
+
+        assertTrue(verifier.verify("password", entry));
+        assertFalse(verifier.verify("password", entry.replace('#', '$')));
+    }
+
+    @Test
+    public void test_unsalted() throws Exception {
+        final PasswordVerifier verifier = verifier("passwordHashing.iterations:10\npasswordHashingSalt.enabled:false\n");
+        final String entry = PasswordHasher.hashPassword("SHA-512", "password", 10, null);
+
+        assertTrue(verifier.verify("password", entry));
+        assertFalse(verifier.verify("wrong", entry));
+        assertFalse(verifier.verify("password", "c2hvcnQ="));
+    }
+
+    @Test
+    public void test_not_hashed() throws Exception {
+        final PasswordVerifier verifier = verifier("passwordHashing.enabled:false\n");
+
+        assertTrue(verifier.verify("password", "password"));
+        assertFalse(verifier.verify("password", "Password"));
+    }
+
+    @Test
+    public void test_malformed_entry() throws Exception {
+        final PasswordVerifier verifier = verifier("passwordHashing.iterations:10\n");
+
+        assertFalse(verifier.verify("password", "no separator"));
+        assertFalse(verifier.verify("password", "%%%$hash"));
+    }
+
+    @Test
+    public void test_parsed_entry() throws Exception {
+        final PasswordVerifier verifier = verifier("passwordHashing.iterations:10\n");
+        final StoredPassword stored = verifier.parse(encode("salt") + "$" + PasswordHasher.hashPassword("SHA-512", "password", 10, "salt"));
+
+        assertFalse(stored.isMalformed());
+        assertTrue(verifier.verify("password", stored));
+        assertFalse(verifier.verify("wrong", stored));
+        assertTrue(verifier.parse("no separator").isMalformed());
+    }
+
+    private PasswordVerifier verifier(final String configuration) throws Exception {
+        final File config = temporaryFolder.newFile();
+        Files.write("filename:credentials.properties\n" + configuration, config, Charsets.UTF_8);
+        return new PasswordVerifier(new FileAuthConfiguration(config.getAbsolutePath()));
+    }
+
+    private static String encode(final String salt) {
+        return new String(Base64.encode(salt.getBytes(Charsets.UTF_8)), Charsets.UTF_8);
+    }
+}
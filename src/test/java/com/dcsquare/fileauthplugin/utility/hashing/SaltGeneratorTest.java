@@ -0,0 +1,38 @@
+package com.dcsquare.fileauthplugin.utility.hashing;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SaltGeneratorTest {
+
+    @Test
+    public void test_next_bytes() throws Exception {
+        assertEquals(8, SaltGenerator.nextBytes(8).length);
+        assertEquals(10000, SaltGenerator.nextBytes(10000).length);
+        assertFalse(Arrays.equals(SaltGenerator.nextBytes(16), SaltGenerator.nextBytes(16)));
+    }
+
+    @Test
+    public void test_salts_are_unique_across_blocks() throws Exception {
+        final Set<String> salts = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(salts.add(new String(SaltGenerator.nextPrintableSalt(50), Charsets.US_ASCII)));
+        }
+    }
+
+    @Test
+    public void test_printable_salt_survives_string_conversion() throws Exception {
+        final byte[] salt = SaltGenerator.nextPrintableSalt(50);
+        final String string = new String(salt, Charsets.UTF_8);
+        assertEquals(50, string.length());
+        assertTrue(string.matches("[A-Za-z0-9+/]{50}"));
+        assertArrayEquals(salt, string.getBytes(Charsets.UTF_8));
+        assertArrayEquals(salt, string.getBytes(Charsets.ISO_8859_1));
+    }
+}
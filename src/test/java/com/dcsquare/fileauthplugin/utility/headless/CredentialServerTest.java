@@ -0,0 +1,161 @@
+package com.dcsquare.fileauthplugin.utility.headless;
+
+import com.dcsquare.fileauthplugin.utility.Commands;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CredentialServerTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private CredentialServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        final File config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\npasswordHashing.enabled:false\n", config, Charsets.UTF_8);
+        temporaryFolder.newFile("credentials.properties");
+
+        final Commands commands = new Commands();
+        commands.configure(config.getAbsolutePath());
+        server = new CredentialServer(commands, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void test_pipelined_requests() throws Exception {
+        final List<String> responses = send("addUser --username user1 --password pass1\n" +
+                "addUser --username user2 --password pass2\n" +
+                "addUser --username user1 --password pass\n" +
+                "updateUser --username user2 --password new\n" +
+                "deleteUser --username unknown\n" +
+                "listUsers --prefix user\n" +
+                "begin\n" +
+                "unknownCommand\n" +
+                "\n", 9);
+
+        assertEquals("OK 1\nUser user1 added", responses.get(0));
+        assertEquals("OK 1\nUser user2 added", responses.get(1));
+        assertEquals("ERROR 1\nUsername user1 already taken", responses.get(2));
+        assertEquals("OK 1\nUser user2 updated", responses.get(3));
+        assertEquals("ERROR 1\nUser unknown not existent", responses.get(4));
+        assertEquals("OK 3\nListed 2 users\nuser1\nuser2", responses.get(5));
+        assertEquals("ERROR 1\nCommand begin is not available in server mode", responses.get(6));
+        assertEquals("ERROR 1\nUnknown command unknownCommand", responses.get(7));
+        assertEquals("ERROR 1\nEmpty request", responses.get(8));
+
+        final PropertiesConfiguration saved = new PropertiesConfiguration(new File(temporaryFolder.getRoot(), "credentials.properties"));
+        assertEquals("pass1", saved.getString("user1"));
+        assertEquals("new", saved.getString("user2"));
+    }
+
+    @Test
+    public void test_concurrent_connections() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        final List<Future<List<String>>> futures = new ArrayList<>();
+        for (int client = 0; client < 4; client++) {
+            final StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                requests.append("addUser --username user").append(client).append('-').append(i).append(" --password pass\n");
+            }
+            futures.add(executorService.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws Exception {
+                    return send(requests.toString(), 500);
+                }
+            }));
+        }
+        for (Future<List<String>> future : futures) {
+            for (String response : future.get()) {
+                assertTrue(response, response.startsWith("OK 1\nUser user"));
+            }
+        }
+        executorService.shutdown();
+
+        assertEquals(Collections.singletonList("OK 1\nCounted 2000 users"), send("listUsers --count\n", 1));
+    }
+
+    @Test
+    public void test_multi_line_results_are_framed() throws Exception {
+        final File source = temporaryFolder.newFile("source.properties");
+        Files.write("user1=other\nuser3=pass3\n", source, Charsets.UTF_8);
+
+        final List<String> responses = send("addUser --username user1 --password pass1\n" +
+                "addUser --username user2 --password pass2\n" +
+                "stats\n" +
+                "diff --source " + source.getAbsolutePath() + "\n" +
+                "listUsers --count\n", 5);
+
+        final String[] stats = responses.get(2).split("\n");
+        assertEquals("OK " + (stats.length - 1), stats[0]);
+        assertTrue(stats.length > 2);
+        assertEquals("OK 4\n" +
+                "Found 1 users to add, 1 to change, 1 to delete\n" +
+                "+ user3\n" +
+                "- user2\n" +
+                "~ user1", sorted(responses.get(3)));
+        assertEquals("OK 1\nCounted 2 users", responses.get(4));
+    }
+
+    /**
+     * @return the responses, each with its status line and the lines which follow it
+     */
+    private List<String> send(final String requests, final int expectedResponses) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getByName(null), server.getPort())) {
+            final Writer writer = new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8);
+            writer.write(requests);
+            writer.flush();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+            final List<String> responses = new ArrayList<>();
+            for (int i = 0; i < expectedResponses; i++) {
+                final String status = reader.readLine();
+                final StringBuilder response = new StringBuilder(status);
+                final int lines = Integer.parseInt(status.substring(status.indexOf(' ') + 1));
+                for (int line = 0; line < lines; line++) {
+                    response.append('\n').append(reader.readLine());
+                }
+                responses.add(response.toString());
+            }
+            return responses;
+        }
+    }
+
+    /**
+     * @return the response with the lines after the result message sorted
+     */
+    private static String sorted(final String response) {
+        final List<String> lines = new ArrayList<>(Arrays.asList(response.split("\n")));
+        final List<String> output = lines.subList(2, lines.size());
+        Collections.sort(output);
+        return Joiner.on('\n').join(lines);
+    }
+}
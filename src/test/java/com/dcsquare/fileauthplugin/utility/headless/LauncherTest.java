@@ -0,0 +1,114 @@
+package com.dcsquare.fileauthplugin.utility.headless;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+public class LauncherTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File config;
+    private ByteArrayOutputStream output;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\npasswordHashing.enabled:false\n", config, Charsets.UTF_8);
+        temporaryFolder.newFile("credentials.properties");
+        output = new ByteArrayOutputStream();
+    }
+
+    @Test
+    public void test_run_command_from_arguments() throws Exception {
+        final int exitCode = run("", "--config", config.getAbsolutePath(), "add-user", "--username", "user", "--password", "pass");
+
+        assertEquals(0, exitCode);
+        assertEquals("User user added\n", output());
+        assertEquals("pass", new PropertiesConfiguration(new File(temporaryFolder.getRoot(), "credentials.properties")).getString("user"));
+    }
+
+    @Test
+    public void test_rejected_command_exits_with_failure() throws Exception {
+        assertEquals(0, run("", "--config", config.getAbsolutePath(), "addUser", "--username", "a", "--password", "b"));
+        assertEquals(1, run("", "--config", config.getAbsolutePath(), "addUser", "--username", "a", "--password", "c"));
+
+        assertEquals("User a added\nUsername a already taken\n", output());
+        assertEquals("b", new PropertiesConfiguration(new File(temporaryFolder.getRoot(), "credentials.properties")).getString("a"));
+    }
+
+    @Test
+    public void test_rejected_command_from_stdin_exits_with_failure() throws Exception {
+        assertEquals(1, run("addUser --username a --password b\n" +
+                "addUser --username a --password c\n" +
+                "listUsers --count\n", "--config", config.getAbsolutePath()));
+    }
+
+    @Test
+    public void test_run_commands_from_stdin() throws Exception {
+        final int exitCode = run("# comment\n" +
+                "addUser --username user1 --password \"pass word\"\n" +
+                "\n" +
+                "updateUser --username unknown --password pass\n" +
+                "listUsers --count\n" +
+                "unknownCommand\n" +
+                "deleteUser\n", "--config", config.getAbsolutePath());
+
+        assertEquals(1, exitCode);
+        assertEquals("User user1 added\n" +
+                "User unknown not existent\n" +
+                "Counted 1 users\n" +
+                "Error: Unknown command unknownCommand\n" +
+                "Error: Missing option --username\n", output());
+    }
+
+    @Test
+    public void test_stats_show_timed_commands() throws Exception {
+        run("stats --reset\n" +
+                "addUser --username user1 --password pass\n" +
+                "addUser --username user2 --password pass\n" +
+                "stats\n", "--config", config.getAbsolutePath());
+
+        //the first stats command shows the metrics of earlier tests
+        final String stats = output().substring(output().lastIndexOf("User user2 added"));
+        assertTrue(stats.matches("(?s).*command\\.addUser\\s+2\\s.*"));
+        assertTrue(stats.contains("storage.save"));
+        assertTrue(stats.contains("command.stats"));
+        assertFalse(stats.contains("command.deleteUser"));
+    }
+
+    @Test
+    public void test_config_not_found() throws Exception {
+        assertEquals(1, run("", "--config", "unknown"));
+        assertEquals("Configuration file not found\n", output());
+    }
+
+    @Test
+    public void test_configure_with_unknown_file_from_stdin_exits_with_failure() throws Exception {
+        assertEquals(1, run("configure --file unknown\n", "--config", config.getAbsolutePath()));
+        assertEquals("Configuration file not found\n", output());
+    }
+
+    @Test
+    public void test_config_missing() throws Exception {
+        assertEquals(2, run("", "--config"));
+    }
+
+    private int run(final String stdin, final String... args) throws Exception {
+        return Launcher.run(args, new ByteArrayInputStream(stdin.getBytes(Charsets.UTF_8)), new PrintStream(output, true, "UTF-8"));
+    }
+
+    private String output() throws Exception {
+        return output.toString("UTF-8").replace(System.getProperty("line.separator"), "\n");
+    }
+}
@@ -0,0 +1,37 @@
+package com.dcsquare.fileauthplugin.utility.metrics;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void test_report_shows_used_metrics() throws Exception {
+        Metrics.timer("test.report").update(1000000);
+        Metrics.counter("test.counter").inc(5);
+        Metrics.timer("test.unused");
+
+        final String report = Metrics.report();
+
+        assertTrue(report.contains("test.report"));
+        assertTrue(report.matches("(?s).*test\\.counter\\s+5\\s.*"));
+        assertFalse(report.contains("test.unused"));
+        assertSame(Metrics.timer("test.report"), Metrics.timer("test.report"));
+    }
+
+    @Test
+    public void test_jmx_export() throws Exception {
+        Metrics.timer("test.before");
+        Metrics.enableJmx();
+        Metrics.counter("test.after").inc();
+
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("com.dcsquare.fileauthplugin.utility:type=Timer,name=\"test.before\"")));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(
+                new ObjectName("com.dcsquare.fileauthplugin.utility:type=Counter,name=\"test.after\""), "Count"));
+    }
+}
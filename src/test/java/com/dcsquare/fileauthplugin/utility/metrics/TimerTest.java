@@ -0,0 +1,54 @@
+package com.dcsquare.fileauthplugin.utility.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimerTest {
+
+    @Test
+    public void test_count_total_and_max() throws Exception {
+        final Timer timer = new Timer();
+        timer.update(TimeUnit.MILLISECONDS.toNanos(1));
+        timer.update(TimeUnit.MILLISECONDS.toNanos(3));
+
+        assertEquals(2, timer.getCount());
+        assertEquals(4.0, timer.getTotalMillis(), 0.001);
+        assertEquals(2.0, timer.getMeanMillis(), 0.001);
+        assertEquals(3.0, timer.getMaxMillis(), 0.001);
+    }
+
+    @Test
+    public void test_percentiles_are_accurate_to_a_bucket() throws Exception {
+        final Timer timer = new Timer();
+        for (int i = 1; i <= 1000; i++) {
+            timer.update(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        assertEquals(0.5, timer.getP50Millis(), 0.5 * 0.25);
+        assertEquals(0.99, timer.getP99Millis(), 0.99 * 0.25);
+        assertTrue(timer.getP99Millis() <= timer.getMaxMillis());
+    }
+
+    @Test
+    public void test_context_records_once() throws Exception {
+        final Timer timer = new Timer();
+        final Timer.Context context = timer.time();
+        context.close();
+        context.close();
+        assertEquals(1, timer.getCount());
+    }
+
+    @Test
+    public void test_reset() throws Exception {
+        final Timer timer = new Timer();
+        timer.update(100);
+        timer.reset();
+
+        assertEquals(0, timer.getCount());
+        assertEquals(0.0, timer.getMaxMillis(), 0);
+        assertEquals(0.0, timer.getP99Millis(), 0);
+    }
+}
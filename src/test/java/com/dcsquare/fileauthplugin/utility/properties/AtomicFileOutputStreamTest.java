@@ -0,0 +1,58 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AtomicFileOutputStreamTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile("credentials.properties");
+        Files.write("old", file, Charsets.UTF_8);
+    }
+
+    @Test
+    public void test_commit_replaces_file() throws Exception {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+            out.write("new".getBytes(Charsets.UTF_8));
+            assertEquals("old", Files.toString(file, Charsets.UTF_8));
+            out.commit();
+        }
+        assertEquals("new", Files.toString(file, Charsets.UTF_8));
+        assertEquals(1, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void test_close_without_commit_keeps_file() throws Exception {
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+            out.write("new".getBytes(Charsets.UTF_8));
+        }
+        assertEquals("old", Files.toString(file, Charsets.UTF_8));
+        assertEquals(1, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void test_permissions_are_kept() throws Exception {
+        final Set<PosixFilePermission> permissions = EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.GROUP_READ);
+        java.nio.file.Files.setPosixFilePermissions(file.toPath(), permissions);
+        try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+            out.write("new".getBytes(Charsets.UTF_8));
+            out.commit();
+        }
+        assertEquals(permissions, java.nio.file.Files.getPosixFilePermissions(file.toPath()));
+    }
+}
@@ -0,0 +1,73 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class CompactCredentialStorageTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile();
+        Files.write("# comment\nuser1:hash1\nuser2 = hash2", file, Charsets.ISO_8859_1);
+    }
+
+    @Test
+    public void test_load() throws Exception {
+        final CompactCredentialStorage storage = new CompactCredentialStorage(file);
+        assertEquals(2, storage.size());
+        assertEquals("hash1", storage.get("user1"));
+        assertEquals("hash2", storage.get("user2"));
+        assertNull(storage.get("user3"));
+    }
+
+    @Test
+    public void test_new_users_are_appended() throws Exception {
+        final CompactCredentialStorage storage = new CompactCredentialStorage(file);
+        storage.commit(ImmutableMap.of("user3", "hash3", "us:er 4", "ha,sh\u00e44"));
+
+        assertEquals("# comment\nuser1:hash1\nuser2 = hash2\nuser3:hash3\nus\\:er\\ 4:ha\\,sh\\u00e44\n", Files.toString(file, Charsets.ISO_8859_1));
+
+        final PropertiesConfiguration saved = new PropertiesConfiguration(file);
+        assertEquals("ha,sh\u00e44", saved.getString("us:er 4"));
+        assertEquals("ha,sh\u00e44", new CompactCredentialStorage(file).get("us:er 4"));
+    }
+
+    @Test
+    public void test_update_and_delete_compact_the_file() throws Exception {
+        final CompactCredentialStorage storage = new CompactCredentialStorage(file);
+        storage.commit(ImmutableMap.of("user1", "newHash"));
+        storage.commit(Collections.<String, String>singletonMap("user2", null));
+
+        assertEquals("user1:newHash\n", Files.toString(file, Charsets.ISO_8859_1));
+        assertEquals(1, storage.size());
+    }
+
+    @Test
+    public void test_reload_reads_only_appended_lines() throws Exception {
+        Files.write("user1:hash1\n", file, Charsets.ISO_8859_1);
+        final CompactCredentialStorage storage = new CompactCredentialStorage(file);
+        assertTrue(storage.reloadChanges());
+
+        Files.append("user2:hash2\nuser1:hash3\n", file, Charsets.ISO_8859_1);
+        assertTrue(storage.reloadChanges());
+        assertEquals("hash3", storage.get("user1"));
+        assertEquals("hash2", storage.get("user2"));
+
+        new CompactCredentialStorage(file).commit(Collections.<String, String>singletonMap("user2", null));
+        assertFalse(storage.reloadChanges());
+    }
+}
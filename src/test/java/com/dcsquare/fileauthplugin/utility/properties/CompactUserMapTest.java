@@ -0,0 +1,54 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class CompactUserMapTest {
+
+    @Test
+    public void test_put_get_remove() throws Exception {
+        final CompactUserMap map = new CompactUserMap();
+        assertNull(map.put("user", "hash"));
+        assertEquals("hash", map.put("user", "newHash"));
+        assertEquals("newHash", map.get("user"));
+        assertTrue(map.containsKey("user"));
+        assertEquals(1, map.size());
+
+        assertEquals("newHash", map.remove("user"));
+        assertNull(map.remove("user"));
+        assertFalse(map.containsKey("user"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void test_grows_and_reuses_deleted_slots() throws Exception {
+        final CompactUserMap map = new CompactUserMap();
+        for (int i = 0; i < 10000; i++) {
+            map.put("user" + i, "hash" + i);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            map.remove("user" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            map.put("other" + i, "hash" + i);
+        }
+        assertEquals(15000, map.size());
+        assertNull(map.get("user0"));
+        assertEquals("hash1", map.get("user1"));
+        assertEquals("hash9999", map.get("other9999"));
+
+        final Set<String> keys = new HashSet<>();
+        final Iterator<String> iterator = map.keys();
+        while (iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        assertEquals(15000, keys.size());
+        assertTrue(keys.contains("user9999"));
+        assertFalse(keys.contains("user9998"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CredentialBatchTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+    private CredentialProperties credentialProperties;
+    private CredentialBatch batch;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile();
+        credentialProperties = new CredentialProperties(file.getAbsolutePath());
+        credentialProperties.addUser("existing", "password");
+        batch = new CredentialBatch(credentialProperties);
+    }
+
+    @Test
+    public void test_changes_are_not_saved_before_commit() throws Exception {
+        assertTrue(batch.addUser("test", "test"));
+        assertTrue(batch.updateUser("existing", "newPassword"));
+
+        final PropertiesConfiguration saved = new PropertiesConfiguration(file);
+        assertFalse(saved.containsKey("test"));
+        assertEquals("password", saved.getString("existing"));
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void test_commit() throws Exception {
+        batch.addUser("test", "test");
+        batch.updateUser("existing", "newPassword");
+        batch.addUser("deleted", "test");
+        batch.deleteUser("deleted");
+
+        assertEquals(3, batch.commit());
+        assertEquals(0, batch.size());
+
+        final PropertiesConfiguration saved = new PropertiesConfiguration(file);
+        assertEquals("test", saved.getString("test"));
+        assertEquals("newPassword", saved.getString("existing"));
+        assertFalse(saved.containsKey("deleted"));
+    }
+
+    @Test
+    public void test_pending_changes_are_visible_in_batch() throws Exception {
+        assertFalse(batch.addUser("existing", "test"));
+        assertTrue(batch.deleteUser("existing"));
+        assertFalse(batch.updateUser("existing", "test"));
+        assertTrue(batch.addUser("existing", "test"));
+        assertFalse(batch.deleteUser("unknown"));
+    }
+
+    @Test
+    public void test_rollback() throws Exception {
+        batch.deleteUser("existing");
+        assertEquals(1, batch.rollback());
+        assertEquals(0, batch.commit());
+        assertTrue(credentialProperties.containsUser("existing"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CredentialFileScannerTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile();
+    }
+
+    @Test
+    public void test_scan_entries() throws Exception {
+        Files.write("# comment\n" +
+                "  ! other comment\n" +
+                "\n" +
+                "user1:hash1\n" +
+                "user2 = hash2\n" +
+                "user3 hash3\n" +
+                "us\\:er\\ 4:ha\\,sh\\u00e4\n" +
+                "user5:first\\\n" +
+                "    second\n" +
+                "user6\n", file, Charsets.ISO_8859_1);
+
+        try (CredentialFileScanner scanner = new CredentialFileScanner(file)) {
+            assertEntry(scanner, "user1", "hash1");
+            assertEntry(scanner, "user2", "hash2");
+            assertEntry(scanner, "user3", "hash3");
+            assertEntry(scanner, "us:er 4", "ha,sh\u00e4");
+            assertEntry(scanner, "user5", "firstsecond");
+            assertEntry(scanner, "user6", "");
+            assertFalse(scanner.next());
+            assertNull(scanner.getUsername());
+        }
+    }
+
+    @Test
+    public void test_scan_file_written_by_credential_properties() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath());
+        credentialProperties.addUser("user:name", "salt$hash=");
+
+        try (CredentialFileScanner scanner = new CredentialFileScanner(file)) {
+            assertEntry(scanner, "user:name", "salt$hash=");
+            assertFalse(scanner.next());
+        }
+    }
+
+    private static void assertEntry(final CredentialFileScanner scanner, final String username, final String password) throws Exception {
+        assertTrue(scanner.next());
+        assertEquals(username, scanner.getUsername());
+        assertEquals(password, scanner.getPassword());
+    }
+}
@@ -1,27 +1,56 @@
 package com.dcsquare.fileauthplugin.utility.properties;
 
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordEncoder;
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordVerifier;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
 /**
  * @author Christian Goetz
  */
+@RunWith(Parameterized.class)
 public class CredentialPropertiesTest {
 
     CredentialProperties credentialProperties;
+    File file;
 
     TemporaryFolder temporaryFolder = new TemporaryFolder();
 
+    private final StorageEngine storageEngine;
+
+    public CredentialPropertiesTest(final StorageEngine storageEngine) {
+        this.storageEngine = storageEngine;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> storageEngines() {
+        final List<Object[]> storageEngines = new ArrayList<>();
+        for (StorageEngine storageEngine : StorageEngine.values()) {
+            storageEngines.add(new Object[]{storageEngine});
+        }
+        return storageEngines;
+    }
+
     @Before
     public void setUp() throws Exception {
         temporaryFolder.create();
-        final File file = temporaryFolder.newFile();
-        credentialProperties = new CredentialProperties(file.getAbsolutePath());
+        file = temporaryFolder.newFile();
+        credentialProperties = new CredentialProperties(file.getAbsolutePath(), storageEngine);
     }
 
     @Test
@@ -30,6 +59,148 @@ public class CredentialPropertiesTest {
         assertTrue(returnValue);
     }
 
+    @Test
+    public void test_modular_crypt_entries_with_commas_are_kept() throws Exception {
+        final FileAuthConfiguration argon2 = configuration("passwordHashing.scheme:argon2\npasswordHashing.argon2.memory:64\npasswordHashing.argon2.iterations:1\n");
+        final FileAuthConfiguration scrypt = configuration("passwordHashing.scheme:scrypt\npasswordHashing.scrypt.cost:4\n");
+        final String argon2Entry = new PasswordEncoder(argon2, PasswordEncoder.DEFAULT_SALT_LENGTH).encode("password1");
+        final String scryptEntry = new PasswordEncoder(scrypt, PasswordEncoder.DEFAULT_SALT_LENGTH).encode("password2");
+        assertTrue(argon2Entry.contains(","));
+        assertTrue(scryptEntry.contains(","));
+
+        credentialProperties.addUser("user1", argon2Entry);
+        credentialProperties.addUser("user2", scryptEntry);
+        credentialProperties.addUser("user3", "plain\\text,password");
+        assertEquals(argon2Entry, credentialProperties.getPassword("user1"));
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        assertEquals(argon2Entry, reloaded.getPassword("user1"));
+        assertEquals(scryptEntry, reloaded.getPassword("user2"));
+        assertEquals("plain\\text,password", reloaded.getPassword("user3"));
+        assertTrue(new PasswordVerifier(argon2).verify("password1", reloaded.getPassword("user1")));
+        assertTrue(new PasswordVerifier(scrypt).verify("password2", reloaded.getPassword("user2")));
+    }
+
+    @Test
+    public void test_writers_keep_changes_of_each_other() throws Exception {
+        final CredentialProperties other = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        credentialProperties.addUser("user1", "password1");
+
+        assertTrue(other.addUser("user2", "password2"));
+        assertEquals("password1", other.getPassword("user1"));
+
+        //the batch was started before user1 was deleted, only its own change is applied
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+        batch.addUser("user3", "password3");
+        other.deleteUser("user1");
+        batch.commit();
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        assertFalse(reloaded.containsUser("user1"));
+        assertEquals("password2", reloaded.getPassword("user2"));
+        assertEquals("password3", reloaded.getPassword("user3"));
+    }
+
+    @Test
+    public void test_add_of_user_added_by_other_writer_is_not_saved() throws Exception {
+        final CredentialProperties other = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+        assertTrue(batch.addUser("user1", "password1"));
+        assertTrue(batch.addUser("user2", "password2"));
+
+        assertTrue(other.addUser("user1", "other"));
+
+        assertEquals(1, batch.commit());
+        assertEquals(Collections.singleton("user1"), batch.getConflicts());
+        assertFalse(credentialProperties.addUser("user1", "password1"));
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        assertEquals("other", reloaded.getPassword("user1"));
+        assertEquals("password2", reloaded.getPassword("user2"));
+    }
+
+    @Test
+    public void test_update_of_user_deleted_by_other_writer_is_not_saved() throws Exception {
+        credentialProperties.addUser("user1", "password1");
+        credentialProperties.addUser("user2", "password2");
+        final CredentialProperties other = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+        assertTrue(batch.updateUser("user1", "changed"));
+        assertTrue(batch.updateUser("user2", "changed"));
+
+        assertTrue(other.deleteUser("user1"));
+
+        assertEquals(1, batch.commit());
+        assertEquals(Collections.singleton("user1"), batch.getConflicts());
+        assertFalse(credentialProperties.updateUser("user1", "changed"));
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        assertFalse(reloaded.containsUser("user1"));
+        assertEquals("changed", reloaded.getPassword("user2"));
+    }
+
+    @Test
+    public void test_refresh_takes_over_changes_of_other_writer() throws Exception {
+        final CredentialProperties other = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        assertFalse(credentialProperties.refresh());
+
+        other.addUser("user1", "password1");
+        assertTrue(credentialProperties.refresh());
+        assertEquals("password1", credentialProperties.getPassword("user1"));
+
+        other.updateUser("user1", "password2");
+        other.addUser("user2", "password3");
+        assertTrue(credentialProperties.refresh());
+        assertEquals("password2", credentialProperties.getPassword("user1"));
+        assertEquals("password3", credentialProperties.getPassword("user2"));
+
+        other.deleteUser("user1");
+        assertTrue(credentialProperties.refresh());
+        assertFalse(credentialProperties.containsUser("user1"));
+        assertEquals(1, credentialProperties.show());
+    }
+
+    @Test
+    public void test_watch_takes_over_changes_before_reading() throws Exception {
+        credentialProperties.watch();
+        try {
+            new CredentialProperties(file.getAbsolutePath(), storageEngine).addUser("user", "password");
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (!credentialProperties.containsUser("user") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals("password", credentialProperties.getPassword("user"));
+        } finally {
+            credentialProperties.close();
+        }
+    }
+
+    @Test
+    public void test_parallel_writers() throws Exception {
+        final CredentialProperties other = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        other.addUser("other" + i, "password");
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        thread.start();
+        for (int i = 0; i < 50; i++) {
+            credentialProperties.addUser("user" + i, "password");
+        }
+        thread.join();
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), storageEngine);
+        assertEquals(100, reloaded.list(UserFilter.ALL, null));
+    }
+
     @Test
     public void test_add_existing_user() throws Exception {
         credentialProperties.addUser("test", "test");
@@ -37,6 +208,18 @@ public class CredentialPropertiesTest {
         assertFalse(returnValue);
     }
 
+    @Test
+    public void test_add_users() throws Exception {
+        credentialProperties.addUser("test", "test");
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("test", "test1");
+        users.put("test1", "test1");
+        users.put("test2", "test2");
+        final int added = credentialProperties.addUsers(users);
+        assertEquals(2, added);
+        assertEquals(3, credentialProperties.show());
+    }
+
     @Test
     public void test_update_existing_user() throws Exception {
         credentialProperties.addUser("test", "test");
@@ -72,4 +255,39 @@ public class CredentialPropertiesTest {
         amountUsers = credentialProperties.show();
         assertEquals(2, amountUsers);
     }
+
+    @Test
+    public void test_diff_and_sync() throws Exception {
+        credentialProperties.addUser("unchanged", "hash");
+        credentialProperties.addUser("changed", "old");
+        credentialProperties.addUser("deleted", "hash");
+
+        final File source = temporaryFolder.newFile();
+        final CredentialProperties sourceProperties = new CredentialProperties(source.getAbsolutePath(), storageEngine);
+        sourceProperties.addUser("unchanged", "hash");
+        sourceProperties.addUser("changed", "new");
+        sourceProperties.addUser("added", "hash");
+
+        final CredentialDelta delta = credentialProperties.diff(source);
+        assertEquals(1, delta.getAdded());
+        assertEquals(1, delta.getChanged());
+        assertEquals(1, delta.getDeleted());
+        assertFalse(delta.getMutations().containsKey("unchanged"));
+        assertEquals(CredentialDelta.Kind.ADD, delta.getKind("added"));
+        assertEquals(CredentialDelta.Kind.CHANGE, delta.getKind("changed"));
+        assertEquals(CredentialDelta.Kind.DELETE, delta.getKind("deleted"));
+        assertNull(delta.getKind("unchanged"));
+
+        assertEquals(3, credentialProperties.sync(delta));
+        assertEquals("new", credentialProperties.getPassword("changed"));
+        assertEquals("hash", credentialProperties.getPassword("added"));
+        assertFalse(credentialProperties.containsUser("deleted"));
+        assertTrue(credentialProperties.diff(source).isEmpty());
+    }
+
+    private FileAuthConfiguration configuration(final String settings) throws Exception {
+        final File config = temporaryFolder.newFile();
+        Files.write("filename:" + config.getName() + ".credentials\n" + settings, config, Charsets.UTF_8);
+        return new FileAuthConfiguration(config.getAbsolutePath());
+    }
 }
@@ -32,6 +32,7 @@ public class FileAuthConfigurationTest {
         bw.write("passwordHashingSalt.separationChar:%" + newLine);
         bw.write("passwordHashingSalt.enabled:false" + newLine);
         bw.write("passwordHashingSalt.isFirst:false" + newLine);
+        bw.write("credentialStorage.engine:compact" + newLine);
         bw.close();
 
 
@@ -48,6 +49,7 @@ public class FileAuthConfigurationTest {
         assertEquals("%", authConfiguration.getSeparationChar());
         assertEquals(false, authConfiguration.isSalted());
         assertEquals(false, authConfiguration.isFirst());
+        assertEquals(StorageEngine.COMPACT, authConfiguration.getStorageEngine());
     }
 
     @Test
@@ -0,0 +1,164 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IndexedCredentialStorageTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile("credentials.properties");
+        indexFile = CredentialFileIndex.indexFile(file);
+        Files.write("# comment\n" +
+                "user1:hash1\r\n" +
+                "  user2 = hash2\n" +
+                "us\\:er3:hash3\n" +
+                "user4:first\\\n" +
+                "   second\n" +
+                "user1:later\n" +
+                "user5", file, Charsets.ISO_8859_1);
+    }
+
+    @Test
+    public void test_index_and_lookup() throws Exception {
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+        assertTrue(indexFile.isFile());
+        assertEquals(5, storage.size());
+        assertEquals("later", storage.get("user1"));
+        assertEquals("hash2", storage.get("user2"));
+        assertEquals("hash3", storage.get("us:er3"));
+        assertEquals("firstsecond", storage.get("user4"));
+        assertEquals("", storage.get("user5"));
+        assertFalse(storage.contains("user"));
+        assertFalse(storage.contains("user10"));
+
+        final Set<String> usernames = new HashSet<>();
+        final Iterator<String> iterator = storage.usernames();
+        while (iterator.hasNext()) {
+            usernames.add(iterator.next());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user2", "us:er3", "user4", "user5")), usernames);
+    }
+
+    @Test
+    public void test_existing_index_is_reused() throws Exception {
+        new IndexedCredentialStorage(file);
+        indexFile.setLastModified(0);
+
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+
+        assertEquals(0, indexFile.lastModified());
+        assertEquals("hash2", storage.get("user2"));
+    }
+
+    @Test
+    public void test_appended_users_keep_index_valid() throws Exception {
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+        indexFile.setLastModified(0);
+        storage.commit(ImmutableMap.of("user6", "hash6"));
+
+        assertEquals(0, indexFile.lastModified());
+        assertEquals("hash6", storage.get("user6"));
+        assertEquals(6, storage.size());
+
+        final IndexedCredentialStorage reopened = new IndexedCredentialStorage(file);
+        assertEquals(0, indexFile.lastModified());
+        assertEquals("hash6", reopened.get("user6"));
+        assertEquals("later", reopened.get("user1"));
+    }
+
+    @Test
+    public void test_outdated_index_is_rebuilt() throws Exception {
+        new IndexedCredentialStorage(file);
+        Files.write("user7:hash7\n", file, Charsets.ISO_8859_1);
+
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+
+        assertEquals(1, storage.size());
+        assertEquals("hash7", storage.get("user7"));
+        assertFalse(storage.contains("user1"));
+    }
+
+    @Test
+    public void test_same_length_change_before_end_rebuilds_index() throws Exception {
+        final StringBuilder content = new StringBuilder("user2:hash2\n");
+        for (int i = 0; i < 1000; i++) {
+            content.append("other").append(i).append(":hash\n");
+        }
+        Files.write(content, file, Charsets.ISO_8859_1);
+        new IndexedCredentialStorage(file);
+        final long lastModified = file.lastModified();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write("user9".getBytes(Charsets.ISO_8859_1));
+        }
+        file.setLastModified(lastModified + 2000);
+
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+
+        assertEquals("hash2", storage.get("user9"));
+        assertFalse(storage.contains("user2"));
+    }
+
+    @Test
+    public void test_update_and_delete_rebuild_index() throws Exception {
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+        final Map<String, String> mutations = new LinkedHashMap<>();
+        mutations.put("user2", "changed");
+        mutations.put("us:er3", null);
+        storage.commit(mutations);
+
+        assertEquals("changed", storage.get("user2"));
+        assertFalse(storage.contains("us:er3"));
+        assertTrue(Files.toString(file, Charsets.ISO_8859_1).startsWith("# comment\n"));
+
+        final IndexedCredentialStorage reopened = new IndexedCredentialStorage(file);
+        assertEquals(4, reopened.size());
+        assertEquals("changed", reopened.get("user2"));
+    }
+
+    @Test
+    public void test_large_file() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                builder.append("user").append(i).append(':').append("hash").append(i).append('\n');
+            }
+            out.write(builder.toString().getBytes(Charsets.ISO_8859_1));
+        }
+        new IndexedCredentialStorage(file);
+
+        final IndexedCredentialStorage storage = new IndexedCredentialStorage(file);
+        assertEquals(100000, storage.size());
+        for (int i = 0; i < 100000; i += 997) {
+            assertEquals("hash" + i, storage.get("user" + i));
+        }
+        for (int i = 100000; i < 200000; i++) {
+            assertFalse(storage.contains("user" + i));
+        }
+        storage.commit(Collections.<String, String>singletonMap("user5", null));
+        assertFalse(storage.contains("user5"));
+        assertEquals(99999, storage.size());
+    }
+}
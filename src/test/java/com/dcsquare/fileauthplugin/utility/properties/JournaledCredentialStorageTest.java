@@ -0,0 +1,146 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JournaledCredentialStorageTest {
+
+    private static final CompactionPolicy NEVER = new CompactionPolicy(Long.MAX_VALUE, Double.MAX_VALUE);
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile("credentials.properties");
+        Files.write("existing:hash\n", file, Charsets.UTF_8);
+        journalFile = CredentialJournal.journalFile(file);
+    }
+
+    @Test
+    public void test_changes_are_only_appended_to_journal() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 1, NEVER);
+        credentialProperties.addUser("user", "password");
+        credentialProperties.updateUser("existing", "new hash");
+        credentialProperties.deleteUser("user");
+
+        assertEquals("existing:hash\n", Files.toString(file, Charsets.UTF_8));
+        assertEquals("#sequence 0\n1 + user:password\n2 + existing:new hash\n3 - user\n", Files.toString(journalFile, Charsets.UTF_8));
+        assertEquals("new hash", credentialProperties.getPassword("existing"));
+        assertFalse(credentialProperties.containsUser("user"));
+        assertEquals(1, credentialProperties.list(UserFilter.ALL, null));
+    }
+
+    @Test
+    public void test_reload_reads_changes_appended_to_journal() throws Exception {
+        final JournaledCredentialStorage storage = new JournaledCredentialStorage(file, new CompactCredentialStorage(file), NEVER);
+        final JournaledCredentialStorage other = new JournaledCredentialStorage(file, new CompactCredentialStorage(file), NEVER);
+        other.commit(ImmutableMap.of("user", "password"));
+        other.commit(Collections.<String, String>singletonMap("existing", null));
+
+        assertTrue(storage.reloadChanges());
+        assertEquals("password", storage.get("user"));
+        assertFalse(storage.contains("existing"));
+        assertEquals(1, storage.size());
+
+        other.compact();
+        assertFalse(storage.reloadChanges());
+    }
+
+    @Test
+    public void test_journal_is_replayed_on_load() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 1, NEVER);
+        credentialProperties.addUser("user:1", "p\u00e4ssword");
+        credentialProperties.deleteUser("existing");
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 1, NEVER);
+        assertEquals("p\u00e4ssword", reloaded.getPassword("user:1"));
+        assertFalse(reloaded.containsUser("existing"));
+        assertEquals(1, reloaded.list(UserFilter.ALL, null));
+    }
+
+    @Test
+    public void test_partially_written_change_is_cut_off() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 1, NEVER);
+        credentialProperties.addUser("user", "password");
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write("2 + torn:pass".getBytes(Charsets.ISO_8859_1));
+        }
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 1, NEVER);
+        assertFalse(reloaded.containsUser("torn"));
+        reloaded.addUser("next", "password");
+
+        assertEquals("#sequence 0\n1 + user:password\n2 + next:password\n", Files.toString(journalFile, Charsets.UTF_8));
+    }
+
+    @Test
+    public void test_compaction_when_threshold_is_crossed() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 1, new CompactionPolicy(110, Double.MAX_VALUE));
+        for (int i = 0; i < 5; i++) {
+            credentialProperties.addUser("user" + i, "password");
+        }
+        assertEquals("existing:hash\n", Files.toString(file, Charsets.UTF_8));
+
+        credentialProperties.addUser("user5", "password");
+
+        assertEquals("#sequence 6\n", Files.toString(journalFile, Charsets.UTF_8));
+        assertEquals(7, new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT).list(UserFilter.ALL, null));
+    }
+
+    @Test
+    public void test_compact_merges_journal() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 1, NEVER);
+        credentialProperties.addUser("user", "password");
+
+        assertTrue(credentialProperties.compact());
+
+        assertEquals("#sequence 1\n", Files.toString(journalFile, Charsets.UTF_8));
+        assertEquals("password", new CredentialProperties(file.getAbsolutePath()).getPassword("user"));
+        assertFalse(new CredentialProperties(file.getAbsolutePath()).compact());
+    }
+
+    @Test
+    public void test_read_changes_after_sequence() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 1, NEVER);
+        credentialProperties.addUser("user1", "password1");
+        credentialProperties.addUser("user2", "password2");
+        credentialProperties.deleteUser("user1");
+
+        final List<CredentialJournal.Change> changes = CredentialJournal.read(journalFile, 1);
+        assertEquals(2, changes.size());
+        assertEquals(2, changes.get(0).getSequence());
+        assertEquals("password2", changes.get(0).getPassword());
+        assertEquals("user1", changes.get(1).getUsername());
+        assertNull(changes.get(1).getPassword());
+
+        credentialProperties.compact();
+        credentialProperties.addUser("user3", "password3");
+
+        assertNull(CredentialJournal.read(journalFile, 2));
+        assertEquals(4, CredentialJournal.read(journalFile, 3).get(0).getSequence());
+    }
+
+    @Test
+    public void test_journal_per_shard() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 2, NEVER);
+        credentialProperties.addUser("user", "password");
+
+        final File shardFile = credentialProperties.getFiles().get(ShardedCredentialStorage.shardOf("user", 2));
+        assertTrue(Files.toString(CredentialJournal.journalFile(shardFile), Charsets.UTF_8).contains("user:password"));
+        assertEquals(2, credentialProperties.list(UserFilter.ALL, null));
+    }
+}
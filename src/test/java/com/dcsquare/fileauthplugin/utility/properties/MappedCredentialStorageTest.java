@@ -0,0 +1,106 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MappedCredentialStorageTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile();
+        Files.write("# comment\n" +
+                "user1:hash1\r\n" +
+                "  user2 = hash2\n" +
+                "us\\:er3:hash3\n" +
+                "user4:first\\\n" +
+                "   second\n" +
+                "user5", file, Charsets.ISO_8859_1);
+    }
+
+    @Test
+    public void test_index_and_lookup() throws Exception {
+        final MappedCredentialStorage storage = new MappedCredentialStorage(file);
+        assertEquals(5, storage.size());
+        assertEquals("hash1", storage.get("user1"));
+        assertEquals("hash2", storage.get("user2"));
+        assertEquals("hash3", storage.get("us:er3"));
+        assertEquals("firstsecond", storage.get("user4"));
+        assertEquals("", storage.get("user5"));
+        assertFalse(storage.contains("user"));
+        assertFalse(storage.contains("user10"));
+
+        final Set<String> usernames = new HashSet<>();
+        final Iterator<String> iterator = storage.usernames();
+        while (iterator.hasNext()) {
+            usernames.add(iterator.next());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("user1", "user2", "us:er3", "user4", "user5")), usernames);
+    }
+
+    @Test
+    public void test_append_new_users() throws Exception {
+        final MappedCredentialStorage storage = new MappedCredentialStorage(file);
+        storage.commit(ImmutableMap.of("user6", "hash6", "user 7", "hash7"));
+
+        assertEquals("hash6", storage.get("user6"));
+        assertEquals("hash7", storage.get("user 7"));
+        assertEquals("hash1", storage.get("user1"));
+        assertTrue(Files.toString(file, Charsets.ISO_8859_1).endsWith("user5\nuser6:hash6\nuser\\ 7:hash7\n"));
+    }
+
+    @Test
+    public void test_rewrite_keeps_untouched_lines() throws Exception {
+        final MappedCredentialStorage storage = new MappedCredentialStorage(file);
+        final Map<String, String> mutations = new LinkedHashMap<>();
+        mutations.put("user2", "newHash2");
+        mutations.put("us:er3", null);
+        mutations.put("user6", "hash6");
+        storage.commit(mutations);
+
+        assertEquals("# comment\n" +
+                "user1:hash1\r\n" +
+                "user2:newHash2\n" +
+                "user4:first\\\n" +
+                "   second\n" +
+                "user5\n" +
+                "user6:hash6\n", Files.toString(file, Charsets.ISO_8859_1));
+        assertEquals(5, storage.size());
+        assertEquals("newHash2", storage.get("user2"));
+        assertFalse(storage.contains("us:er3"));
+    }
+
+    @Test
+    public void test_large_file() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            content.append("user").append(i).append(":hash").append(i).append('\n');
+        }
+        Files.write(content, file, Charsets.ISO_8859_1);
+
+        final MappedCredentialStorage storage = new MappedCredentialStorage(file);
+        assertEquals(100000, storage.size());
+        assertEquals("hash99999", storage.get("user99999"));
+        storage.commit(Collections.<String, String>singletonMap("user0", null));
+        assertEquals(99999, storage.size());
+        assertEquals("hash12345", storage.get("user12345"));
+    }
+}
@@ -0,0 +1,190 @@
+package com.dcsquare.fileauthplugin.utility.properties;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShardedCredentialStorageTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        file = temporaryFolder.newFile("credentials.properties");
+    }
+
+    @Test
+    public void test_shard_file_names() throws Exception {
+        final List<File> shardFiles = ShardedCredentialStorage.shardFiles(file, 3);
+
+        assertEquals("credentials.0.properties", shardFiles.get(0).getName());
+        assertEquals("credentials.2.properties", shardFiles.get(2).getName());
+        assertEquals(file.getParentFile(), shardFiles.get(1).getParentFile());
+    }
+
+    @Test
+    public void test_refresh_takes_over_changes_of_other_writer() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.MAPPED, 4);
+        final CredentialProperties other = new CredentialProperties(file.getAbsolutePath(), StorageEngine.MAPPED, 4);
+        for (int i = 0; i < 20; i++) {
+            other.addUser("user" + i, "password" + i);
+        }
+        other.deleteUser("user3");
+
+        assertTrue(credentialProperties.refresh());
+        assertEquals("password7", credentialProperties.getPassword("user7"));
+        assertFalse(credentialProperties.containsUser("user3"));
+        assertEquals(19, credentialProperties.show());
+    }
+
+    @Test
+    public void test_other_amount_of_shards_is_refused() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 4);
+        for (int i = 0; i < 20; i++) {
+            credentialProperties.addUser("user" + i, "password" + i);
+        }
+        assertEquals(4, ShardedCredentialStorage.existingShards(file));
+
+        for (int shards : new int[]{8, 2, 1}) {
+            try {
+                new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, shards);
+                fail("opened 4 shards as " + shards);
+            } catch (ConfigurationException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Set credentialStorage.shards to 4"));
+            }
+        }
+        assertEquals(20, new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 4).show());
+    }
+
+    @Test
+    public void test_shards_without_manifest_are_counted() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 4);
+        credentialProperties.addUser("user", "password");
+        assertTrue(ShardedCredentialStorage.manifestFile(file).delete());
+
+        assertEquals(4, ShardedCredentialStorage.existingShards(file));
+        try {
+            new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 2);
+            fail();
+        } catch (ConfigurationException e) {
+            //expected
+        }
+        assertEquals("password", new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 4).getPassword("user"));
+        assertTrue(ShardedCredentialStorage.manifestFile(file).exists());
+    }
+
+    @Test
+    public void test_users_are_spread_over_shards() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 4);
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+        for (int i = 0; i < 1000; i++) {
+            batch.addUser("user" + i, "password" + i);
+        }
+        batch.commit();
+
+        int users = 0;
+        for (File shardFile : credentialProperties.getFiles()) {
+            final int shardUsers = count(shardFile);
+            assertTrue(shardUsers > 150);
+            users += shardUsers;
+        }
+        assertEquals(1000, users);
+        assertEquals(0, file.length());
+
+        final CredentialProperties reloaded = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 4);
+        assertEquals("password999", reloaded.getPassword("user999"));
+        assertEquals(1000, reloaded.list(UserFilter.ALL, null));
+    }
+
+    @Test
+    public void test_change_only_rewrites_affected_shard() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.COMPACT, 4);
+        for (int i = 0; i < 20; i++) {
+            credentialProperties.addUser("user" + i, "password" + i);
+        }
+        final List<File> shardFiles = credentialProperties.getFiles();
+        final int shard = ShardedCredentialStorage.shardOf("user0", 4);
+        final String[] before = new String[4];
+        for (int i = 0; i < 4; i++) {
+            shardFiles.get(i).setLastModified(0);
+            before[i] = Files.toString(shardFiles.get(i), Charsets.UTF_8);
+        }
+
+        assertTrue(credentialProperties.updateUser("user0", "changed"));
+
+        for (int i = 0; i < 4; i++) {
+            if (i == shard) {
+                assertTrue(Files.toString(shardFiles.get(i), Charsets.UTF_8).contains("changed"));
+            } else {
+                assertEquals(0, shardFiles.get(i).lastModified());
+                assertEquals(before[i], Files.toString(shardFiles.get(i), Charsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void test_existing_credential_file_is_split() throws Exception {
+        Files.write("user1:hash1\nuser2:hash2\nuser3:hash3\n", file, Charsets.UTF_8);
+
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 2);
+
+        assertEquals(3, credentialProperties.list(UserFilter.ALL, null));
+        assertEquals("hash2", credentialProperties.getPassword("user2"));
+        assertEquals("user1:hash1\nuser2:hash2\nuser3:hash3\n", Files.toString(file, Charsets.UTF_8));
+
+        //shards exist now, so the credential file isn't copied again
+        credentialProperties.deleteUser("user2");
+        assertEquals(2, new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 2).list(UserFilter.ALL, null));
+    }
+
+    @Test
+    public void test_list_and_count_across_shards() throws Exception {
+        final CredentialProperties credentialProperties = new CredentialProperties(file.getAbsolutePath(), StorageEngine.PROPERTIES, 3);
+        final CredentialBatch batch = new CredentialBatch(credentialProperties);
+        for (int i = 0; i < 100; i++) {
+            batch.addUser("user" + i, "password");
+            batch.addUser("admin" + i, "password");
+        }
+        batch.commit();
+
+        assertEquals(200, credentialProperties.list(UserFilter.ALL, null));
+        assertEquals(100, credentialProperties.list(new UserFilter("admin", null, 0, -1), null));
+        assertEquals(3, credentialProperties.list(new UserFilter("admin", null, 97, 10), null));
+
+        final ByteArrayOutputStream all = new ByteArrayOutputStream();
+        credentialProperties.list(new UserFilter("user", null, 0, -1), Channels.newChannel(all));
+        final String[] users = new String(all.toByteArray(), Charsets.UTF_8).split("\n");
+        assertEquals(100, users.length);
+
+        final ByteArrayOutputStream page = new ByteArrayOutputStream();
+        assertEquals(10, credentialProperties.list(new UserFilter("user", null, 45, 10), Channels.newChannel(page)));
+        final String[] pageUsers = new String(page.toByteArray(), Charsets.UTF_8).split("\n");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(users[45 + i], pageUsers[i]);
+        }
+    }
+
+    private static int count(final File shardFile) throws Exception {
+        int users = 0;
+        final Iterator<String> keys = new PropertiesConfiguration(shardFile).getKeys();
+        while (keys.hasNext()) {
+            keys.next();
+            users++;
+        }
+        return users;
+    }
+}
@@ -0,0 +1,85 @@
+package com.dcsquare.fileauthplugin.utility.store;
+
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordVerifier;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.dcsquare.fileauthplugin.utility.properties.UserFilter;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncCredentialStoreTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    File config;
+    AsyncCredentialStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\npasswordHashing.iterations:10\n", config, Charsets.UTF_8);
+        store = AsyncCredentialStore.open(config.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void test_add_update_delete() throws Exception {
+        assertTrue(store.addUser("user", "password").get());
+        assertFalse(store.addUser("user", "other").get());
+        final PasswordVerifier verifier = new PasswordVerifier(new FileAuthConfiguration(config.getAbsolutePath()));
+        assertTrue(verifier.verify("password", store.getPassword("user").get()));
+
+        assertTrue(store.updateUser("user", "other").get());
+        assertFalse(store.updateUser("unknown", "other").get());
+        assertTrue(verifier.verify("other", store.getPassword("user").get()));
+
+        assertTrue(store.deleteUser("user").get());
+        assertFalse(store.deleteUser("user").get());
+        assertNull(store.getPassword("user").get());
+    }
+
+    @Test
+    public void test_operations_take_effect_in_call_order() throws Exception {
+        final ListenableFuture<Boolean> added = store.addUser("user", "password");
+        final ListenableFuture<Boolean> deleted = store.deleteUser("user");
+        final ListenableFuture<Boolean> addedAgain = store.addUser("user", "other");
+        final ListenableFuture<String> password = store.getPassword("user");
+
+        assertEquals(Arrays.asList(true, true, true), Futures.allAsList(Arrays.asList(added, deleted, addedAgain)).get());
+        assertNotNull(password.get());
+    }
+
+    @Test
+    public void test_concurrent_changes_are_saved() throws Exception {
+        final List<ListenableFuture<Boolean>> added = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            added.add(store.addUser("user" + i, "password" + i));
+        }
+        for (Boolean result : Futures.allAsList(added).get()) {
+            assertTrue(result);
+        }
+
+        assertEquals(200, store.listUsers(UserFilter.ALL).get().size());
+        assertEquals(Arrays.asList("user10", "user100"), store.listUsers(new UserFilter("user10", null, 0, 2)).get());
+
+        final CredentialProperties reloaded = new CredentialProperties(new File(temporaryFolder.getRoot(), "credentials.properties").getAbsolutePath());
+        assertTrue(reloaded.containsUser("user199"));
+    }
+}
@@ -0,0 +1,127 @@
+package com.dcsquare.fileauthplugin.utility.verifier;
+
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordEncoder;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class BinaryCredentialReaderTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    File binary;
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        binary = new File(temporaryFolder.getRoot(), "credentials.bin");
+    }
+
+    @Test
+    public void test_salted_digest() throws Exception {
+        final BinaryCredentialReader reader = export("passwordHashing.iterations:10\n");
+
+        assertEquals(3, reader.size());
+        assertTrue(reader.contains("user1"));
+        assertTrue(reader.verify("user1", "password1"));
+        assertTrue(reader.verify("user2", "password2"));
+        assertTrue(reader.verify("\u00e4user", "p\u00e4ssword"));
+        assertFalse(reader.verify("user1", "password2"));
+    }
+
+    @Test
+    public void test_unsalted_digest_and_salt_last() throws Exception {
+        assertTrue(export("passwordHashing.iterations:10\npasswordHashingSalt.enabled:false\n").verify("user1", "password1"));
+        assertTrue(export("passwordHashing.iterations:10\npasswordHashingSalt.isFirst:false\n").verify("user2", "password2"));
+    }
+
+    @Test
+    public void test_plaintext() throws Exception {
+        final BinaryCredentialReader reader = export("passwordHashing.enabled:false\n");
+
+        assertTrue(reader.verify("user1", "password1"));
+        assertFalse(reader.verify("user1", "password"));
+    }
+
+    @Test
+    public void test_modular_crypt() throws Exception {
+        final BinaryCredentialReader reader = export("passwordHashing.scheme:bcrypt\npasswordHashing.bcrypt.cost:4\n");
+
+        assertTrue(reader.verify("user1", "password1"));
+        assertFalse(reader.verify("user1", "password2"));
+    }
+
+    @Test
+    public void test_unknown_user() throws Exception {
+        final BinaryCredentialReader reader = export("passwordHashing.iterations:10\n");
+
+        assertFalse(reader.contains("user"));
+        assertFalse(reader.contains("user10"));
+        assertFalse(reader.contains(""));
+        assertFalse(reader.verify("user3", "password1"));
+    }
+
+    @Test
+    public void test_empty_credential_file() throws Exception {
+        final FileAuthConfiguration configuration = configuration("passwordHashing.iterations:10\n");
+        final CredentialProperties credentialProperties = credentialProperties(configuration);
+
+        assertEquals(0, BinaryCredentialWriter.write(binary, configuration, credentialProperties));
+
+        final BinaryCredentialReader reader = BinaryCredentialReader.open(binary);
+        assertEquals(0, reader.size());
+        assertFalse(reader.verify("user1", "password1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_corrupted_file_is_rejected() throws Exception {
+        export("passwordHashing.iterations:10\n");
+
+        try (RandomAccessFile file = new RandomAccessFile(binary, "rw")) {
+            file.seek(file.length() / 2);
+            final int value = file.read();
+            file.seek(file.length() / 2);
+            file.write(value ^ 0x01);
+        }
+
+        BinaryCredentialReader.open(binary);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_other_file_is_rejected() throws Exception {
+        Files.write("user1=password1\nuser2=password2\nuser3=password3\n", binary, Charsets.UTF_8);
+
+        BinaryCredentialReader.open(binary);
+    }
+
+    private BinaryCredentialReader export(final String settings) throws Exception {
+        final FileAuthConfiguration configuration = configuration(settings);
+        final CredentialProperties credentialProperties = credentialProperties(configuration);
+        final PasswordEncoder encoder = new PasswordEncoder(configuration, PasswordEncoder.DEFAULT_SALT_LENGTH);
+        credentialProperties.addUser("user1", encoder.encode("password1"));
+        credentialProperties.addUser("user2", encoder.encode("password2"));
+        credentialProperties.addUser("\u00e4user", encoder.encode("p\u00e4ssword"));
+
+        assertEquals(3, BinaryCredentialWriter.write(binary, configuration, credentialProperties));
+        return BinaryCredentialReader.open(binary);
+    }
+
+    private FileAuthConfiguration configuration(final String settings) throws Exception {
+        final File config = temporaryFolder.newFile();
+        Files.write("filename:" + config.getName() + ".credentials\n" + settings, config, Charsets.UTF_8);
+        return new FileAuthConfiguration(config.getAbsolutePath());
+    }
+
+    private CredentialProperties credentialProperties(final FileAuthConfiguration configuration) throws Exception {
+        return new CredentialProperties(new File(temporaryFolder.getRoot(), configuration.getCredentialFileName()).getAbsolutePath());
+    }
+}
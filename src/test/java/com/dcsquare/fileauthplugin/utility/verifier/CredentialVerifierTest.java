@@ -0,0 +1,170 @@
+package com.dcsquare.fileauthplugin.utility.verifier;
+
+import com.dcsquare.fileauthplugin.utility.hashing.PasswordHasher;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialJournal;
+import com.dcsquare.fileauthplugin.utility.properties.CredentialProperties;
+import com.dcsquare.fileauthplugin.utility.properties.FileAuthConfiguration;
+import com.google.common.base.Charsets;
+import com.google.common.base.Ticker;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CredentialVerifierTest {
+
+    TemporaryFolder temporaryFolder = new TemporaryFolder();
+    File config;
+    FakeTicker ticker = new FakeTicker();
+
+    @Before
+    public void setUp() throws Exception {
+        temporaryFolder.create();
+        config = temporaryFolder.newFile("fileAuthConfiguration.properties");
+        Files.write("filename:credentials.properties\npasswordHashing.iterations:10\nverifier.cache.ttl:60\n", config, Charsets.UTF_8);
+    }
+
+    @Test
+    public void test_open_loads_credential_file() throws Exception {
+        Files.write("user1=" + entry("password1") + "\nuser2=" + entry("password2") + "\n",
+                new File(temporaryFolder.getRoot(), "credentials.properties"), Charsets.UTF_8);
+
+        final CredentialVerifier verifier = CredentialVerifier.open(config.getAbsolutePath());
+
+        assertTrue(verifier.verify("user1", "password1"));
+        assertTrue(verifier.verify("user2", "password2"));
+        assertFalse(verifier.verify("user1", "password2"));
+        assertFalse(verifier.verify("user3", "password1"));
+    }
+
+    @Test
+    public void test_open_takes_journal_into_account() throws Exception {
+        Files.write("filename:credentials.properties\npasswordHashing.iterations:10\n" +
+                "credentialStorage.journal.enabled:true\ncredentialStorage.journal.compactionSize:1000000\n", config, Charsets.UTF_8);
+        final CredentialProperties credentialProperties = credentialProperties();
+        credentialProperties.addUser("user1", entry("password1"));
+        credentialProperties.addUser("user2", entry("password2"));
+        credentialProperties.updateUser("user1", entry("changed"));
+        credentialProperties.deleteUser("user2");
+        assertTrue(CredentialJournal.journalFile(new File(temporaryFolder.getRoot(), "credentials.properties")).length() > 0);
+
+        final CredentialVerifier verifier = CredentialVerifier.open(config.getAbsolutePath());
+
+        assertTrue(verifier.verify("user1", "changed"));
+        assertFalse(verifier.verify("user1", "password1"));
+        assertFalse(verifier.verify("user2", "password2"));
+    }
+
+    @Test
+    public void test_open_loads_all_shards() throws Exception {
+        Files.write("filename:credentials.properties\npasswordHashing.iterations:10\ncredentialStorage.shards:4\n", config, Charsets.UTF_8);
+        final CredentialProperties credentialProperties = credentialProperties();
+        for (int i = 0; i < 20; i++) {
+            credentialProperties.addUser("user" + i, entry("password" + i));
+        }
+
+        final CredentialVerifier verifier = CredentialVerifier.open(config.getAbsolutePath());
+
+        for (int i = 0; i < 20; i++) {
+            assertTrue(verifier.verify("user" + i, "password" + i));
+        }
+    }
+
+    @Test
+    public void test_open_does_not_change_files() throws Exception {
+        Files.write("filename:credentials.properties\npasswordHashing.iterations:10\ncredentialStorage.shards:4\n", config, Charsets.UTF_8);
+        Files.write("user1=" + entry("password1") + "\n", new File(temporaryFolder.getRoot(), "credentials.properties"), Charsets.UTF_8);
+
+        final CredentialVerifier verifier = CredentialVerifier.open(config.getAbsolutePath());
+
+        assertTrue(verifier.verify("user1", "password1"));
+        assertEquals(2, temporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void test_successful_checks_are_cached() throws Exception {
+        final CredentialVerifier verifier = verifier();
+        verifier.put("user", entry("password"));
+
+        assertTrue(verifier.verify("user", "password"));
+        assertTrue(verifier.verify("user", "password"));
+        assertFalse(verifier.verify("user", "wrong"));
+        assertFalse(verifier.verify("user", "wrong"));
+
+        assertEquals(1, verifier.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void test_changed_entry_is_not_served_from_cache() throws Exception {
+        final CredentialVerifier verifier = verifier();
+        verifier.put("user", entry("password"));
+        assertTrue(verifier.verify("user", "password"));
+
+        verifier.put("user", entry("other"));
+        assertFalse(verifier.verify("user", "password"));
+        assertTrue(verifier.verify("user", "other"));
+
+        verifier.remove("user");
+        assertFalse(verifier.verify("user", "other"));
+    }
+
+    @Test
+    public void test_cached_checks_expire() throws Exception {
+        final CredentialVerifier verifier = verifier();
+        verifier.put("user", entry("password"));
+        assertTrue(verifier.verify("user", "password"));
+
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertTrue(verifier.verify("user", "password"));
+        assertEquals(1, verifier.getCacheStats().hitCount());
+
+        ticker.advance(2, TimeUnit.SECONDS);
+        assertTrue(verifier.verify("user", "password"));
+        assertEquals(1, verifier.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void test_username_and_password_are_kept_apart() throws Exception {
+        final CredentialVerifier verifier = verifier();
+        verifier.put("ab", entry("c"));
+        verifier.put("a", entry("bc"));
+
+        assertTrue(verifier.verify("ab", "c"));
+        assertFalse(verifier.verify("a", "c"));
+        assertTrue(verifier.verify("a", "bc"));
+        assertEquals(0, verifier.getCacheStats().hitCount());
+    }
+
+    private CredentialProperties credentialProperties() throws Exception {
+        final FileAuthConfiguration configuration = new FileAuthConfiguration(config.getAbsolutePath());
+        return new CredentialProperties(new File(temporaryFolder.getRoot(), configuration.getCredentialFileName()).getAbsolutePath(),
+                configuration.getStorageEngine(), configuration.getShards(), configuration.getCompactionPolicy());
+    }
+
+    private CredentialVerifier verifier() throws Exception {
+        return new CredentialVerifier(new FileAuthConfiguration(config.getAbsolutePath()), ticker);
+    }
+
+    private static String entry(final String password) {
+        return "c2FsdA==$" + PasswordHasher.hashPassword("SHA-512", password, 10, "salt");
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(final long duration, final TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+}